@@ -0,0 +1,84 @@
+//
+// Host implementation of the NDK log and bitmap API used by the native crop.
+//
+
+#include <stdarg.h>
+#include <stdio.h>
+
+#include <android/log.h>
+#include <android/bitmap.h>
+
+static int min_priority = ANDROID_LOG_INFO;
+
+int __android_log_print(int prio, const char *tag, const char *fmt, ...) {
+    if (prio < min_priority) {
+        return 0;
+    }
+    static const char levels[] = "??VDIWEFS";
+    fprintf(stderr, "%c/%s: ", levels[prio >= 0 && prio <= ANDROID_LOG_SILENT ? prio : 0], tag);
+    va_list args;
+    va_start(args, fmt);
+    const int written = vfprintf(stderr, fmt, args);
+    va_end(args);
+    fputc('\n', stderr);
+    return written;
+}
+
+int __android_log_set_minimum_priority(int priority) {
+    const int previous = min_priority;
+    min_priority = priority;
+    return previous;
+}
+
+/**
+ * Reads a field of the desktop bitmap, see java/android/graphics/Bitmap.java.
+ */
+static bool bitmap_field(JNIEnv *env, jobject jbitmap, const char *name, const char *signature, jfieldID *field) {
+    jclass bitmap_class = env->GetObjectClass(jbitmap);
+    *field = env->GetFieldID(bitmap_class, name, signature);
+    env->DeleteLocalRef(bitmap_class);
+    return *field != NULL;
+}
+
+int AndroidBitmap_getInfo(JNIEnv *env, jobject jbitmap, AndroidBitmapInfo *info) {
+    if (env == NULL || jbitmap == NULL) {
+        return ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+    }
+    jfieldID width, height;
+    if (!bitmap_field(env, jbitmap, "mWidth", "I", &width) || !bitmap_field(env, jbitmap, "mHeight", "I", &height)) {
+        return ANDROID_BITMAP_RESULT_JNI_EXCEPTION;
+    }
+    if (info != NULL) {
+        info->width = (uint32_t) env->GetIntField(jbitmap, width);
+        info->height = (uint32_t) env->GetIntField(jbitmap, height);
+        info->stride = info->width * 4;
+        info->format = ANDROID_BITMAP_FORMAT_RGBA_8888;
+        info->flags = 0;
+    }
+    return ANDROID_BITMAP_RESULT_SUCCESS;
+}
+
+int AndroidBitmap_lockPixels(JNIEnv *env, jobject jbitmap, void **addrPtr) {
+    if (env == NULL || jbitmap == NULL) {
+        return ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+    }
+    jfieldID pixels;
+    if (!bitmap_field(env, jbitmap, "mPixels", "Ljava/nio/ByteBuffer;", &pixels)) {
+        return ANDROID_BITMAP_RESULT_JNI_EXCEPTION;
+    }
+    jobject buffer = env->GetObjectField(jbitmap, pixels);
+    void *address = buffer != NULL ? env->GetDirectBufferAddress(buffer) : NULL;
+    env->DeleteLocalRef(buffer);
+    if (address == NULL) {
+        return ANDROID_BITMAP_RESULT_ALLOCATION_FAILED;
+    }
+    if (addrPtr != NULL) {
+        *addrPtr = address;
+    }
+    return ANDROID_BITMAP_RESULT_SUCCESS;
+}
+
+int AndroidBitmap_unlockPixels(JNIEnv *env, jobject jbitmap) {
+    // Direct buffer doesn't move, there is nothing to unpin.
+    return env != NULL && jbitmap != NULL ? ANDROID_BITMAP_RESULT_SUCCESS : ANDROID_BITMAP_RESULT_BAD_PARAMETER;
+}
@@ -0,0 +1,38 @@
+//
+// Host stand-in for the NDK log, messages are printed to stderr.
+//
+
+#ifndef UCROP_HOST_ANDROID_LOG_H
+#define UCROP_HOST_ANDROID_LOG_H
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+typedef enum android_LogPriority {
+    ANDROID_LOG_UNKNOWN = 0,
+    ANDROID_LOG_DEFAULT,
+    ANDROID_LOG_VERBOSE,
+    ANDROID_LOG_DEBUG,
+    ANDROID_LOG_INFO,
+    ANDROID_LOG_WARN,
+    ANDROID_LOG_ERROR,
+    ANDROID_LOG_FATAL,
+    ANDROID_LOG_SILENT
+} android_LogPriority;
+
+int __android_log_print(int prio, const char *tag, const char *fmt, ...)
+        __attribute__((format(printf, 3, 4)));
+
+/**
+ * Messages below the priority are dropped, ANDROID_LOG_INFO by default.
+ *
+ * @return the previous minimum priority
+ */
+int __android_log_set_minimum_priority(int priority);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif //UCROP_HOST_ANDROID_LOG_H
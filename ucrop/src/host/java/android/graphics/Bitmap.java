@@ -0,0 +1,67 @@
+package android.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Desktop stand-in for the Android bitmap, only what the native crop needs.
+ * Pixels are premultiplied RGBA_8888 in a direct buffer, which the host bitmap shim hands to native code.
+ */
+public final class Bitmap {
+
+    public enum Config {
+        ARGB_8888
+    }
+
+    public enum CompressFormat {
+        JPEG,
+        PNG,
+        WEBP,
+        WEBP_LOSSY,
+        WEBP_LOSSLESS
+    }
+
+    private final int mWidth, mHeight;
+    private final ByteBuffer mPixels;
+
+    private Bitmap(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mPixels = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width and height must be > 0");
+        }
+        return new Bitmap(width, height);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getRowBytes() {
+        return mWidth * 4;
+    }
+
+    public Config getConfig() {
+        return Config.ARGB_8888;
+    }
+
+    public boolean isMutable() {
+        return true;
+    }
+
+    /**
+     * @return read-only view of the pixels, R, G, B and A bytes of every pixel row by row
+     */
+    public ByteBuffer getPixels() {
+        return mPixels.asReadOnlyBuffer();
+    }
+
+}
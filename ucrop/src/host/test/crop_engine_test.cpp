@@ -0,0 +1,600 @@
+//
+// Checks of the native crop against test/fixtures, run by CTest:
+//
+//   crop_engine_test FIXTURES_DIR WORK_DIR
+//
+// gradient.png is 64x48 RGB, the pixel (x, y) is (4 * x, 5 * y, 2 * (x + y)).
+// Behaviour of the crop is checked here, NativeCropTest only checks the JNI bindings on top of it.
+//
+
+#include <limits.h>
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#include "crop_engine.h"
+#include "image_encoder.h"
+#include "jpeg_region.h"
+#include "png_region.h"
+#include "resample.h"
+
+#define FIXTURE_WIDTH  64
+#define FIXTURE_HEIGHT 48
+// Largest difference of a JPEG encoded at quality 100 from the fixture.
+#define JPEG_TOLERANCE 6
+#define CHECKERBOARD_SIZE 64
+
+static int failures = 0;
+
+#define CHECK(condition) do { \
+        if (!(condition)) { \
+            fprintf(stderr, "%s:%d: %s failed\n", __FILE__, __LINE__, #condition); \
+            failures++; \
+        } \
+    } while (0)
+
+static char fixture_path[PATH_MAX];
+static const char *work_dir;
+
+static void work_path(const char *name, char *path) {
+    snprintf(path, PATH_MAX, "%s/%s", work_dir, name);
+}
+
+static bool file_exists(const char *path) {
+    return access(path, F_OK) == 0;
+}
+
+static bool is_fixture_pixel(const unsigned char *pixel, int x, int y) {
+    return pixel[0] == 4 * x && pixel[1] == 5 * y && pixel[2] == 2 * (x + y) && pixel[3] == 255;
+}
+
+static bool is_near_fixture_pixel(const unsigned char *pixel, float x, float y, int tolerance) {
+    return abs(pixel[0] - (int) (4 * x + 0.5f)) <= tolerance
+           && abs(pixel[1] - (int) (5 * y + 0.5f)) <= tolerance
+           && abs(pixel[2] - (int) (2 * (x + y) + 0.5f)) <= tolerance;
+}
+
+static bool matrix_equals(const float *matrix, float a, float b, float c, float d, float e, float f) {
+    const float expected[6] = {a, b, c, d, e, f};
+    for (int i = 0; i < 6; i++) {
+        if (fabsf(matrix[i] - expected[i]) > 1e-4f) {
+            fprintf(stderr, "matrix[%d] is %f, expected %f\n", i, matrix[i], expected[i]);
+            return false;
+        }
+    }
+    return true;
+}
+
+static CropOptions crop_options(int format) {
+    CropOptions options;
+    options.format = format;
+    options.quality = 90;
+    options.webp_effort = 4;
+    options.png_level = 6;
+    options.png_filter = PNG_ROW_FILTER_ADAPTIVE;
+    options.png_parallel = false;
+    options.resampling = RESAMPLING_NEAREST;
+    options.scale_denom = 1;
+    options.threads = 2;
+    return options;
+}
+
+/**
+ * Encodes the top left width x height pixels of the fixture to a JPEG in the work directory.
+ */
+static bool encode_fixture_jpeg(const char *name, int width, int height, int quality, char *path) {
+    work_path(name, path);
+    const ImageSource fixture = image_source_from_path(fixture_path);
+    const ImageTarget target = image_target_from_path(path);
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 0, 0, 0, matrix);
+    CropOptions options = crop_options(SAVE_FORMAT_JPEG);
+    options.quality = quality;
+    char error[256] = "";
+    return crop_image(&fixture, &target, NULL, 0, width, height, matrix, &options, NULL,
+                      error, sizeof(error)) == CROP_RESULT_OK;
+}
+
+static bool read_checkerboard(void *arg, unsigned char *rows, int row_begin, int row_end) {
+    for (int y = row_begin; y < row_end; y++) {
+        for (int x = 0; x < CHECKERBOARD_SIZE; x++) {
+            memset(rows + ((y - row_begin) * CHECKERBOARD_SIZE + x) * 3, (x + y) % 2 ? 255 : 0, 3);
+        }
+    }
+    return true;
+}
+
+/**
+ * Writes RGB checkerboard of black and white pixels, the finest detail an image can have.
+ */
+static bool write_checkerboard(const char *path, int format) {
+    const ImageTarget target = image_target_from_path(path);
+    RowSource rows;
+    rows.read = read_checkerboard;
+    rows.arg = NULL;
+    char error[256] = "";
+    if (format == SAVE_FORMAT_JPEG) {
+        return jpeg_encode_rows(&target, CHECKERBOARD_SIZE, CHECKERBOARD_SIZE, 3, 100, &rows, 16,
+                                error, sizeof(error));
+    }
+    PngOptions png_options;
+    png_options.level = 6;
+    png_options.filter = PNG_ROW_FILTER_NONE;
+    png_options.threads = 1;
+    return png_encode_rows(&target, CHECKERBOARD_SIZE, CHECKERBOARD_SIZE, 3, &png_options, &rows, 16,
+                           error, sizeof(error));
+}
+
+/**
+ * Crops the whole checkerboard scaled by resize_scale.
+ *
+ * @return largest distance of a result sample from mid gray, about 128 while the checkerboard is sharp,
+ * close to 0 when its pixels are averaged, -1 if the crop failed
+ */
+static int checkerboard_contrast(const char *path, int resampling, float resize_scale, int scale_denom) {
+    const ImageSource source = image_source_from_path(path);
+    const int size = (int) (CHECKERBOARD_SIZE * resize_scale);
+    unsigned char *pixels = (unsigned char *) malloc(size * size * 4);
+    float matrix[6];
+    crop_matrix(CHECKERBOARD_SIZE, CHECKERBOARD_SIZE, 0, 1, resize_scale, 0, 0, 0, matrix);
+    CropOptions options = crop_options(-1);
+    options.resampling = resampling;
+    options.scale_denom = scale_denom;
+    char error[256] = "";
+
+    int contrast = -1;
+    if (crop_image(&source, NULL, pixels, size * 4, size, size, matrix, &options, NULL,
+                   error, sizeof(error)) == CROP_RESULT_OK) {
+        contrast = 0;
+        for (int i = 0; i < size * size; i++) {
+            for (int c = 0; c < 3; c++) {
+                const int distance = abs(pixels[i * 4 + c] - 128);
+                contrast = distance > contrast ? distance : contrast;
+            }
+        }
+    }
+    free(pixels);
+    return contrast;
+}
+
+/**
+ * Reads size of a lossy (VP8) or lossless (VP8L) WebP file.
+ */
+static bool read_webp_size(const char *path, int *width, int *height, bool *lossless) {
+    unsigned char header[30];
+    FILE *file = fopen(path, "rb");
+    const size_t length = file != NULL ? fread(header, 1, sizeof(header), file) : 0;
+    if (file != NULL) {
+        fclose(file);
+    }
+    if (length < sizeof(header) || memcmp(header, "RIFF", 4) != 0 || memcmp(header + 8, "WEBP", 4) != 0) {
+        return false;
+    }
+    if (memcmp(header + 12, "VP8L", 4) == 0) {
+        const unsigned int bits = header[21] | header[22] << 8 | header[23] << 16 | (unsigned int) header[24] << 24;
+        *width = (int) (bits & 0x3FFF) + 1;
+        *height = (int) (bits >> 14 & 0x3FFF) + 1;
+        *lossless = true;
+        return true;
+    } else if (memcmp(header + 12, "VP8 ", 4) == 0) {
+        *width = (header[26] | header[27] << 8) & 0x3FFF;
+        *height = (header[28] | header[29] << 8) & 0x3FFF;
+        *lossless = false;
+        return true;
+    }
+    return false;
+}
+
+static void test_crop_matrix() {
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 0, 8, 4, matrix);
+    CHECK(matrix_equals(matrix, 1, 0, 8, 0, 1, 4));
+
+    // Result is the stored image rotated clockwise, its top left pixel comes from the bottom left one.
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 90, 1, 1, 0, 0, 0, matrix);
+    CHECK(matrix_equals(matrix, 0, 1, 0, -1, 0, FIXTURE_HEIGHT - 1));
+
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, -1, 1, 0, 0, 0, matrix);
+    CHECK(matrix_equals(matrix, -1, 0, FIXTURE_WIDTH - 1, 0, 1, 0));
+
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 0.5f, 0, 2, 3, matrix);
+    CHECK(matrix_equals(matrix, 2, 0, 4, 0, 2, 6));
+}
+
+static void test_crop_region() {
+    const ImageSource source = image_source_from_path(fixture_path);
+    const int width = 16, height = 12;
+    unsigned char pixels[16 * 12 * 4];
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 0, 8, 4, matrix);
+    const CropOptions options = crop_options(-1);
+    char error[256] = "";
+
+    const int result = crop_image(&source, NULL, pixels, width * 4, width, height, matrix, &options, NULL,
+                                  error, sizeof(error));
+
+    CHECK(result == CROP_RESULT_OK);
+    for (int y = 0; y < height && result == CROP_RESULT_OK; y++) {
+        for (int x = 0; x < width; x++) {
+            CHECK(is_fixture_pixel(pixels + (y * width + x) * 4, 8 + x, 4 + y));
+        }
+    }
+}
+
+static void test_crop_rotated() {
+    const ImageSource source = image_source_from_path(fixture_path);
+    // Rotated image is 48x64, the bounds leave out its first column.
+    const int width = FIXTURE_HEIGHT - 1, height = FIXTURE_WIDTH;
+    unsigned char *pixels = (unsigned char *) malloc(width * height * 4);
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 90, 1, 0, matrix);
+    const CropOptions options = crop_options(-1);
+    char error[256] = "";
+
+    const int result = crop_image(&source, NULL, pixels, width * 4, width, height, matrix, &options, NULL,
+                                  error, sizeof(error));
+
+    CHECK(result == CROP_RESULT_OK);
+    for (int y = 0; y < height && result == CROP_RESULT_OK; y++) {
+        for (int x = 0; x < width; x++) {
+            CHECK(is_fixture_pixel(pixels + (y * width + x) * 4, y, FIXTURE_HEIGHT - 1 - x));
+        }
+    }
+    free(pixels);
+}
+
+static bool cancel_crop(void *arg, int rows_done, int rows) {
+    (*(int *) arg)++;
+    return false;
+}
+
+static void test_cancel() {
+    const ImageSource source = image_source_from_path(fixture_path);
+    char result_path[PATH_MAX];
+    work_path("cancelled.png", result_path);
+    unlink(result_path);
+    const ImageTarget target = image_target_from_path(result_path);
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 0, 0, 0, matrix);
+    const CropOptions options = crop_options(SAVE_FORMAT_PNG);
+    int calls = 0;
+    CropListener listener;
+    listener.progress = cancel_crop;
+    listener.arg = &calls;
+    char error[256] = "";
+
+    const int result = crop_image(&source, &target, NULL, 0, FIXTURE_WIDTH, FIXTURE_HEIGHT, matrix, &options,
+                                  &listener, error, sizeof(error));
+
+    CHECK(result == CROP_RESULT_CANCELLED);
+    CHECK(calls == 1);
+    CHECK(!file_exists(result_path));
+}
+
+static void test_encode_png() {
+    const ImageSource source = image_source_from_path(fixture_path);
+    char result_path[PATH_MAX], temp_path[PATH_MAX];
+    work_path("region.png", result_path);
+    work_path("region.tmp.png", temp_path);
+    const ImageTarget target = image_target_from_path(result_path);
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 0, 8, 4, matrix);
+    const CropOptions options = crop_options(SAVE_FORMAT_PNG);
+    char error[256] = "";
+
+    const int result = crop_image(&source, &target, NULL, 0, 16, 12, matrix, &options, NULL,
+                                  error, sizeof(error));
+
+    CHECK(result == CROP_RESULT_OK);
+    const ImageSource cropped = image_source_from_path(result_path);
+    int width = 0, height = 0, components = 0;
+    CHECK(png_read_image_info(&cropped, &width, &height, &components));
+    CHECK(width == 16 && height == 12);
+    CHECK(!file_exists(temp_path));
+}
+
+static void test_encode_png_parallel() {
+    const ImageSource source = image_source_from_path(fixture_path);
+    char result_path[PATH_MAX];
+    work_path("parallel.png", result_path);
+    const ImageTarget target = image_target_from_path(result_path);
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 0, 0, 0, matrix);
+    CropOptions options = crop_options(SAVE_FORMAT_PNG);
+    options.png_parallel = true;
+    options.threads = 4;
+    char error[256] = "";
+
+    CHECK(crop_image(&source, &target, NULL, 0, FIXTURE_WIDTH, FIXTURE_HEIGHT, matrix, &options, NULL,
+                     error, sizeof(error)) == CROP_RESULT_OK);
+
+    // Parts of every strip are deflated by separate threads, the stream must still decode to the same pixels.
+    const ImageSource cropped = image_source_from_path(result_path);
+    ImageRegion region = {0, 0, FIXTURE_WIDTH, FIXTURE_HEIGHT};
+    unsigned char *pixels = NULL;
+    int components = 0;
+    CHECK(png_decode_region(&cropped, &region, &pixels, &components, error, sizeof(error)));
+    CHECK(components == 3 && region.width == FIXTURE_WIDTH && region.height == FIXTURE_HEIGHT);
+    for (int y = 0; y < FIXTURE_HEIGHT && pixels != NULL && components == 3; y++) {
+        for (int x = 0; x < FIXTURE_WIDTH; x++) {
+            CHECK(is_near_fixture_pixel(pixels + (y * FIXTURE_WIDTH + x) * 3, x, y, 0));
+        }
+    }
+    free(pixels);
+}
+
+static void test_encode_webp() {
+    const ImageSource source = image_source_from_path(fixture_path);
+    char result_path[PATH_MAX], temp_path[PATH_MAX];
+    work_path("region.webp", result_path);
+    work_path("region.tmp.webp", temp_path);
+    const ImageTarget target = image_target_from_path(result_path);
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 0, 8, 4, matrix);
+    const int formats[2] = {SAVE_FORMAT_WEBP_LOSSY, SAVE_FORMAT_WEBP_LOSSLESS};
+    char error[256] = "";
+
+    for (int i = 0; i < 2; i++) {
+        const CropOptions options = crop_options(formats[i]);
+        CHECK(crop_image(&source, &target, NULL, 0, 16, 12, matrix, &options, NULL,
+                         error, sizeof(error)) == CROP_RESULT_OK);
+        int width = 0, height = 0;
+        bool lossless = false;
+        CHECK(read_webp_size(result_path, &width, &height, &lossless));
+        CHECK(width == 16 && height == 12);
+        CHECK(lossless == (formats[i] == SAVE_FORMAT_WEBP_LOSSLESS));
+        CHECK(!file_exists(temp_path));
+    }
+}
+
+static void test_jpeg_region() {
+    char jpeg_path[PATH_MAX];
+    CHECK(encode_fixture_jpeg("region.jpg", FIXTURE_WIDTH, FIXTURE_HEIGHT, 100, jpeg_path));
+    const ImageSource source = image_source_from_path(jpeg_path);
+    ImageRegion region = {20, 10, 16, 8};
+    unsigned char *pixels = NULL;
+    int components = 0;
+    char error[256] = "";
+
+    CHECK(jpeg_decode_region(&source, 1, &region, &pixels, &components, error, sizeof(error)));
+
+    // Columns widen to the iMCU grid at most, rows out of the region aren't decoded.
+    CHECK(region.x <= 20 && region.x + region.width >= 36 && region.width < FIXTURE_WIDTH);
+    CHECK(region.y <= 10 && region.y + region.height >= 18 && region.height < FIXTURE_HEIGHT);
+    CHECK(components == 3);
+    for (int y = 10; y < 18 && pixels != NULL && components == 3; y++) {
+        for (int x = 20; x < 36; x++) {
+            const unsigned char *pixel = pixels + ((y - region.y) * region.width + x - region.x) * 3;
+            CHECK(is_near_fixture_pixel(pixel, x, y, JPEG_TOLERANCE));
+        }
+    }
+    free(pixels);
+}
+
+static void test_jpeg_scale_denom() {
+    char jpeg_path[PATH_MAX];
+    CHECK(encode_fixture_jpeg("scaled.jpg", FIXTURE_WIDTH, FIXTURE_HEIGHT, 100, jpeg_path));
+    const ImageSource source = image_source_from_path(jpeg_path);
+    ImageRegion region = {0, 0, FIXTURE_WIDTH / 2, FIXTURE_HEIGHT / 2};
+    unsigned char *pixels = NULL;
+    int components = 0;
+    char error[256] = "";
+
+    CHECK(jpeg_decode_region(&source, 2, &region, &pixels, &components, error, sizeof(error)));
+
+    // Decoded pixel (x, y) covers source pixels [2x, 2x + 2) and [2y, 2y + 2), its center is at 2x + 0.5, 2y + 0.5.
+    CHECK(region.width == FIXTURE_WIDTH / 2 && region.height == FIXTURE_HEIGHT / 2 && components == 3);
+    for (int y = 0; y < region.height && pixels != NULL && components == 3; y++) {
+        for (int x = 0; x < region.width; x++) {
+            CHECK(is_near_fixture_pixel(pixels + (y * region.width + x) * 3, 2 * x + 0.5f, 2 * y + 0.5f,
+                                        JPEG_TOLERANCE));
+        }
+    }
+    free(pixels);
+
+    // Scale denominator of the options forces the downscaled IDCT even for a result of the source size,
+    // it averages the checkerboard out.
+    char board_path[PATH_MAX];
+    work_path("checkerboard.jpg", board_path);
+    CHECK(write_checkerboard(board_path, SAVE_FORMAT_JPEG));
+    CHECK(checkerboard_contrast(board_path, RESAMPLING_NEAREST, 1, 1) > 96);
+    const int contrast = checkerboard_contrast(board_path, RESAMPLING_NEAREST, 1, 2);
+    CHECK(contrast >= 0 && contrast < 16);
+}
+
+static void test_pyramid() {
+    char board_path[PATH_MAX];
+    work_path("checkerboard.png", board_path);
+    CHECK(write_checkerboard(board_path, SAVE_FORMAT_PNG));
+
+    // Result pixel of a 1/4 downscale maps to a whole source pixel, so nearest neighbour sees one color only.
+    CHECK(checkerboard_contrast(board_path, RESAMPLING_NEAREST, 0.25f, 1) > 96);
+    // Interpolation would see the same pixels, two pyramid levels average all of them into gray.
+    const int contrast = checkerboard_contrast(board_path, RESAMPLING_BILINEAR, 0.25f, 1);
+    CHECK(contrast >= 0 && contrast < 4);
+}
+
+static void test_exact_warp() {
+    SourceImage src;
+    src.data = NULL;
+    src.width = FIXTURE_WIDTH;
+    src.height = FIXTURE_HEIGHT;
+    src.components = 3;
+
+    // Float noise of a rotation by 90 degrees snaps to whole pixels.
+    CropWarp rotated = {1e-5f, 1, 0.3f, -1, 0, FIXTURE_HEIGHT - 0.8f};
+    CHECK(snap_exact_warp(&src, FIXTURE_HEIGHT - 1, FIXTURE_WIDTH, &rotated));
+    CHECK(rotated.a == 0 && rotated.b == 1 && rotated.c == 0
+          && rotated.d == -1 && rotated.e == 0 && rotated.f == FIXTURE_HEIGHT - 1);
+    CropWarp scaled = {0.5f, 0, 0, 0, 0.5f, 0};
+    CHECK(!snap_exact_warp(&src, 16, 16, &scaled));
+    // Result would read past the right edge of the source.
+    CropWarp outside = {1, 0, 20, 0, 1, 0};
+    CHECK(!snap_exact_warp(&src, FIXTURE_WIDTH - 8, 8, &outside));
+
+    // Mirrored image rotated by 270 degrees is a copy of the source pixels even with interpolation.
+    const ImageSource source = image_source_from_path(fixture_path);
+    const int width = FIXTURE_HEIGHT, height = FIXTURE_WIDTH;
+    unsigned char *pixels = (unsigned char *) malloc(width * height * 4);
+    float matrix[6];
+    crop_matrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, -1, 1, 270, 0, 0, matrix);
+    CropOptions options = crop_options(-1);
+    options.resampling = RESAMPLING_BILINEAR;
+    char error[256] = "";
+
+    const int result = crop_image(&source, NULL, pixels, width * 4, width, height, matrix, &options, NULL,
+                                  error, sizeof(error));
+
+    CHECK(result == CROP_RESULT_OK);
+    for (int y = 0; y < height && result == CROP_RESULT_OK; y++) {
+        for (int x = 0; x < width; x++) {
+            const int sx = (int) floorf(matrix[0] * x + matrix[1] * y + matrix[2] + 0.5f);
+            const int sy = (int) floorf(matrix[3] * x + matrix[4] * y + matrix[5] + 0.5f);
+            CHECK(is_fixture_pixel(pixels + (y * width + x) * 4, sx, sy));
+        }
+    }
+    free(pixels);
+}
+
+static unsigned int random_state = 1;
+
+// Small LCG, so the random cases are the same on every platform.
+static unsigned int random_next() {
+    random_state = random_state * 1103515245u + 12345u;
+    return random_state >> 8;
+}
+
+static float random_float(float min, float max) {
+    return min + (max - min) * (float) (random_next() & 0xFFFF) / 65535.0f;
+}
+
+/**
+ * Samples rows of random warps of a random source with the kernel and the reference linear interpolation.
+ * Warps rotate by any angle, scale between 1/4 and 4 times and reach outside of the source to hit the clamping.
+ *
+ * @return largest difference of a sample
+ */
+static int max_bilinear_difference(SampleRowFunction kernel, int components, int warps) {
+    const int src_width = 97, src_height = 61, width = 83;
+    unsigned char *data = (unsigned char *) malloc(src_width * src_height * components);
+    for (int i = 0; i < src_width * src_height * components; i++) {
+        data[i] = (unsigned char) random_next();
+    }
+    SourceImage src;
+    src.data = data;
+    src.width = src_width;
+    src.height = src_height;
+    src.components = components;
+    unsigned char *expected = (unsigned char *) malloc(width * components);
+    unsigned char *actual = (unsigned char *) malloc(width * components);
+
+    int max_difference = 0;
+    for (int i = 0; i < warps; i++) {
+        const float angle = random_float(0, 2 * (float) M_PI), scale = random_float(0.25f, 4);
+        CropWarp warp;
+        warp.a = cosf(angle) / scale;
+        warp.b = -sinf(angle) / scale;
+        warp.c = random_float(-8, src_width + 8);
+        warp.d = sinf(angle) / scale;
+        warp.e = cosf(angle) / scale;
+        warp.f = random_float(-8, src_height + 8);
+        for (int y = 0; y < 16; y++) {
+            bilinear_row_scalar(&src, &warp, y, expected, width);
+            kernel(&src, &warp, y, actual, width);
+            for (int j = 0; j < width * components; j++) {
+                const int difference = abs(actual[j] - expected[j]);
+                max_difference = difference > max_difference ? difference : max_difference;
+            }
+        }
+    }
+    free(actual);
+    free(expected);
+    free(data);
+    return max_difference;
+}
+
+static void test_bilinear_sse2() {
+#ifdef UCROP_HAVE_SSE2
+    // Vector kernel rounds weights differently, samples are within 1 LSB of the reference.
+    CHECK(max_bilinear_difference(bilinear_row_sse2, 3, 200) <= 1);
+    CHECK(max_bilinear_difference(bilinear_row_sse2, 4, 200) <= 1);
+#endif
+}
+
+static void test_bilinear_fixed() {
+    // Documented bound of the fixed point kernel, it runs on 32-bit ARM only but builds everywhere.
+    for (int components = 1; components <= 4; components++) {
+        CHECK(max_bilinear_difference(bilinear_row_fixed, components, 200) <= 2);
+    }
+}
+
+static void test_jpeg_lossless() {
+    // Source JPEG is encoded from the fixture first.
+    char jpeg_path[PATH_MAX], result_path[PATH_MAX];
+    CHECK(encode_fixture_jpeg("gradient.jpg", FIXTURE_WIDTH, FIXTURE_HEIGHT, 90, jpeg_path));
+    work_path("lossless.jpg", result_path);
+    char error[256] = "";
+
+    // Encoder subsamples chroma 2x2, so the iMCU is 16x16.
+    const ImageSource source = image_source_from_path(jpeg_path);
+    const ImageSource cropped = image_source_from_path(result_path);
+    int width = 0, height = 0, components = 0;
+    int bounds[4] = {0, 0, 0, 0};
+
+    CHECK(crop_jpeg_lossless(&source, result_path, 16, 16, 32, 16, 0, 0, 1, bounds, error, sizeof(error)));
+    CHECK(bounds[0] == 16 && bounds[1] == 16 && bounds[2] == 32 && bounds[3] == 16);
+    CHECK(jpeg_read_info(&cropped, &width, &height, &components));
+    CHECK(width == 32 && height == 16);
+
+    // Start moves back onto the grid and the bounds grow.
+    CHECK(crop_jpeg_lossless(&source, result_path, 3, 5, 32, 16, 0, 0, 1, bounds, error, sizeof(error)));
+    CHECK(bounds[0] == 0 && bounds[1] == 0 && bounds[2] == 35 && bounds[3] == 21);
+    CHECK(jpeg_read_info(&cropped, &width, &height, &components));
+    CHECK(width == 35 && height == 21);
+
+    // Rotated by 180 degrees the origin is the bottom right source corner, the source end moves forward.
+    CHECK(crop_jpeg_lossless(&source, result_path, 3, 0, 29, 16, 180, 0, 1, bounds, error, sizeof(error)));
+    CHECK(bounds[0] == 0 && bounds[1] == 0 && bounds[2] == 32 && bounds[3] == 16);
+
+    // 40x40 source ends with a partial iMCU, a mirrored end within it is trimmed and nothing is left here.
+    char partial_path[PATH_MAX];
+    CHECK(encode_fixture_jpeg("partial.jpg", 40, 40, 90, partial_path));
+    const ImageSource partial = image_source_from_path(partial_path);
+    unlink(result_path);
+    CHECK(!crop_jpeg_lossless(&partial, result_path, 0, 0, 8, 8, 180, 0, 1, bounds, error, sizeof(error)));
+    CHECK(!file_exists(result_path));
+    CHECK(crop_jpeg_lossless(&partial, result_path, 0, 0, 24, 24, 180, 0, 1, bounds, error, sizeof(error)));
+    CHECK(bounds[0] == 8 && bounds[1] == 8 && bounds[2] == 16 && bounds[3] == 16);
+}
+
+int main(int argc, char **argv) {
+    if (argc != 3) {
+        fprintf(stderr, "Usage: %s FIXTURES_DIR WORK_DIR\n", argv[0]);
+        return 2;
+    }
+    snprintf(fixture_path, sizeof(fixture_path), "%s/gradient.png", argv[1]);
+    work_dir = argv[2];
+
+    test_crop_matrix();
+    test_crop_region();
+    test_crop_rotated();
+    test_cancel();
+    test_encode_png();
+    test_encode_png_parallel();
+    test_encode_webp();
+    test_jpeg_region();
+    test_jpeg_scale_denom();
+    test_pyramid();
+    test_exact_warp();
+    test_bilinear_sse2();
+    test_bilinear_fixed();
+    test_jpeg_lossless();
+
+    if (failures > 0) {
+        fprintf(stderr, "%d checks failed\n", failures);
+        return 1;
+    }
+    return 0;
+}
@@ -0,0 +1,128 @@
+package com.yalantis.ucrop.task;
+
+import android.graphics.Bitmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Smoke checks of the library bindings on the host build of the native crop: arguments, results and
+ * exceptions cross JNI as declared. Behaviour of the crop itself is checked by crop_engine_test.
+ * test/fixtures/gradient.png is 64x48 RGB, the pixel (x, y) is (4 * x, 5 * y, 2 * (x + y)).
+ */
+public class NativeCropTest {
+
+    private static final int FIXTURE_WIDTH = 64;
+    private static final int FIXTURE_HEIGHT = 48;
+    private static final int RESAMPLING_NEAREST = 0;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private static String fixturePath() {
+        return new File(System.getProperty("ucrop.fixtures"), "gradient.png").getPath();
+    }
+
+    private static float[] regionMatrix(int left, int top) {
+        return NativeCrop.cropMatrix(FIXTURE_WIDTH, FIXTURE_HEIGHT, 0, 1, 1, 0, left, top);
+    }
+
+    private static boolean cropFile(String inputPath, File output, Bitmap.CompressFormat format,
+                                    int width, int height, float[] matrix,
+                                    NativeCrop.ProgressListener listener) throws IOException {
+        return NativeCrop.cropCImg(inputPath, output.getPath(), width, height, matrix,
+                format.ordinal(), 90, 4, 6, 5, false, RESAMPLING_NEAREST, 1, 1, listener);
+    }
+
+    private static void assertFixturePixel(ByteBuffer pixels, int offset, int x, int y) {
+        assertEquals(4 * x, pixels.get(offset) & 0xff);
+        assertEquals(5 * y, pixels.get(offset + 1) & 0xff);
+        assertEquals(2 * (x + y), pixels.get(offset + 2) & 0xff);
+        assertEquals(255, pixels.get(offset + 3) & 0xff);
+    }
+
+    @Test
+    public void cropMatrixReturnsAffineMatrix() {
+        assertArrayEquals(new float[]{1, 0, 8, 0, 1, 4}, regionMatrix(8, 4), 1e-4f);
+    }
+
+    @Test
+    public void cropsIntoBitmap() throws Exception {
+        Bitmap result = Bitmap.createBitmap(16, 12, Bitmap.Config.ARGB_8888);
+
+        assertTrue(NativeCrop.cropCImgBitmap(fixturePath(), result, regionMatrix(8, 4),
+                RESAMPLING_NEAREST, 1, 1, null));
+
+        ByteBuffer pixels = result.getPixels();
+        assertFixturePixel(pixels, 0, 8, 4);
+        assertFixturePixel(pixels, 11 * result.getRowBytes() + 15 * 4, 23, 15);
+    }
+
+    @Test
+    public void cropsFileAndCallsListener() throws Exception {
+        File output = new File(mTemporaryFolder.getRoot(), "region.png");
+        final int[] lastRowsDone = {0};
+
+        assertTrue(cropFile(fixturePath(), output, Bitmap.CompressFormat.PNG, 16, 12, regionMatrix(8, 4),
+                new NativeCrop.ProgressListener() {
+                    @Override
+                    public boolean onNativeProgress(int rowsDone, int rows) {
+                        lastRowsDone[0] = rowsDone;
+                        return true;
+                    }
+                }));
+
+        assertTrue(output.length() > 0);
+        assertEquals(12, lastRowsDone[0]);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledCropThrowsCancellation() throws Exception {
+        cropFile(fixturePath(), new File(mTemporaryFolder.getRoot(), "cancelled.png"), Bitmap.CompressFormat.PNG,
+                FIXTURE_WIDTH, FIXTURE_HEIGHT, regionMatrix(0, 0), new NativeCrop.ProgressListener() {
+                    @Override
+                    public boolean onNativeProgress(int rowsDone, int rows) {
+                        return false;
+                    }
+                });
+    }
+
+    @Test(expected = IOException.class)
+    public void missingSourceThrowsIOException() throws Exception {
+        cropFile(new File(mTemporaryFolder.getRoot(), "missing.png").getPath(),
+                new File(mTemporaryFolder.getRoot(), "missing-result.png"), Bitmap.CompressFormat.PNG,
+                16, 12, regionMatrix(0, 0), null);
+    }
+
+    @Test
+    public void losslessCropFillsResultBounds() throws Exception {
+        File jpeg = new File(mTemporaryFolder.getRoot(), "gradient.jpg");
+        assertTrue(cropFile(fixturePath(), jpeg, Bitmap.CompressFormat.JPEG,
+                FIXTURE_WIDTH, FIXTURE_HEIGHT, regionMatrix(0, 0), null));
+        File output = new File(mTemporaryFolder.getRoot(), "lossless.jpg");
+        int[] bounds = new int[4];
+
+        assertTrue(NativeCrop.cropJpegLossless(jpeg.getPath(), output.getPath(), 16, 16, 32, 16, 0, 0, 1, bounds));
+        assertArrayEquals(new int[]{16, 16, 32, 16}, bounds);
+        assertTrue(output.length() > 0);
+    }
+
+    @Test
+    public void losslessCropOfOtherFormatReturnsFalse() throws Exception {
+        File output = new File(mTemporaryFolder.getRoot(), "lossless.jpg");
+
+        assertFalse(NativeCrop.cropJpegLossless(fixturePath(), output.getPath(), 0, 0, 16, 16, 0, 0, 1, new int[4]));
+    }
+
+}
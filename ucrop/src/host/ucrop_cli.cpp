@@ -0,0 +1,261 @@
+//
+// Command-line driver of the native crop built for the host, to run and profile it without a device.
+//
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <strings.h>
+#include <math.h>
+#include <time.h>
+#include <unistd.h>
+
+#include <android/log.h>
+#include "crop_engine.h"
+#include "image_encoder.h"
+#include "jpeg_region.h"
+#include "png_region.h"
+#include "resample.h"
+
+static void usage(const char *name) {
+    fprintf(stderr,
+            "Usage: %s [options] INPUT OUTPUT\n"
+            "\n"
+            "Crops INPUT the way the library does and saves the result to OUTPUT.\n"
+            "\n"
+            "  -c LEFT,TOP,WIDTH,HEIGHT  crop bounds in the rotated and resized image, all of it by default\n"
+            "  -a DEGREES                clockwise rotation of the image, 0 by default\n"
+            "  -s SCALE                  resize scale of the image, 1 by default\n"
+            "  -i WIDTH,HEIGHT           size of INPUT, read from the header of JPEG and PNG\n"
+            "  -f FORMAT                 jpeg, png, webp, webp-lossy or webp-lossless,\n"
+            "                            by the extension of OUTPUT by default, other extensions are saved by CImg\n"
+            "  -q QUALITY                0 to 100, 90 by default\n"
+            "  -e EFFORT                 WebP method, 0 (fastest) to 6 (smallest), 4 by default\n"
+            "  -z LEVEL                  PNG compression level, 0 to 9, 6 by default\n"
+            "  -p FILTER                 PNG filter: none, sub, up, average, paeth or adaptive (default)\n"
+            "  -P                        deflate PNG on all threads\n"
+            "  -r FILTER                 resampling: nearest, bilinear (default), bicubic or lanczos3\n"
+            "  -d DENOM                  decode JPEG downscaled by at least 1/DENOM, 1 by default\n"
+            "  -t THREADS                number of threads, 0 (default) to use all cores\n"
+            "  -l                        crop JPEG losslessly when the rotation is a right angle, SCALE is 1\n"
+            "                            and the crop bounds start on the MCU grid\n"
+            "  -n RUNS                   repeat the crop and print the time of every run\n"
+            "  -v                        print debug log of the crop\n",
+            name);
+}
+
+static int find_name(const char *value, const char *const *names, int count) {
+    for (int i = 0; i < count; i++) {
+        if (strcasecmp(value, names[i]) == 0) {
+            return i;
+        }
+    }
+    return -1;
+}
+
+static const char *const FORMAT_NAMES[] = {"jpeg", "png", "webp", "webp-lossy", "webp-lossless"};
+static const char *const PNG_FILTER_NAMES[] = {"none", "sub", "up", "average", "paeth", "adaptive"};
+static const char *const RESAMPLING_NAMES[] = {"nearest", "bilinear", "bicubic", "lanczos3"};
+
+#define COUNT_OF(array) ((int) (sizeof(array) / sizeof((array)[0])))
+
+/**
+ * @return one of SAVE_FORMAT_* values, or -1 to let CImg save the result by the extension
+ */
+static int format_of_path(const char *path) {
+    const char *extension = strrchr(path, '.');
+    if (extension == NULL) {
+        return -1;
+    }
+    extension++;
+    if (strcasecmp(extension, "jpg") == 0 || strcasecmp(extension, "jpeg") == 0) {
+        return SAVE_FORMAT_JPEG;
+    } else if (strcasecmp(extension, "png") == 0) {
+        return SAVE_FORMAT_PNG;
+    } else if (strcasecmp(extension, "webp") == 0) {
+        return SAVE_FORMAT_WEBP_LOSSY;
+    }
+    return -1;
+}
+
+static double now_ms() {
+    timespec time;
+    clock_gettime(CLOCK_MONOTONIC, &time);
+    return time.tv_sec * 1000.0 + time.tv_nsec / 1000000.0;
+}
+
+struct ProgressCounter {
+    int strips;
+};
+
+static bool count_strip(void *arg, int rows_done, int rows) {
+    ProgressCounter *counter = (ProgressCounter *) arg;
+    counter->strips++;
+    __android_log_print(ANDROID_LOG_DEBUG, "uCrop CLI", "%d of %d rows", rows_done, rows);
+    return true;
+}
+
+int main(int argc, char **argv) {
+    CropOptions options;
+    options.format = -2;
+    options.quality = 90;
+    options.webp_effort = 4;
+    options.png_level = 6;
+    options.png_filter = PNG_ROW_FILTER_ADAPTIVE;
+    options.png_parallel = false;
+    options.resampling = RESAMPLING_BILINEAR;
+    options.scale_denom = 1;
+    options.threads = 0;
+
+    int left = 0, top = 0, width = 0, height = 0;
+    int image_width = 0, image_height = 0;
+    float angle = 0, scale = 1;
+    bool lossless = false;
+    int runs = 1;
+
+    int option;
+    while ((option = getopt(argc, argv, "c:a:s:i:f:q:e:z:p:Pr:d:t:ln:vh")) != -1) {
+        switch (option) {
+            case 'c':
+                if (sscanf(optarg, "%d,%d,%d,%d", &left, &top, &width, &height) != 4 || width <= 0 || height <= 0) {
+                    fprintf(stderr, "Invalid crop bounds '%s'\n", optarg);
+                    return 2;
+                }
+                break;
+            case 'a':
+                angle = (float) atof(optarg);
+                break;
+            case 's':
+                scale = (float) atof(optarg);
+                if (scale <= 0) {
+                    fprintf(stderr, "Invalid scale '%s'\n", optarg);
+                    return 2;
+                }
+                break;
+            case 'i':
+                if (sscanf(optarg, "%d,%d", &image_width, &image_height) != 2 || image_width <= 0 || image_height <= 0) {
+                    fprintf(stderr, "Invalid image size '%s'\n", optarg);
+                    return 2;
+                }
+                break;
+            case 'f':
+                options.format = find_name(optarg, FORMAT_NAMES, COUNT_OF(FORMAT_NAMES));
+                if (options.format < 0) {
+                    fprintf(stderr, "Unknown format '%s'\n", optarg);
+                    return 2;
+                }
+                break;
+            case 'q':
+                options.quality = atoi(optarg);
+                break;
+            case 'e':
+                options.webp_effort = atoi(optarg);
+                break;
+            case 'z':
+                options.png_level = atoi(optarg);
+                break;
+            case 'p':
+                options.png_filter = find_name(optarg, PNG_FILTER_NAMES, COUNT_OF(PNG_FILTER_NAMES));
+                if (options.png_filter < 0) {
+                    fprintf(stderr, "Unknown PNG filter '%s'\n", optarg);
+                    return 2;
+                }
+                break;
+            case 'P':
+                options.png_parallel = true;
+                break;
+            case 'r':
+                options.resampling = find_name(optarg, RESAMPLING_NAMES, COUNT_OF(RESAMPLING_NAMES));
+                if (options.resampling < 0) {
+                    fprintf(stderr, "Unknown resampling '%s'\n", optarg);
+                    return 2;
+                }
+                break;
+            case 'd':
+                options.scale_denom = atoi(optarg);
+                break;
+            case 't':
+                options.threads = atoi(optarg);
+                break;
+            case 'l':
+                lossless = true;
+                break;
+            case 'n':
+                runs = atoi(optarg);
+                break;
+            case 'v':
+                __android_log_set_minimum_priority(ANDROID_LOG_DEBUG);
+                break;
+            default:
+                usage(argv[0]);
+                return option == 'h' ? 0 : 2;
+        }
+    }
+    if (argc - optind != 2) {
+        usage(argv[0]);
+        return 2;
+    }
+    const char *input_path = argv[optind];
+    const char *output_path = argv[optind + 1];
+    if (options.format == -2) {
+        options.format = format_of_path(output_path);
+    }
+
+    const ImageSource source = image_source_from_path(input_path);
+    const ImageTarget target = image_target_from_path(output_path);
+    int components;
+    if (image_width == 0
+        && !jpeg_read_info(&source, &image_width, &image_height, &components)
+        && !png_read_image_info(&source, &image_width, &image_height, &components)) {
+        fprintf(stderr, "Can't read the size of '%s', pass it with -i WIDTH,HEIGHT\n", input_path);
+        return 1;
+    }
+    if (width == 0) {
+        const int resized_width = scale != 1 ? (int) (image_width * scale) : image_width;
+        const int resized_height = scale != 1 ? (int) (image_height * scale) : image_height;
+        const double radians = angle * M_PI / 180;
+        const double cos_a = fabs(cos(radians)), sin_a = fabs(sin(radians));
+        width = (int) (resized_width * cos_a + resized_height * sin_a);
+        height = (int) (resized_width * sin_a + resized_height * cos_a);
+    }
+
+    float matrix[6];
+    crop_matrix(image_width, image_height, 0, 1, scale, angle, left, top, matrix);
+    const int right_angle = fmodf(angle, 90) == 0 ? ((int) angle % 360 + 360) % 360 : -1;
+    const bool try_lossless = lossless && right_angle >= 0 && scale == 1 && options.format == SAVE_FORMAT_JPEG;
+
+    for (int run = 0; run < runs; run++) {
+        char error[256] = "";
+        ProgressCounter counter;
+        counter.strips = 0;
+        CropListener listener;
+        listener.progress = count_strip;
+        listener.arg = &counter;
+
+        const double start = now_ms();
+        int result = CROP_RESULT_IO_ERROR;
+        int bounds[4] = {left, top, width, height};
+        const bool transformed = try_lossless
+                                 && crop_jpeg_lossless(&source, output_path, left, top, width, height, right_angle,
+                                                       0, 1, bounds, error, sizeof(error));
+        if (transformed) {
+            result = CROP_RESULT_OK;
+        } else {
+            if (try_lossless && error[0] != '\0') {
+                fprintf(stderr, "Lossless crop failed: %s\n", error);
+            }
+            result = crop_image(&source, &target, NULL, 0, width, height, matrix, &options, &listener,
+                                error, sizeof(error));
+        }
+        const double elapsed = now_ms() - start;
+
+        if (result != CROP_RESULT_OK) {
+            fprintf(stderr, "Crop failed (%d): %s\n", result, error);
+            return 1;
+        }
+        printf("run %d: %s %dx%d at %d,%d of %dx%d in %.1f ms, %d strips\n", run + 1,
+               transformed ? "lossless" : "sampled", bounds[2], bounds[3], bounds[0], bounds[1],
+               image_width, image_height, elapsed, counter.strips);
+    }
+    return 0;
+}
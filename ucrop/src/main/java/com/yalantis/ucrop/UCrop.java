@@ -13,6 +13,8 @@ import android.os.Parcelable;
 
 import com.yalantis.ucrop.model.AspectRatio;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Locale;
@@ -20,6 +22,7 @@ import java.util.Locale;
 import androidx.annotation.ColorInt;
 import androidx.annotation.DrawableRes;
 import androidx.annotation.FloatRange;
+import androidx.annotation.IntDef;
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -259,12 +262,74 @@ public class UCrop {
      */
     public static class Options {
 
+        /**
+         * Takes the closest source pixel. Cheapest, one read per result pixel, but edges get jagged.
+         */
+        public static final int RESAMPLING_NEAREST = 0;
+        /**
+         * Linear interpolation of 2x2 source pixels, vectorized where the CPU allows it (default).
+         */
+        public static final int RESAMPLING_BILINEAR = 1;
+        /**
+         * Catmull-Rom interpolation of 4x4 source pixels. Sharper than bilinear, several times slower.
+         */
+        public static final int RESAMPLING_BICUBIC = 2;
+        /**
+         * Lanczos interpolation of 6x6 source pixels. Sharpest, roughly twice the cost of bicubic.
+         */
+        public static final int RESAMPLING_LANCZOS3 = 3;
+
+        @IntDef({RESAMPLING_NEAREST, RESAMPLING_BILINEAR, RESAMPLING_BICUBIC, RESAMPLING_LANCZOS3})
+        @Retention(RetentionPolicy.SOURCE)
+        public @interface ResamplingQuality {
+
+        }
+
+        /**
+         * Rows are stored as they are. Fastest, largest file.
+         */
+        public static final int PNG_FILTER_NONE = 0;
+        /**
+         * Each byte is predicted from the pixel on the left.
+         */
+        public static final int PNG_FILTER_SUB = 1;
+        /**
+         * Each byte is predicted from the pixel above.
+         */
+        public static final int PNG_FILTER_UP = 2;
+        /**
+         * Each byte is predicted from the mean of the pixels on the left and above.
+         */
+        public static final int PNG_FILTER_AVERAGE = 3;
+        /**
+         * Each byte is predicted by the Paeth predictor of the pixels on the left, above and upper left.
+         */
+        public static final int PNG_FILTER_PAETH = 4;
+        /**
+         * Filter is chosen for each row by the encoder (default). Smallest file in most cases, slowest.
+         */
+        public static final int PNG_FILTER_ADAPTIVE = 5;
+
+        @IntDef({PNG_FILTER_NONE, PNG_FILTER_SUB, PNG_FILTER_UP, PNG_FILTER_AVERAGE, PNG_FILTER_PAETH,
+                PNG_FILTER_ADAPTIVE})
+        @Retention(RetentionPolicy.SOURCE)
+        public @interface PngFilter {
+
+        }
+
         public static final String EXTRA_COMPRESSION_FORMAT_NAME = EXTRA_PREFIX + ".CompressionFormatName";
         public static final String EXTRA_COMPRESSION_QUALITY = EXTRA_PREFIX + ".CompressionQuality";
+        public static final String EXTRA_WEBP_EFFORT = EXTRA_PREFIX + ".WebpEffort";
+        public static final String EXTRA_PNG_COMPRESSION_LEVEL = EXTRA_PREFIX + ".PngCompressionLevel";
+        public static final String EXTRA_PNG_FILTER = EXTRA_PREFIX + ".PngFilter";
+        public static final String EXTRA_PNG_PARALLEL_DEFLATE = EXTRA_PREFIX + ".PngParallelDeflate";
 
         public static final String EXTRA_ALLOWED_GESTURES = EXTRA_PREFIX + ".AllowedGestures";
 
         public static final String EXTRA_MAX_BITMAP_SIZE = EXTRA_PREFIX + ".MaxBitmapSize";
+        public static final String EXTRA_TILED_PREVIEW = EXTRA_PREFIX + ".TiledPreview";
+        public static final String EXTRA_CROP_THREAD_COUNT = EXTRA_PREFIX + ".CropThreadCount";
+        public static final String EXTRA_RESAMPLING_QUALITY = EXTRA_PREFIX + ".ResamplingQuality";
         public static final String EXTRA_MAX_SCALE_MULTIPLIER = EXTRA_PREFIX + ".MaxScaleMultiplier";
         public static final String EXTRA_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION = EXTRA_PREFIX + ".ImageToCropBoundsAnimDuration";
 
@@ -363,6 +428,80 @@ public class UCrop {
             mOptionBundle.putInt(EXTRA_MAX_BITMAP_SIZE, maxBitmapSize);
         }
 
+        /**
+         * Set whether the zoomed in image is drawn from tiles decoded at screen resolution over the bitmap of the view.
+         * Tiles of the visible part are decoded in background and cached, only JPEG, PNG and WebP images are tiled.
+         *
+         * @param enabled - true to draw the tiles, false by default
+         */
+        public void setTiledPreviewEnabled(boolean enabled) {
+            mOptionBundle.putBoolean(EXTRA_TILED_PREVIEW, enabled);
+        }
+
+        /**
+         * Set number of threads used to resize and rotate the image while cropping.
+         * Result doesn't depend on the thread count.
+         *
+         * @param threadCount - number of threads, 0 to use all available CPU cores (default)
+         */
+        public void setCropThreadCount(@IntRange(from = 0) int threadCount) {
+            mOptionBundle.putInt(EXTRA_CROP_THREAD_COUNT, threadCount);
+        }
+
+        /**
+         * Set how much time the WebP encoder spends on making the result smaller,
+         * used with {@link android.graphics.Bitmap.CompressFormat} WEBP, WEBP_LOSSY and WEBP_LOSSLESS.
+         * WEBP is saved lossless at compression quality 100 and lossy otherwise.
+         *
+         * @param effort - 0 (fastest) to 6 (smallest), 4 by default
+         */
+        public void setWebpEffort(@IntRange(from = 0, to = 6) int effort) {
+            mOptionBundle.putInt(EXTRA_WEBP_EFFORT, effort);
+        }
+
+        /**
+         * Set zlib compression level of PNG results.
+         * PNG is lossless, the level only trades encoding time for file size.
+         *
+         * @param level - 0 (stored) to 9 (smallest), 6 by default
+         */
+        public void setPngCompressionLevel(@IntRange(from = 0, to = 9) int level) {
+            mOptionBundle.putInt(EXTRA_PNG_COMPRESSION_LEVEL, level);
+        }
+
+        /**
+         * Set filter applied to rows of PNG results before they are deflated.
+         * A fixed filter is faster than the adaptive one, PNG_FILTER_NONE is the fastest.
+         *
+         * @param filter - one of {@link #PNG_FILTER_NONE}, {@link #PNG_FILTER_SUB}, {@link #PNG_FILTER_UP},
+         *               {@link #PNG_FILTER_AVERAGE}, {@link #PNG_FILTER_PAETH}, {@link #PNG_FILTER_ADAPTIVE} (default)
+         */
+        public void setPngFilter(@PngFilter int filter) {
+            mOptionBundle.putInt(EXTRA_PNG_FILTER, filter);
+        }
+
+        /**
+         * Set whether PNG results are filtered and deflated on all crop threads.
+         * Rows are split into parts that are compressed independently,
+         * so the file gets slightly larger in exchange for encoding several times faster.
+         *
+         * @param parallel - false by default
+         */
+        public void setPngParallelDeflate(boolean parallel) {
+            mOptionBundle.putBoolean(EXTRA_PNG_PARALLEL_DEFLATE, parallel);
+        }
+
+        /**
+         * Set filter used to sample the source image when the result is resized or rotated.
+         * Lossless crops of JPEG images by right angles don't resample at all.
+         *
+         * @param quality - one of {@link #RESAMPLING_NEAREST}, {@link #RESAMPLING_BILINEAR} (default),
+         *                {@link #RESAMPLING_BICUBIC}, {@link #RESAMPLING_LANCZOS3}
+         */
+        public void setResamplingQuality(@ResamplingQuality int quality) {
+            mOptionBundle.putInt(EXTRA_RESAMPLING_QUALITY, quality);
+        }
+
         /**
          * @param color - desired color of dimmed area around the crop bounds
          */
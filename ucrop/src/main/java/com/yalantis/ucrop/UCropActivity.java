@@ -22,10 +22,12 @@ import android.view.animation.AccelerateInterpolator;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.yalantis.ucrop.callback.BitmapCropCallback;
+import com.yalantis.ucrop.callback.CropProgressCallback;
 import com.yalantis.ucrop.model.AspectRatio;
 import com.yalantis.ucrop.util.SelectedStateListDrawable;
 import com.yalantis.ucrop.view.CropImageView;
@@ -109,6 +111,7 @@ public class UCropActivity extends AppCompatActivity {
     private List<ViewGroup> mCropAspectRatioViews = new ArrayList<>();
     private TextView mTextViewRotateAngle, mTextViewScalePercent;
     private View mBlockingView;
+    private ProgressBar mCropProgressBar;
 
     private Transition mControlsTransition;
 
@@ -187,6 +190,10 @@ public class UCropActivity extends AppCompatActivity {
         super.onStop();
         if (mGestureCropImageView != null) {
             mGestureCropImageView.cancelAllAnimations();
+            if (isFinishing()) {
+                // Nobody waits for the result anymore, so the crop doesn't have to be finished.
+                mGestureCropImageView.cancelCrop();
+            }
         }
     }
 
@@ -235,6 +242,13 @@ public class UCropActivity extends AppCompatActivity {
 
         // Crop image view options
         mGestureCropImageView.setMaxBitmapSize(intent.getIntExtra(UCrop.Options.EXTRA_MAX_BITMAP_SIZE, CropImageView.DEFAULT_MAX_BITMAP_SIZE));
+        mGestureCropImageView.setTiledPreviewEnabled(intent.getBooleanExtra(UCrop.Options.EXTRA_TILED_PREVIEW, false));
+        mGestureCropImageView.setCropThreadCount(intent.getIntExtra(UCrop.Options.EXTRA_CROP_THREAD_COUNT, CropImageView.DEFAULT_CROP_THREAD_COUNT));
+        mGestureCropImageView.setResamplingQuality(intent.getIntExtra(UCrop.Options.EXTRA_RESAMPLING_QUALITY, CropImageView.DEFAULT_RESAMPLING_QUALITY));
+        mGestureCropImageView.setWebpEffort(intent.getIntExtra(UCrop.Options.EXTRA_WEBP_EFFORT, CropImageView.DEFAULT_WEBP_EFFORT));
+        mGestureCropImageView.setPngCompressionLevel(intent.getIntExtra(UCrop.Options.EXTRA_PNG_COMPRESSION_LEVEL, CropImageView.DEFAULT_PNG_COMPRESSION_LEVEL));
+        mGestureCropImageView.setPngFilter(intent.getIntExtra(UCrop.Options.EXTRA_PNG_FILTER, CropImageView.DEFAULT_PNG_FILTER));
+        mGestureCropImageView.setPngParallelDeflate(intent.getBooleanExtra(UCrop.Options.EXTRA_PNG_PARALLEL_DEFLATE, false));
         mGestureCropImageView.setMaxScaleMultiplier(intent.getFloatExtra(UCrop.Options.EXTRA_MAX_SCALE_MULTIPLIER, CropImageView.DEFAULT_MAX_SCALE_MULTIPLIER));
         mGestureCropImageView.setImageToWrapCropBoundsAnimDuration(intent.getIntExtra(UCrop.Options.EXTRA_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION, CropImageView.DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION));
 
@@ -363,6 +377,8 @@ public class UCropActivity extends AppCompatActivity {
         mOverlayView = mUCropView.getOverlayView();
 
         mGestureCropImageView.setTransformImageListener(mImageListener);
+        mGestureCropImageView.setCropProgressCallback(mCropProgressCallback);
+        mCropProgressBar = findViewById(R.id.progress_crop);
 
         ((ImageView) findViewById(R.id.image_view_logo)).setColorFilter(mLogoColor, PorterDuff.Mode.SRC_ATOP);
 
@@ -374,6 +390,13 @@ public class UCropActivity extends AppCompatActivity {
         }
     }
 
+    private CropProgressCallback mCropProgressCallback = new CropProgressCallback() {
+        @Override
+        public void onCropProgress(int progress) {
+            mCropProgressBar.setProgress(progress);
+        }
+    };
+
     private TransformImageView.TransformImageListener mImageListener = new TransformImageView.TransformImageListener() {
         @Override
         public void onRotate(float currentAngle) {
@@ -662,6 +685,8 @@ public class UCropActivity extends AppCompatActivity {
 
     protected void cropAndSaveImage() {
         mBlockingView.setClickable(true);
+        mCropProgressBar.setProgress(0);
+        mCropProgressBar.setVisibility(View.VISIBLE);
         mShowLoader = true;
         supportInvalidateOptionsMenu();
 
@@ -669,12 +694,14 @@ public class UCropActivity extends AppCompatActivity {
 
             @Override
             public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+                mCropProgressBar.setVisibility(View.GONE);
                 setResultUri(resultUri, mGestureCropImageView.getTargetAspectRatio(), offsetX, offsetY, imageWidth, imageHeight);
                 finish();
             }
 
             @Override
             public void onCropFailure(@NonNull Throwable t) {
+                mCropProgressBar.setVisibility(View.GONE);
                 setResultError(t);
                 finish();
             }
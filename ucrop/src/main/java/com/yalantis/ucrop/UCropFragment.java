@@ -14,10 +14,12 @@ import android.view.animation.AccelerateInterpolator;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import com.yalantis.ucrop.callback.BitmapCropCallback;
+import com.yalantis.ucrop.callback.CropProgressCallback;
 import com.yalantis.ucrop.model.AspectRatio;
 import com.yalantis.ucrop.util.SelectedStateListDrawable;
 import com.yalantis.ucrop.view.CropImageView;
@@ -90,6 +92,7 @@ public class UCropFragment extends Fragment {
     private List<ViewGroup> mCropAspectRatioViews = new ArrayList<>();
     private TextView mTextViewRotateAngle, mTextViewScalePercent;
     private View mBlockingView;
+    private ProgressBar mCropProgressBar;
 
     private Bitmap.CompressFormat mCompressFormat = DEFAULT_COMPRESS_FORMAT;
     private int mCompressQuality = DEFAULT_COMPRESS_QUALITY;
@@ -117,6 +120,14 @@ public class UCropFragment extends Fragment {
                     + " must implement UCropFragmentCallback");
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (mGestureCropImageView != null) {
+            mGestureCropImageView.cancelCrop();
+        }
+    }
+
     public void setCallback(UCropFragmentCallback callback) {
         this.callback = callback;
     }
@@ -217,6 +228,13 @@ public class UCropFragment extends Fragment {
 
         // Crop image view options
         mGestureCropImageView.setMaxBitmapSize(bundle.getInt(UCrop.Options.EXTRA_MAX_BITMAP_SIZE, CropImageView.DEFAULT_MAX_BITMAP_SIZE));
+        mGestureCropImageView.setTiledPreviewEnabled(bundle.getBoolean(UCrop.Options.EXTRA_TILED_PREVIEW, false));
+        mGestureCropImageView.setCropThreadCount(bundle.getInt(UCrop.Options.EXTRA_CROP_THREAD_COUNT, CropImageView.DEFAULT_CROP_THREAD_COUNT));
+        mGestureCropImageView.setResamplingQuality(bundle.getInt(UCrop.Options.EXTRA_RESAMPLING_QUALITY, CropImageView.DEFAULT_RESAMPLING_QUALITY));
+        mGestureCropImageView.setWebpEffort(bundle.getInt(UCrop.Options.EXTRA_WEBP_EFFORT, CropImageView.DEFAULT_WEBP_EFFORT));
+        mGestureCropImageView.setPngCompressionLevel(bundle.getInt(UCrop.Options.EXTRA_PNG_COMPRESSION_LEVEL, CropImageView.DEFAULT_PNG_COMPRESSION_LEVEL));
+        mGestureCropImageView.setPngFilter(bundle.getInt(UCrop.Options.EXTRA_PNG_FILTER, CropImageView.DEFAULT_PNG_FILTER));
+        mGestureCropImageView.setPngParallelDeflate(bundle.getBoolean(UCrop.Options.EXTRA_PNG_PARALLEL_DEFLATE, false));
         mGestureCropImageView.setMaxScaleMultiplier(bundle.getFloat(UCrop.Options.EXTRA_MAX_SCALE_MULTIPLIER, CropImageView.DEFAULT_MAX_SCALE_MULTIPLIER));
         mGestureCropImageView.setImageToWrapCropBoundsAnimDuration(bundle.getInt(UCrop.Options.EXTRA_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION, CropImageView.DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION));
 
@@ -271,12 +289,21 @@ public class UCropFragment extends Fragment {
         mOverlayView = mUCropView.getOverlayView();
 
         mGestureCropImageView.setTransformImageListener(mImageListener);
+        mGestureCropImageView.setCropProgressCallback(mCropProgressCallback);
+        mCropProgressBar = view.findViewById(R.id.progress_crop);
 
         ((ImageView) view.findViewById(R.id.image_view_logo)).setColorFilter(mLogoColor, PorterDuff.Mode.SRC_ATOP);
 
         view.findViewById(R.id.ucrop_frame).setBackgroundColor(mRootViewBackgroundColor);
     }
 
+    private CropProgressCallback mCropProgressCallback = new CropProgressCallback() {
+        @Override
+        public void onCropProgress(int progress) {
+            mCropProgressBar.setProgress(progress);
+        }
+    };
+
     private TransformImageView.TransformImageListener mImageListener = new TransformImageView.TransformImageListener() {
         @Override
         public void onRotate(float currentAngle) {
@@ -544,18 +571,22 @@ public class UCropFragment extends Fragment {
 
     public void cropAndSaveImage() {
         mBlockingView.setClickable(true);
+        mCropProgressBar.setProgress(0);
+        mCropProgressBar.setVisibility(View.VISIBLE);
         callback.loadingProgress(true);
 
         mGestureCropImageView.cropAndSaveImage(mCompressFormat, mCompressQuality, new BitmapCropCallback() {
 
             @Override
             public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+                mCropProgressBar.setVisibility(View.GONE);
                 callback.onCropFinish(getResult(resultUri, mGestureCropImageView.getTargetAspectRatio(), offsetX, offsetY, imageWidth, imageHeight));
                 callback.loadingProgress(false);
             }
 
             @Override
             public void onCropFailure(@NonNull Throwable t) {
+                mCropProgressBar.setVisibility(View.GONE);
                 callback.onCropFinish(getError(t));
             }
         });
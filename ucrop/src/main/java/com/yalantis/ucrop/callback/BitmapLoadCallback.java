@@ -7,10 +7,15 @@ import com.yalantis.ucrop.model.ExifInfo;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+/**
+ * Receives the bitmap already rotated and mirrored by its EXIF orientation and the input as a file path,
+ * content and remote images are copied to the output path first. See {@link ImageLoadCallback} to get
+ * the bitmap as stored in the file and crop content without copying it.
+ */
 public interface BitmapLoadCallback {
 
     void onBitmapLoaded(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull String imageInputPath, @Nullable String imageOutputPath);
 
     void onFailure(@NonNull Exception bitmapWorkerException);
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,10 @@
+package com.yalantis.ucrop.callback;
+
+public interface CropProgressCallback {
+
+    /**
+     * @param progress - share of the result which is already written, 0 to 100
+     */
+    void onCropProgress(int progress);
+
+}
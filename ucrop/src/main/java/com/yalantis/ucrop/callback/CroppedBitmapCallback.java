@@ -0,0 +1,16 @@
+package com.yalantis.ucrop.callback;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Variant of {@link BitmapCropCallback} for crops into memory, the result is never encoded to a file.
+ */
+public interface CroppedBitmapCallback {
+
+    void onBitmapCropped(@NonNull Bitmap bitmap, int offsetX, int offsetY);
+
+    void onCropFailure(@NonNull Throwable t);
+
+}
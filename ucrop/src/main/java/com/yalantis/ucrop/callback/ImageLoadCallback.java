@@ -0,0 +1,28 @@
+package com.yalantis.ucrop.callback;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageHeader;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Receives the bitmap as stored in the file, EXIF orientation is left to the caller to apply,
+ * together with the image header and the input as an Uri, so content can be cropped without copying it.
+ * Implement {@link ImagePreviewCallback} too to get a preview of large images first.
+ */
+public interface ImageLoadCallback {
+
+    /**
+     * @param imageHeader   - header of the input image, read while loading, to be passed to the crop
+     * @param imageInputUri - file Uri, or content Uri if the image can be cropped right from its content provider
+     */
+    void onImageLoaded(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull ImageHeader imageHeader,
+                       @NonNull Uri imageInputUri, @Nullable Uri imageOutputUri);
+
+    void onFailure(@NonNull Exception bitmapWorkerException);
+
+}
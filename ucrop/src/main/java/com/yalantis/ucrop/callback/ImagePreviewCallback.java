@@ -0,0 +1,25 @@
+package com.yalantis.ucrop.callback;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageHeader;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Optional, implemented along with {@link ImageLoadCallback} to get a coarse bitmap of large images
+ * to show while the full one is decoded. The preview isn't decoded for callbacks which don't implement it.
+ */
+public interface ImagePreviewCallback {
+
+    /**
+     * Called before {@link ImageLoadCallback#onImageLoaded(Bitmap, ExifInfo, ImageHeader, Uri, Uri)}
+     * with a coarse bitmap of the same image.
+     */
+    void onPreviewLoaded(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo, @NonNull ImageHeader imageHeader,
+                         @NonNull Uri imageInputUri, @Nullable Uri imageOutputUri);
+
+}
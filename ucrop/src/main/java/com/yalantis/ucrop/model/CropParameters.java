@@ -1,6 +1,12 @@
 package com.yalantis.ucrop.model;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.yalantis.ucrop.view.CropImageView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Created by Oleksii Shliama [https://github.com/shliama] on 6/21/16.
@@ -11,10 +17,20 @@ public class CropParameters {
 
     private Bitmap.CompressFormat mCompressFormat;
     private int mCompressQuality;
+    private int mWebpEffort;
+    private int mPngCompressionLevel, mPngFilter;
+    private boolean mPngParallelDeflate;
+    private int mCropThreadCount;
+    private int mResamplingQuality;
     private String mImageInputPath, mImageOutputPath;
+    private Uri mContentImageInputUri;
     private ExifInfo mExifInfo;
+    private ImageHeader mImageHeader;
 
 
+    /**
+     * Parameters with default encoder and resampling settings, use {@link Builder} to change them.
+     */
     public CropParameters(int maxResultImageSizeX, int maxResultImageSizeY,
                           Bitmap.CompressFormat compressFormat, int compressQuality,
                           String imageInputPath, String imageOutputPath, ExifInfo exifInfo) {
@@ -25,6 +41,25 @@ public class CropParameters {
         mImageInputPath = imageInputPath;
         mImageOutputPath = imageOutputPath;
         mExifInfo = exifInfo;
+        mWebpEffort = CropImageView.DEFAULT_WEBP_EFFORT;
+        mPngCompressionLevel = CropImageView.DEFAULT_PNG_COMPRESSION_LEVEL;
+        mPngFilter = CropImageView.DEFAULT_PNG_FILTER;
+        mCropThreadCount = CropImageView.DEFAULT_CROP_THREAD_COUNT;
+        mResamplingQuality = CropImageView.DEFAULT_RESAMPLING_QUALITY;
+    }
+
+    private CropParameters(@NonNull Builder builder) {
+        this(builder.mMaxResultImageSizeX, builder.mMaxResultImageSizeY,
+                builder.mCompressFormat, builder.mCompressQuality,
+                builder.mImageInputPath, builder.mImageOutputPath, builder.mExifInfo);
+        mWebpEffort = builder.mWebpEffort;
+        mPngCompressionLevel = builder.mPngCompressionLevel;
+        mPngFilter = builder.mPngFilter;
+        mPngParallelDeflate = builder.mPngParallelDeflate;
+        mCropThreadCount = builder.mCropThreadCount;
+        mResamplingQuality = builder.mResamplingQuality;
+        mContentImageInputUri = builder.mContentImageInputUri;
+        mImageHeader = builder.mImageHeader;
     }
 
     public int getMaxResultImageSizeX() {
@@ -43,6 +78,30 @@ public class CropParameters {
         return mCompressQuality;
     }
 
+    public int getWebpEffort() {
+        return mWebpEffort;
+    }
+
+    public int getPngCompressionLevel() {
+        return mPngCompressionLevel;
+    }
+
+    public int getPngFilter() {
+        return mPngFilter;
+    }
+
+    public boolean isPngParallelDeflate() {
+        return mPngParallelDeflate;
+    }
+
+    public int getCropThreadCount() {
+        return mCropThreadCount;
+    }
+
+    public int getResamplingQuality() {
+        return mResamplingQuality;
+    }
+
     public String getImageInputPath() {
         return mImageInputPath;
     }
@@ -51,8 +110,130 @@ public class CropParameters {
         return mImageOutputPath;
     }
 
+    /**
+     * @return - content Uri the input image is read from instead of a file, null if it is a file
+     */
+    public Uri getContentImageInputUri() {
+        return mContentImageInputUri;
+    }
+
     public ExifInfo getExifInfo() {
         return mExifInfo;
     }
 
+    /**
+     * @return - header of the input image read while loading it, null if the image wasn't loaded from an Uri
+     */
+    public ImageHeader getImageHeader() {
+        return mImageHeader;
+    }
+
+    /**
+     * Sets the optional parameters of the crop, the ones which aren't set keep their defaults.
+     */
+    public static class Builder {
+
+        private final int mMaxResultImageSizeX, mMaxResultImageSizeY;
+        private final Bitmap.CompressFormat mCompressFormat;
+        private final int mCompressQuality;
+        private final String mImageInputPath, mImageOutputPath;
+        private final ExifInfo mExifInfo;
+
+        private int mWebpEffort = CropImageView.DEFAULT_WEBP_EFFORT;
+        private int mPngCompressionLevel = CropImageView.DEFAULT_PNG_COMPRESSION_LEVEL;
+        private int mPngFilter = CropImageView.DEFAULT_PNG_FILTER;
+        private boolean mPngParallelDeflate;
+        private int mCropThreadCount = CropImageView.DEFAULT_CROP_THREAD_COUNT;
+        private int mResamplingQuality = CropImageView.DEFAULT_RESAMPLING_QUALITY;
+        private Uri mContentImageInputUri;
+        private ImageHeader mImageHeader;
+
+        public Builder(int maxResultImageSizeX, int maxResultImageSizeY,
+                       @Nullable Bitmap.CompressFormat compressFormat, int compressQuality,
+                       @Nullable String imageInputPath, @Nullable String imageOutputPath, @NonNull ExifInfo exifInfo) {
+            mMaxResultImageSizeX = maxResultImageSizeX;
+            mMaxResultImageSizeY = maxResultImageSizeY;
+            mCompressFormat = compressFormat;
+            mCompressQuality = compressQuality;
+            mImageInputPath = imageInputPath;
+            mImageOutputPath = imageOutputPath;
+            mExifInfo = exifInfo;
+        }
+
+        /**
+         * @param webpEffort - WebP method, 0 (fastest) to 6 (smallest)
+         */
+        @NonNull
+        public Builder setWebpEffort(int webpEffort) {
+            mWebpEffort = webpEffort;
+            return this;
+        }
+
+        /**
+         * @param pngCompressionLevel - zlib level, 0 to 9
+         */
+        @NonNull
+        public Builder setPngCompressionLevel(int pngCompressionLevel) {
+            mPngCompressionLevel = pngCompressionLevel;
+            return this;
+        }
+
+        /**
+         * @param pngFilter - one of UCrop.Options.PNG_FILTER_* values
+         */
+        @NonNull
+        public Builder setPngFilter(int pngFilter) {
+            mPngFilter = pngFilter;
+            return this;
+        }
+
+        @NonNull
+        public Builder setPngParallelDeflate(boolean pngParallelDeflate) {
+            mPngParallelDeflate = pngParallelDeflate;
+            return this;
+        }
+
+        /**
+         * @param cropThreadCount - number of threads of the native crop, 0 to use all cores
+         */
+        @NonNull
+        public Builder setCropThreadCount(int cropThreadCount) {
+            mCropThreadCount = cropThreadCount;
+            return this;
+        }
+
+        /**
+         * @param resamplingQuality - one of UCrop.Options.RESAMPLING_* values
+         */
+        @NonNull
+        public Builder setResamplingQuality(int resamplingQuality) {
+            mResamplingQuality = resamplingQuality;
+            return this;
+        }
+
+        /**
+         * @param contentImageInputUri - content Uri to read the input image from instead of the input path
+         */
+        @NonNull
+        public Builder setContentImageInputUri(@Nullable Uri contentImageInputUri) {
+            mContentImageInputUri = contentImageInputUri;
+            return this;
+        }
+
+        /**
+         * @param imageHeader - header of the input image read while loading it, saves reading it again
+         */
+        @NonNull
+        public Builder setImageHeader(@Nullable ImageHeader imageHeader) {
+            mImageHeader = imageHeader;
+            return this;
+        }
+
+        @NonNull
+        public CropParameters build() {
+            return new CropParameters(this);
+        }
+
+    }
+
 }
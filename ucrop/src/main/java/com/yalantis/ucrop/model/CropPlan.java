@@ -0,0 +1,83 @@
+package com.yalantis.ucrop.model;
+
+import java.util.Locale;
+
+/**
+ * Strategy of a native crop chosen before it starts, with its estimated peak native memory.
+ */
+public class CropPlan {
+
+    /**
+     * DCT coefficients of the whole JPEG are transformed, nothing is decoded.
+     */
+    public static final int STRATEGY_DCT_TRANSFORM = 0;
+    /**
+     * Only the region under the crop is decoded.
+     */
+    public static final int STRATEGY_REGION_DECODE = 1;
+    /**
+     * Only the region under the crop is decoded, downscaled by the JPEG IDCT more than the result needs.
+     */
+    public static final int STRATEGY_SCALED_DECODE = 2;
+    /**
+     * Whole image is decoded, the format has no region decoder.
+     */
+    public static final int STRATEGY_FULL_DECODE = 3;
+
+    private static final String[] STRATEGY_NAMES = {"DCT transform", "region decode", "scaled decode", "full decode"};
+
+    private final int mStrategy;
+    private final int mScaleDenom;
+    private final boolean mStreamed;
+    private final long mEstimatedBytes;
+    private final long mBudgetBytes;
+
+    public CropPlan(int strategy, int scaleDenom, boolean streamed, long estimatedBytes, long budgetBytes) {
+        mStrategy = strategy;
+        mScaleDenom = scaleDenom;
+        mStreamed = streamed;
+        mEstimatedBytes = estimatedBytes;
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return one of STRATEGY_* constants
+     */
+    public int getStrategy() {
+        return mStrategy;
+    }
+
+    /**
+     * @return JPEG is decoded downscaled by at least 1 / scaleDenom
+     */
+    public int getScaleDenom() {
+        return mScaleDenom;
+    }
+
+    /**
+     * @return whether the result is encoded strip by strip instead of being held in memory at once
+     */
+    public boolean isStreamed() {
+        return mStreamed;
+    }
+
+    public long getEstimatedBytes() {
+        return mEstimatedBytes;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    public boolean fits() {
+        return mEstimatedBytes <= mBudgetBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s 1/%d%s, %d KB of %d KB",
+                STRATEGY_NAMES[mStrategy], mScaleDenom, mStreamed ? ", streamed" : "",
+                mEstimatedBytes / 1024, mBudgetBytes / 1024);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.yalantis.ucrop.model;
+
+import java.util.Locale;
+
+/**
+ * Sample size and density scaling of the bitmap decoded for the view, chosen from the image header
+ * before anything is decoded, with its estimated peak memory.
+ */
+public class DecodePlan {
+
+    private final int mSampleSize;
+    private final int mDensity, mTargetDensity;
+    private final int mWidth, mHeight;
+    private final long mEstimatedBytes;
+    private final long mBudgetBytes;
+
+    public DecodePlan(int sampleSize, int density, int targetDensity, int width, int height,
+                      long estimatedBytes, long budgetBytes) {
+        mSampleSize = sampleSize;
+        mDensity = density;
+        mTargetDensity = targetDensity;
+        mWidth = width;
+        mHeight = height;
+        mEstimatedBytes = estimatedBytes;
+        mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return power of 2 the decoder subsamples the image by
+     */
+    public int getSampleSize() {
+        return mSampleSize;
+    }
+
+    /**
+     * @return whether the subsampled image is scaled by targetDensity / density to the size of the bitmap
+     */
+    public boolean isScaled() {
+        return mDensity > 0 && mTargetDensity > 0 && mDensity != mTargetDensity;
+    }
+
+    public int getDensity() {
+        return mDensity;
+    }
+
+    public int getTargetDensity() {
+        return mTargetDensity;
+    }
+
+    /**
+     * @return expected width of the decoded bitmap
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return expected height of the decoded bitmap
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getEstimatedBytes() {
+        return mEstimatedBytes;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    public boolean fits() {
+        return mEstimatedBytes <= mBudgetBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "1/%d%s to %dx%d, %d KB of %d KB",
+                mSampleSize, isScaled() ? String.format(Locale.US, " scaled %d/%d", mTargetDensity, mDensity) : "",
+                mWidth, mHeight, mEstimatedBytes / 1024, mBudgetBytes / 1024);
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.yalantis.ucrop.model;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Size, format and EXIF of an image read from the first bytes of its file in one pass.
+ * It is passed along with the image from loading to cropping, so the file isn't opened and parsed again.
+ */
+public class ImageHeader {
+
+    private final int mWidth, mHeight;
+    private final String mMimeType;
+    private final int mExifOrientation;
+    private final byte[] mExif;
+    private final int mMcuWidth, mMcuHeight;
+
+    public ImageHeader(int width, int height, @Nullable String mimeType, int exifOrientation, @Nullable byte[] exif) {
+        this(width, height, mimeType, exifOrientation, exif, 0, 0);
+    }
+
+    public ImageHeader(int width, int height, @Nullable String mimeType, int exifOrientation, @Nullable byte[] exif,
+                       int mcuWidth, int mcuHeight) {
+        mWidth = width;
+        mHeight = height;
+        mMimeType = mimeType;
+        mExifOrientation = exifOrientation;
+        mExif = exif;
+        mMcuWidth = mcuWidth;
+        mMcuHeight = mcuHeight;
+    }
+
+    /**
+     * @return width of the image as stored in the file, 0 if it wasn't found in the header
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return height of the image as stored in the file, 0 if it wasn't found in the header
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public boolean hasSize() {
+        return mWidth > 0 && mHeight > 0;
+    }
+
+    /**
+     * @return image/jpeg, image/png or image/webp like {@link android.graphics.BitmapFactory.Options#outMimeType},
+     * null for other formats
+     */
+    @Nullable
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * @return one of ExifInterface.ORIENTATION_* values,
+     * or {@link com.yalantis.ucrop.util.ImageHeaderParser#UNKNOWN_ORIENTATION}
+     */
+    public int getExifOrientation() {
+        return mExifOrientation;
+    }
+
+    /**
+     * @return contents of the JPEG APP1 segment, starting with the Exif preamble, null if the image has none
+     */
+    @Nullable
+    public byte[] getExif() {
+        return mExif;
+    }
+
+    /**
+     * @return width of the JPEG iMCU (8 times the largest horizontal sampling factor) in stored pixels,
+     * 0 if it wasn't found in the header
+     */
+    public int getMcuWidth() {
+        return mMcuWidth;
+    }
+
+    /**
+     * @return height of the JPEG iMCU (8 times the largest vertical sampling factor) in stored pixels,
+     * 0 if it wasn't found in the header
+     */
+    public int getMcuHeight() {
+        return mMcuHeight;
+    }
+
+}
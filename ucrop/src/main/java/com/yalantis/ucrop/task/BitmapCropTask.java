@@ -1,21 +1,36 @@
 package com.yalantis.ucrop.task;
 
+import android.app.ActivityManager;
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.RectF;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import com.yalantis.ucrop.UCrop;
 import com.yalantis.ucrop.callback.BitmapCropCallback;
+import com.yalantis.ucrop.callback.CropProgressCallback;
+import com.yalantis.ucrop.callback.CroppedBitmapCallback;
 import com.yalantis.ucrop.model.CropParameters;
+import com.yalantis.ucrop.model.CropPlan;
 import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageHeader;
 import com.yalantis.ucrop.model.ImageState;
 import com.yalantis.ucrop.util.FileUtils;
 import com.yalantis.ucrop.util.ImageHeaderParser;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -24,17 +39,33 @@ import androidx.exifinterface.media.ExifInterface;
 /**
  * Crops part of image that fills the crop bounds.
  * <p/>
- * First image is downscaled if max size was set and if resulting image is larger that max size.
- * Then image is rotated accordingly.
- * Finally new Bitmap object is created and saved to file.
+ * Crop offset, rotation, downscale (if max size was set and resulting image is larger that max size)
+ * and EXIF orientation are composed into a single transform, so every pixel of the result
+ * is sampled from the source image only once. Finally the result is saved to file.
+ * <p/>
+ * Native crop reports its progress and stops between strips of the result once the task is cancelled.
  */
-public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
+public class BitmapCropTask extends AsyncTask<Void, Integer, Throwable> {
 
     private static final String TAG = "BitmapCropTask";
 
-    static {
-        System.loadLibrary("ucrop");
-    }
+    private static final float RIGHT_ANGLE_EPSILON = 0.01f;
+
+    // Native crop plans to use at most 1/MEMORY_BUDGET_DIVIDER of memory available before the system
+    // starts killing processes, the rest is left for the app and estimation errors.
+    private static final int MEMORY_BUDGET_DIVIDER = 2;
+    // Must match the native crop, see MIN_STRIP_HEIGHT and MIN_ROWS_PER_THREAD in uCrop.cpp.
+    private static final int MIN_STRIP_HEIGHT = 64;
+    private static final int MIN_ROWS_PER_THREAD = 16;
+    // Extra source pixels around the decoded region, see ROI_MARGIN in uCrop.cpp.
+    private static final int REGION_MARGIN = 4;
+    private static final int MAX_JPEG_SCALE_DENOM = 8;
+    private static final int WEBP_BYTES_PER_PIXEL = 8;
+    private static final int ARGB_BYTES_PER_PIXEL = 4;
+    // Largest JPEG iMCU, 2x2 chroma subsampling, used if the header doesn't have the sampling factors.
+    private static final int DEFAULT_MCU_SIZE = 16;
+
+    private final WeakReference<Context> mContext;
 
     private Bitmap mViewBitmap;
 
@@ -46,16 +77,72 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
     private final Bitmap.CompressFormat mCompressFormat;
     private final int mCompressQuality;
+    private final int mWebpEffort;
+    private final int mPngCompressionLevel, mPngFilter;
+    private final boolean mPngParallelDeflate;
+    private final int mCropThreadCount;
+    private final int mResamplingQuality;
     private final String mImageInputPath, mImageOutputPath;
+    private final Uri mContentImageInputUri;
     private final ExifInfo mExifInfo;
+    private final ImageHeader mImageHeader;
     private final BitmapCropCallback mCropCallback;
+    private final boolean mCropToBitmap;
+    private final CroppedBitmapCallback mBitmapCallback;
+    private Bitmap mResultBitmap;
+    private CropProgressCallback mProgressCallback;
+
+    /**
+     * Called by the native crop after each strip of the result, from the background thread.
+     */
+    private final NativeCrop.ProgressListener mNativeProgressListener = new NativeCrop.ProgressListener() {
+        @Override
+        public boolean onNativeProgress(int rowsDone, int rows) {
+            if (mProgressCallback != null && rows > 0) {
+                publishProgress((int) ((long) rowsDone * 100 / rows));
+            }
+            return !isCancelled();
+        }
+    };
 
+    private int mImageWidth, mImageHeight;
+    private String mImageMimeType;
+    private CropPlan mCropPlan;
     private int mCroppedImageWidth, mCroppedImageHeight;
     private int cropOffsetX, cropOffsetY;
 
-    public BitmapCropTask(@Nullable Bitmap viewBitmap, @NonNull ImageState imageState, @NonNull CropParameters cropParameters,
-                          @Nullable BitmapCropCallback cropCallback) {
+    public BitmapCropTask(@NonNull Context context, @Nullable Bitmap viewBitmap, @NonNull ImageState imageState,
+                          @NonNull CropParameters cropParameters, @Nullable BitmapCropCallback cropCallback) {
+        this(context, viewBitmap, imageState, cropParameters, cropCallback, false, null, null);
+    }
+
+    /**
+     * @deprecated use {@link #BitmapCropTask(Context, Bitmap, ImageState, CropParameters, BitmapCropCallback)},
+     * without a context content Uris can't be cropped and the crop isn't planned against the available memory.
+     */
+    @Deprecated
+    public BitmapCropTask(@Nullable Bitmap viewBitmap, @NonNull ImageState imageState,
+                          @NonNull CropParameters cropParameters, @Nullable BitmapCropCallback cropCallback) {
+        this(null, viewBitmap, imageState, cropParameters, cropCallback, false, null, null);
+    }
 
+    /**
+     * Crops into a bitmap instead of a file, compress format, quality and output path of the parameters are ignored.
+     *
+     * @param resultBitmap - mutable ARGB_8888 bitmap of the result size to reuse, a new one is allocated otherwise
+     */
+    public BitmapCropTask(@NonNull Context context, @Nullable Bitmap viewBitmap, @NonNull ImageState imageState,
+                          @NonNull CropParameters cropParameters, @Nullable Bitmap resultBitmap,
+                          @Nullable CroppedBitmapCallback bitmapCallback) {
+        this(context, viewBitmap, imageState, cropParameters, null, true, resultBitmap, bitmapCallback);
+    }
+
+    private BitmapCropTask(@Nullable Context context, @Nullable Bitmap viewBitmap, @NonNull ImageState imageState,
+                           @NonNull CropParameters cropParameters, @Nullable BitmapCropCallback cropCallback,
+                           boolean cropToBitmap, @Nullable Bitmap resultBitmap,
+                           @Nullable CroppedBitmapCallback bitmapCallback) {
+
+        mContext = new WeakReference<>(context);
         mViewBitmap = viewBitmap;
         mCropRect = imageState.getCropRect();
         mCurrentImageRect = imageState.getCurrentImageRect();
@@ -67,12 +154,27 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
 
         mCompressFormat = cropParameters.getCompressFormat();
         mCompressQuality = cropParameters.getCompressQuality();
+        mWebpEffort = cropParameters.getWebpEffort();
+        mPngCompressionLevel = cropParameters.getPngCompressionLevel();
+        mPngFilter = cropParameters.getPngFilter();
+        mPngParallelDeflate = cropParameters.isPngParallelDeflate();
+        mCropThreadCount = cropParameters.getCropThreadCount();
+        mResamplingQuality = cropParameters.getResamplingQuality();
 
         mImageInputPath = cropParameters.getImageInputPath();
         mImageOutputPath = cropParameters.getImageOutputPath();
+        mContentImageInputUri = cropParameters.getContentImageInputUri();
         mExifInfo = cropParameters.getExifInfo();
+        mImageHeader = cropParameters.getImageHeader();
 
         mCropCallback = cropCallback;
+        mCropToBitmap = cropToBitmap;
+        mResultBitmap = resultBitmap;
+        mBitmapCallback = bitmapCallback;
+    }
+
+    public void setProgressCallback(@Nullable CropProgressCallback progressCallback) {
+        mProgressCallback = progressCallback;
     }
 
     @Override
@@ -86,26 +188,89 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
             return new NullPointerException("CurrentImageRect is empty");
         }
 
-        float resizeScale = resize();
-
+        // Content is read straight from its provider, the descriptor is shared by all steps of the crop.
+        ParcelFileDescriptor inputDescriptor = null;
         try {
-            crop(resizeScale);
+            if (mContentImageInputUri != null) {
+                inputDescriptor = openContentDescriptor();
+            }
+            float resizeScale = resize(inputDescriptor);
+            if (mCropToBitmap) {
+                cropToBitmap(resizeScale, inputDescriptor);
+            } else {
+                crop(resizeScale, inputDescriptor);
+            }
             mViewBitmap = null;
         } catch (Throwable throwable) {
             return throwable;
+        } finally {
+            closeDescriptor(inputDescriptor);
         }
 
         return null;
     }
 
-    private float resize() {
+    @NonNull
+    private ParcelFileDescriptor openContentDescriptor() throws FileNotFoundException {
+        ParcelFileDescriptor descriptor = getContext().getContentResolver().openFileDescriptor(mContentImageInputUri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("File descriptor for given input Uri is null");
+        }
+        return descriptor;
+    }
+
+    /**
+     * Stream has its own position, so it doesn't move the shared descriptor.
+     */
+    @NonNull
+    private InputStream openContentStream() throws FileNotFoundException {
+        InputStream stream = getContext().getContentResolver().openInputStream(mContentImageInputUri);
+        if (stream == null) {
+            throw new FileNotFoundException("InputStream for given input Uri is null");
+        }
+        return stream;
+    }
+
+    @NonNull
+    private Context getContext() {
+        Context context = mContext.get();
+        if (context == null) {
+            throw new NullPointerException("Context is null");
+        }
+        return context;
+    }
+
+    private static void closeDescriptor(@Nullable ParcelFileDescriptor descriptor) {
+        if (descriptor != null) {
+            try {
+                descriptor.close();
+            } catch (IOException e) {
+                // silence
+            }
+        }
+    }
+
+    private float resize(@Nullable ParcelFileDescriptor inputDescriptor) {
         final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(mImageInputPath, options);
+        if (mImageHeader != null && mImageHeader.hasSize()) {
+            options.outWidth = mImageHeader.getWidth();
+            options.outHeight = mImageHeader.getHeight();
+            options.outMimeType = mImageHeader.getMimeType();
+        } else {
+            options.inJustDecodeBounds = true;
+            if (inputDescriptor != null) {
+                BitmapFactory.decodeFileDescriptor(inputDescriptor.getFileDescriptor(), null, options);
+            } else {
+                BitmapFactory.decodeFile(mImageInputPath, options);
+            }
+        }
+        mImageWidth = options.outWidth;
+        mImageHeight = options.outHeight;
+        mImageMimeType = options.outMimeType;
 
-        boolean swapSides = mExifInfo.getExifDegrees() == 90 || mExifInfo.getExifDegrees() == 270;
-        float scaleX = (swapSides ? options.outHeight : options.outWidth) / (float) mViewBitmap.getWidth();
-        float scaleY = (swapSides ? options.outWidth : options.outHeight) / (float) mViewBitmap.getHeight();
+        // View bitmap is stored in the same orientation as the image, the view applies EXIF orientation by matrix.
+        float scaleX = options.outWidth / (float) mViewBitmap.getWidth();
+        float scaleY = options.outHeight / (float) mViewBitmap.getHeight();
 
         float resizeScale = Math.min(scaleX, scaleY);
 
@@ -128,32 +293,290 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
         return resizeScale;
     }
 
-    private boolean crop(float resizeScale) throws IOException {
-        ExifInterface originalExif = new ExifInterface(mImageInputPath);
+    /**
+     * EXIF read with the image header while loading is used if there is the header, the file is parsed otherwise.
+     *
+     * @return null if the image has no EXIF
+     */
+    @Nullable
+    private ExifInterface readOriginalExif(@Nullable ParcelFileDescriptor inputDescriptor) throws IOException {
+        if (mImageHeader != null) {
+            byte[] exif = mImageHeader.getExif();
+            return exif != null ? ImageHeaderParser.createExifInterface(exif) : null;
+        }
+        if (inputDescriptor != null) {
+            InputStream stream = openContentStream();
+            try {
+                return new ExifInterface(stream);
+            } finally {
+                stream.close();
+            }
+        }
+        return new ExifInterface(mImageInputPath);
+    }
 
-        cropOffsetX = Math.round((mCropRect.left - mCurrentImageRect.left) / mCurrentScale);
-        cropOffsetY = Math.round((mCropRect.top - mCurrentImageRect.top) / mCurrentScale);
-        mCroppedImageWidth = Math.round(mCropRect.width() / mCurrentScale);
-        mCroppedImageHeight = Math.round(mCropRect.height() / mCurrentScale);
+    private boolean crop(float resizeScale, @Nullable ParcelFileDescriptor inputDescriptor) throws IOException {
+        // Read before cropping, the output can be the input file copied from a content provider.
+        ExifInterface originalExif = readOriginalExif(inputDescriptor);
+
+        calculateCropBounds();
 
         boolean shouldCrop = shouldCrop(mCroppedImageWidth, mCroppedImageHeight);
         Log.i(TAG, "Should crop: " + shouldCrop);
 
         if (shouldCrop) {
-            boolean cropped = cropCImg(mImageInputPath, mImageOutputPath,
-                    cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight,
-                    mCurrentAngle, resizeScale, mCompressFormat.ordinal(), mCompressQuality,
-                    mExifInfo.getExifDegrees(), mExifInfo.getExifTranslation());
+            boolean cropped = false;
+            int rightAngle = getRightAngle(mCurrentAngle);
+            boolean canCropLossless = rightAngle >= 0 && resizeScale == 1
+                    && mCompressFormat.equals(Bitmap.CompressFormat.JPEG) && "image/jpeg".equals(mImageMimeType);
+            mCropPlan = planCrop(resizeScale, canCropLossless);
+            Log.i(TAG, "Crop plan: " + mCropPlan);
+
+            if (mCropPlan.getStrategy() == CropPlan.STRATEGY_DCT_TRANSFORM) {
+                // Crop bounds start is moved onto the MCU grid, the result reports the bounds actually cropped.
+                int[] bounds = new int[4];
+                try {
+                    if (inputDescriptor != null) {
+                        cropped = NativeCrop.cropJpegLosslessFd(inputDescriptor.getFd(), mImageOutputPath,
+                                cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight,
+                                rightAngle, mExifInfo.getExifDegrees(), mExifInfo.getExifTranslation(), bounds);
+                    } else {
+                        cropped = NativeCrop.cropJpegLossless(mImageInputPath, mImageOutputPath,
+                                cropOffsetX, cropOffsetY, mCroppedImageWidth, mCroppedImageHeight,
+                                rightAngle, mExifInfo.getExifDegrees(), mExifInfo.getExifTranslation(), bounds);
+                    }
+                    Log.i(TAG, "Lossless crop: " + cropped);
+                } catch (IOException e) {
+                    Log.w(TAG, "Lossless crop failed, cropping by sampling", e);
+                }
+                if (cropped) {
+                    cropOffsetX = bounds[0];
+                    cropOffsetY = bounds[1];
+                    mCroppedImageWidth = bounds[2];
+                    mCroppedImageHeight = bounds[3];
+                }
+            }
+            if (!cropped && inputDescriptor != null) {
+                ParcelFileDescriptor outputDescriptor = ParcelFileDescriptor.open(new File(mImageOutputPath),
+                        ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE
+                                | ParcelFileDescriptor.MODE_TRUNCATE);
+                try {
+                    cropped = NativeCrop.cropCImgFd(inputDescriptor.getFd(), outputDescriptor.getFd(),
+                            mCroppedImageWidth, mCroppedImageHeight, getCropMatrix(resizeScale),
+                            mCompressFormat.ordinal(), mCompressQuality, mWebpEffort,
+                            mPngCompressionLevel, mPngFilter, mPngParallelDeflate, mResamplingQuality,
+                            mCropPlan.getScaleDenom(), mCropThreadCount, mNativeProgressListener);
+                } finally {
+                    closeDescriptor(outputDescriptor);
+                }
+            } else if (!cropped) {
+                cropped = NativeCrop.cropCImg(mImageInputPath, mImageOutputPath,
+                        mCroppedImageWidth, mCroppedImageHeight, getCropMatrix(resizeScale),
+                        mCompressFormat.ordinal(), mCompressQuality, mWebpEffort,
+                        mPngCompressionLevel, mPngFilter, mPngParallelDeflate, mResamplingQuality,
+                        mCropPlan.getScaleDenom(), mCropThreadCount, mNativeProgressListener);
+            }
             if (cropped && mCompressFormat.equals(Bitmap.CompressFormat.JPEG)) {
                 ImageHeaderParser.copyExif(originalExif, mCroppedImageWidth, mCroppedImageHeight, mImageOutputPath);
             }
             return cropped;
         } else {
-            FileUtils.copyFile(mImageInputPath, mImageOutputPath);
+            if (inputDescriptor != null) {
+                FileUtils.copyFile(openContentStream(), mImageOutputPath);
+            } else {
+                FileUtils.copyFile(mImageInputPath, mImageOutputPath);
+            }
             return false;
         }
     }
 
+    private void calculateCropBounds() {
+        cropOffsetX = Math.round((mCropRect.left - mCurrentImageRect.left) / mCurrentScale);
+        cropOffsetY = Math.round((mCropRect.top - mCurrentImageRect.top) / mCurrentScale);
+        mCroppedImageWidth = Math.round(mCropRect.width() / mCurrentScale);
+        mCroppedImageHeight = Math.round(mCropRect.height() / mCurrentScale);
+    }
+
+    /**
+     * Samples the result right into pixels of a bitmap, so it is neither encoded to a file nor decoded back.
+     */
+    private void cropToBitmap(float resizeScale, @Nullable ParcelFileDescriptor inputDescriptor) throws IOException {
+        calculateCropBounds();
+
+        mCropPlan = planCrop(resizeScale, false);
+        Log.i(TAG, "Crop plan: " + mCropPlan);
+
+        if (needsResultBitmap()) {
+            // Whole result is held at once, unlike a file it can't be streamed, so a result too large fails
+            // through the callback instead of taking the app down.
+            long bitmapBytes = (long) mCroppedImageWidth * mCroppedImageHeight * ARGB_BYTES_PER_PIXEL;
+            if (bitmapBytes > mCropPlan.getBudgetBytes() || bitmapBytes > getBitmapHeapBudget()) {
+                throw new OutOfMemoryError(String.format(Locale.US,
+                        "Result bitmap %dx%d takes %d bytes, more than the crop can allocate, limit the max result size",
+                        mCroppedImageWidth, mCroppedImageHeight, bitmapBytes));
+            }
+            mResultBitmap = Bitmap.createBitmap(mCroppedImageWidth, mCroppedImageHeight, Bitmap.Config.ARGB_8888);
+        }
+
+        float[] matrix = getCropMatrix(resizeScale);
+        if (inputDescriptor != null) {
+            NativeCrop.cropCImgFdBitmap(inputDescriptor.getFd(), mResultBitmap, matrix, mResamplingQuality,
+                    mCropPlan.getScaleDenom(), mCropThreadCount, mNativeProgressListener);
+        } else {
+            NativeCrop.cropCImgBitmap(mImageInputPath, mResultBitmap, matrix, mResamplingQuality,
+                    mCropPlan.getScaleDenom(), mCropThreadCount, mNativeProgressListener);
+        }
+    }
+
+    /**
+     * Plan of the last crop, null until the task has decided how to crop.
+     */
+    @Nullable
+    public CropPlan getCropPlan() {
+        return mCropPlan;
+    }
+
+    /**
+     * Estimates peak native memory of the ways to do the crop from the image header, crop bounds and result size.
+     * Ways are tried from the fastest one and the first which fits into the memory budget is chosen,
+     * if none of them fits the one with the least memory is tried anyway.
+     *
+     * @param canCropLossless - whether the result can be produced by a transform of JPEG DCT coefficients
+     */
+    @NonNull
+    private CropPlan planCrop(float resizeScale, boolean canCropLossless) {
+        final long budget = getMemoryBudget();
+        final boolean isJpeg = "image/jpeg".equals(mImageMimeType);
+        final boolean hasRegionDecoder = isJpeg || "image/png".equals(mImageMimeType);
+        // JPEG is decoded to RGB, anything else can have alpha.
+        final int components = isJpeg ? 3 : 4;
+
+        final long resultPixels = (long) mCroppedImageWidth * mCroppedImageHeight;
+        final boolean streamed = mCropToBitmap || mCompressFormat == Bitmap.CompressFormat.JPEG
+                || mCompressFormat == Bitmap.CompressFormat.PNG;
+        final long resultBytes;
+        if (mCropToBitmap) {
+            // Result bitmap unless the given one is reused, and a strip of rows sampled into it.
+            int threads = mCropThreadCount > 0 ? mCropThreadCount : Runtime.getRuntime().availableProcessors();
+            int stripHeight = Math.max(MIN_STRIP_HEIGHT, MIN_ROWS_PER_THREAD * threads);
+            resultBytes = (needsResultBitmap() ? resultPixels * ARGB_BYTES_PER_PIXEL : 0)
+                    + (long) stripHeight * mCroppedImageWidth * components;
+        } else if (isWebp(mCompressFormat)) {
+            // ARGB picture of the whole result and the copy the encoder converts it to.
+            resultBytes = resultPixels * WEBP_BYTES_PER_PIXEL;
+        } else if (streamed) {
+            int threads = mCropThreadCount > 0 ? mCropThreadCount : Runtime.getRuntime().availableProcessors();
+            int stripHeight = Math.max(MIN_STRIP_HEIGHT, MIN_ROWS_PER_THREAD * threads);
+            // Strip of the result and the same strip converted by the encoder.
+            long stripBytes = 2L * stripHeight * mCroppedImageWidth * components;
+            if (mPngParallelDeflate && mCompressFormat == Bitmap.CompressFormat.PNG) {
+                // Filtered rows and deflated parts of the strip are held until all threads are done.
+                stripBytes *= 2;
+            }
+            resultBytes = stripBytes;
+        } else {
+            // Whole result and its copy with planar channels saved by CImg.
+            resultBytes = 2 * resultPixels * components;
+        }
+
+        // Source pixels covered by the rotated crop bounds, a result pixel is 1 / resizeScale source pixels.
+        final double angle = Math.toRadians(mCurrentAngle);
+        final double cos = Math.abs(Math.cos(angle)), sin = Math.abs(Math.sin(angle));
+        final double sourceWidth = mCroppedImageWidth / resizeScale, sourceHeight = mCroppedImageHeight / resizeScale;
+        final long regionWidth = (long) Math.ceil(sourceWidth * cos + sourceHeight * sin);
+        final long regionHeight = (long) Math.ceil(sourceWidth * sin + sourceHeight * cos);
+        final long regionPixels = Math.min((regionWidth + 2 * REGION_MARGIN) * (regionHeight + 2 * REGION_MARGIN),
+                (long) mImageWidth * mImageHeight);
+        final float step = 1 / resizeScale;
+
+        List<CropPlan> plans = new ArrayList<>();
+        if (canCropLossless && coversMcu()) {
+            // 16-bit coefficients of the whole source and of the result.
+            long bytes = 2 * ((long) mImageWidth * mImageHeight + resultPixels) * components;
+            plans.add(new CropPlan(CropPlan.STRATEGY_DCT_TRANSFORM, 1, true, bytes, budget));
+        }
+        if (hasRegionDecoder) {
+            // Native crop picks the largest IDCT downscale which doesn't lose detail itself.
+            int scaleDenom = 1;
+            while (isJpeg && scaleDenom < MAX_JPEG_SCALE_DENOM && scaleDenom * 2 <= step) {
+                scaleDenom *= 2;
+            }
+            int strategy = CropPlan.STRATEGY_REGION_DECODE;
+            do {
+                long bytes = getDecodeBytes(regionPixels / ((long) scaleDenom * scaleDenom), components,
+                        step / scaleDenom) + resultBytes;
+                plans.add(new CropPlan(strategy, scaleDenom, streamed, bytes, budget));
+                strategy = CropPlan.STRATEGY_SCALED_DECODE;
+                scaleDenom *= 2;
+            } while (isJpeg && scaleDenom <= MAX_JPEG_SCALE_DENOM);
+        } else {
+            // CImg loads the image with planar channels and interleaves them in a copy.
+            long bytes = (long) mImageWidth * mImageHeight * components
+                    + getDecodeBytes((long) mImageWidth * mImageHeight, components, step) + resultBytes;
+            plans.add(new CropPlan(CropPlan.STRATEGY_FULL_DECODE, 1, streamed, bytes, budget));
+        }
+
+        CropPlan smallest = plans.get(0);
+        for (CropPlan plan : plans) {
+            if (plan.fits()) {
+                return plan;
+            }
+            if (plan.getEstimatedBytes() < smallest.getEstimatedBytes()) {
+                smallest = plan;
+            }
+        }
+        Log.w(TAG, "planCrop: no plan fits into " + budget / 1024 + " KB");
+        return smallest;
+    }
+
+    /**
+     * @param step - source pixels per result pixel, the source is box filtered while it is at least 2
+     * @return bytes of the decoded pixels, with the pyramid level that exists next to them
+     */
+    private long getDecodeBytes(long pixels, int components, float step) {
+        long bytes = pixels * components;
+        if (step >= 2 && mResamplingQuality != UCrop.Options.RESAMPLING_NEAREST) {
+            bytes += bytes / 4;
+        }
+        return bytes;
+    }
+
+    /**
+     * WEBP_LOSSY and WEBP_LOSSLESS exist since Android R, so formats are compared by name.
+     */
+    private static boolean isWebp(@Nullable Bitmap.CompressFormat format) {
+        return format != null && format.name().startsWith("WEBP");
+    }
+
+    private boolean needsResultBitmap() {
+        return mResultBitmap == null || !mResultBitmap.isMutable()
+                || mResultBitmap.getConfig() != Bitmap.Config.ARGB_8888
+                || mResultBitmap.getWidth() != mCroppedImageWidth || mResultBitmap.getHeight() != mCroppedImageHeight;
+    }
+
+    /**
+     * @return bytes a new bitmap can take, pixels are on the Java heap before Android O
+     */
+    private static long getBitmapHeapBudget() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return Long.MAX_VALUE;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    private long getMemoryBudget() {
+        Context context = mContext.get();
+        ActivityManager activityManager = context != null
+                ? (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE) : null;
+        if (activityManager == null) {
+            return Long.MAX_VALUE;
+        }
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return Math.max(0, memoryInfo.availMem - memoryInfo.threshold) / MEMORY_BUDGET_DIVIDER;
+    }
+
     /**
      * Check whether an image should be cropped at all or just file can be copied to the destination path.
      * For each 1000 pixels there is one pixel of error due to matrix calculations etc.
@@ -173,16 +596,64 @@ public class BitmapCropTask extends AsyncTask<Void, Void, Throwable> {
                 || mCurrentAngle != 0;
     }
 
-    @SuppressWarnings("JniMissingFunction")
-    native public static boolean
-    cropCImg(String inputPath, String outputPath,
-             int left, int top, int width, int height,
-             float angle, float resizeScale,
-             int format, int quality,
-             int exifDegrees, int exifTranslation) throws IOException, OutOfMemoryError;
+    /**
+     * Composes mapping of a result pixel to a pixel of the image as it is stored in the file:
+     * crop offset, rotation around the center of the resized image, resize and EXIF orientation.
+     * See {@link NativeCrop#cropMatrix}, the host driver of the native crop composes it the same way.
+     */
+    private float[] getCropMatrix(float resizeScale) {
+        return NativeCrop.cropMatrix(mImageWidth, mImageHeight,
+                mExifInfo.getExifDegrees(), mExifInfo.getExifTranslation(),
+                resizeScale, mCurrentAngle, cropOffsetX, cropOffsetY);
+    }
+
+    /**
+     * Lossless crop moves the origin of the bounds onto the JPEG iMCU grid and can trim a partial iMCU
+     * at a mirrored image edge, bounds at least one iMCU long on each axis always keep part of the image.
+     */
+    private boolean coversMcu() {
+        int mcuWidth = DEFAULT_MCU_SIZE, mcuHeight = DEFAULT_MCU_SIZE;
+        if (mImageHeader != null && mImageHeader.getMcuWidth() > 0 && mImageHeader.getMcuHeight() > 0) {
+            mcuWidth = mImageHeader.getMcuWidth();
+            mcuHeight = mImageHeader.getMcuHeight();
+        }
+        // Crop bounds are in the rotated image, its axes are swapped if it is turned by 90 or 270 degrees.
+        if ((mExifInfo.getExifDegrees() + getRightAngle(mCurrentAngle)) % 180 != 0) {
+            int swap = mcuWidth;
+            mcuWidth = mcuHeight;
+            mcuHeight = swap;
+        }
+        return mCroppedImageWidth >= mcuWidth && mCroppedImageHeight >= mcuHeight;
+    }
+
+    /**
+     * @param angle - image rotation angle in degrees
+     * @return - angle normalized to [0, 360) if it is a multiple of 90 degrees, -1 otherwise
+     */
+    private static int getRightAngle(float angle) {
+        int rightAngle = Math.round(angle / 90f) * 90;
+        if (Math.abs(angle - rightAngle) > RIGHT_ANGLE_EPSILON) {
+            return -1;
+        }
+        return (rightAngle % 360 + 360) % 360;
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        if (mProgressCallback != null) {
+            mProgressCallback.onCropProgress(values[0]);
+        }
+    }
 
     @Override
     protected void onPostExecute(@Nullable Throwable t) {
+        if (mBitmapCallback != null) {
+            if (t == null) {
+                mBitmapCallback.onBitmapCropped(mResultBitmap, cropOffsetX, cropOffsetY);
+            } else {
+                mBitmapCallback.onCropFailure(t);
+            }
+        }
         if (mCropCallback != null) {
             if (t == null) {
                 Uri uri = Uri.fromFile(new File(mImageOutputPath));
@@ -1,21 +1,29 @@
 package com.yalantis.ucrop.task;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.yalantis.ucrop.callback.BitmapLoadCallback;
+import com.yalantis.ucrop.callback.ImageLoadCallback;
+import com.yalantis.ucrop.callback.ImagePreviewCallback;
+import com.yalantis.ucrop.model.DecodePlan;
 import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageHeader;
 import com.yalantis.ucrop.util.BitmapLoadUtils;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,14 +38,26 @@ import okio.Sink;
 
 /**
  * Creates and returns a Bitmap for a given Uri(String url).
- * inSampleSize is calculated based on requiredWidth property. However can be adjusted if OOM occurs.
- * If any EXIF config is found - bitmap is transformed properly.
+ * Sample size and density scaling are planned from the image header, so the bitmap fits into the required size
+ * and the memory available to the process, and the bitmap is decoded only once.
+ * The image is opened once: the header is read from its first bytes and returned with the bitmap for the crop,
+ * bitmaps are decoded from the same descriptor.
+ * Large JPEG images are first decoded coarsely, which takes a fraction of the time, to be shown as a preview
+ * until the bitmap is ready.
+ * Bitmaps are decoded as stored in the file, EXIF orientation is returned with them and applied by the view.
+ * A {@link BitmapLoadCallback} gets the bitmap rotated and mirrored instead, content copied to a file and no preview.
  */
-public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapWorkerResult> {
+public class BitmapLoadTask extends AsyncTask<Void, BitmapLoadTask.BitmapWorkerResult, BitmapLoadTask.BitmapWorkerResult> {
 
     private static final String TAG = "BitmapWorkerTask";
 
     private static final int MAX_BITMAP_SIZE = 100 * 1024 * 1024;   // 100 MB
+    // Only this part of the free memory is planned for, the rest is left for the app and estimation errors.
+    private static final int MEMORY_BUDGET_DIVIDER = 2;
+    // Preview is subsampled this many times more than the bitmap, JPEG decoder scales by 1/8 in the DCT for free.
+    private static final int PREVIEW_SAMPLE_FACTOR = 8;
+    // Smaller images are decoded fast enough without a preview.
+    private static final int PREVIEW_MIN_IMAGE_PIXELS = 4 * 1000 * 1000;
 
     private final Context mContext;
     private Uri mInputUri;
@@ -45,8 +65,14 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
     private final int mRequiredWidth;
     private final int mRequiredHeight;
 
+    // Exactly one of them is set.
+    private final ImageLoadCallback mImageLoadCallback;
     private final BitmapLoadCallback mBitmapLoadCallback;
 
+    // Content cropped in place is opened and its header read while checking it.
+    private ParcelFileDescriptor mInputDescriptor;
+    private ImageHeader mImageHeader;
+
     public static class BitmapWorkerResult {
 
         Bitmap mBitmapResult;
@@ -64,16 +90,32 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
 
     }
 
+    public BitmapLoadTask(@NonNull Context context,
+                          @NonNull Uri inputUri, @Nullable Uri outputUri,
+                          int requiredWidth, int requiredHeight,
+                          @NonNull ImageLoadCallback loadCallback) {
+        this(context, inputUri, outputUri, requiredWidth, requiredHeight, loadCallback, null);
+    }
+
     public BitmapLoadTask(@NonNull Context context,
                           @NonNull Uri inputUri, @Nullable Uri outputUri,
                           int requiredWidth, int requiredHeight,
                           BitmapLoadCallback loadCallback) {
+        this(context, inputUri, outputUri, requiredWidth, requiredHeight, null, loadCallback);
+    }
+
+    private BitmapLoadTask(@NonNull Context context,
+                           @NonNull Uri inputUri, @Nullable Uri outputUri,
+                           int requiredWidth, int requiredHeight,
+                           @Nullable ImageLoadCallback imageLoadCallback,
+                           @Nullable BitmapLoadCallback bitmapLoadCallback) {
         mContext = context;
         mInputUri = inputUri;
         mOutputUri = outputUri;
         mRequiredWidth = requiredWidth;
         mRequiredHeight = requiredHeight;
-        mBitmapLoadCallback = loadCallback;
+        mImageLoadCallback = imageLoadCallback;
+        mBitmapLoadCallback = bitmapLoadCallback;
     }
 
     @Override
@@ -89,33 +131,80 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
             return new BitmapWorkerResult(e);
         }
 
+        // Header, preview and bitmap are all read through one descriptor, opening slow providers only once.
+        ParcelFileDescriptor descriptor = mInputDescriptor;
+        mInputDescriptor = null;
+        try {
+            if (descriptor == null) {
+                descriptor = openInputDescriptor();
+                mImageHeader = BitmapLoadUtils.readImageHeader(descriptor);
+            }
+            return decode(descriptor.getFileDescriptor());
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "doInBackground: ", e);
+            return new BitmapWorkerResult(new IllegalArgumentException("Bitmap could not be decoded from the Uri: [" + mInputUri + "]", e));
+        } finally {
+            closeDescriptor(descriptor);
+        }
+    }
+
+    @NonNull
+    private BitmapWorkerResult decode(@NonNull FileDescriptor descriptor) {
         final BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        options.inSampleSize = BitmapLoadUtils.calculateInSampleSize(options, mRequiredWidth, mRequiredHeight);
-        options.inJustDecodeBounds = false;
+        if (mImageHeader.hasSize()) {
+            options.outWidth = mImageHeader.getWidth();
+            options.outHeight = mImageHeader.getHeight();
+            options.outMimeType = mImageHeader.getMimeType();
+        } else {
+            // Format the header is not read for, or a start of frame too far in the file.
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(descriptor, null, options);
+            mImageHeader = new ImageHeader(options.outWidth, options.outHeight, options.outMimeType,
+                    mImageHeader.getExifOrientation(), mImageHeader.getExif());
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return new BitmapWorkerResult(new IllegalArgumentException("Bounds for bitmap could not be retrieved from the Uri: [" + mInputUri + "]"));
+        }
 
-        Bitmap decodeSampledBitmap = null;
+        int exifOrientation = mImageHeader.getExifOrientation();
+        int exifDegrees = BitmapLoadUtils.exifToDegrees(exifOrientation);
+        int exifTranslation = BitmapLoadUtils.exifToTranslation(exifOrientation);
 
-        boolean decodeAttemptSuccess = false;
-        while (!decodeAttemptSuccess) {
+        ExifInfo exifInfo = new ExifInfo(exifOrientation, exifDegrees, exifTranslation);
+
+        DecodePlan plan = planDecode(options.outWidth, options.outHeight, options.inPreferredConfig);
+        Log.i(TAG, "Decode plan: " + plan);
+
+        if (mImageLoadCallback instanceof ImagePreviewCallback && "image/jpeg".equals(options.outMimeType)
+                && (long) options.outWidth * options.outHeight >= PREVIEW_MIN_IMAGE_PIXELS) {
+            Bitmap preview = decodePreview(descriptor, plan.getSampleSize() * PREVIEW_SAMPLE_FACTOR,
+                    options.inPreferredConfig);
+            if (preview != null) {
+                publishProgress(new BitmapWorkerResult(preview, exifInfo));
+            }
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = plan.getSampleSize();
+        if (plan.isScaled()) {
+            options.inScaled = true;
+            options.inDensity = plan.getDensity();
+            options.inTargetDensity = plan.getTargetDensity();
+        }
+
+        Bitmap decodeSampledBitmap;
+        try {
+            decodeSampledBitmap = BitmapFactory.decodeFileDescriptor(descriptor, null, options);
+        } catch (OutOfMemoryError error) {
+            // The plan is only an estimate, so a smaller bitmap is tried once more before giving up.
+            Log.e(TAG, "doInBackground: BitmapFactory.decodeFileDescriptor: ", error);
+            options.inSampleSize *= 2;
+            options.inScaled = false;
             try {
-                InputStream stream = mContext.getContentResolver().openInputStream(mInputUri);
-                try {
-                    decodeSampledBitmap = BitmapFactory.decodeStream(stream, null, options);
-                    if (options.outWidth == -1 || options.outHeight == -1) {
-                        return new BitmapWorkerResult(new IllegalArgumentException("Bounds for bitmap could not be retrieved from the Uri: [" + mInputUri + "]"));
-                    }
-                } finally {
-                    BitmapLoadUtils.close(stream);
-                }
-                if (checkSize(decodeSampledBitmap, options)) continue;
-                decodeAttemptSuccess = true;
-            } catch (OutOfMemoryError error) {
-                Log.e(TAG, "doInBackground: BitmapFactory.decodeFileDescriptor: ", error);
-                options.inSampleSize *= 2;
-            } catch (IOException e) {
-                Log.e(TAG, "doInBackground: ImageDecoder.createSource: ", e);
-                return new BitmapWorkerResult(new IllegalArgumentException("Bitmap could not be decoded from the Uri: [" + mInputUri + "]", e));
+                decodeSampledBitmap = BitmapFactory.decodeFileDescriptor(descriptor, null, options);
+            } catch (OutOfMemoryError retryError) {
+                Log.e(TAG, "doInBackground: BitmapFactory.decodeFileDescriptor: ", retryError);
+                return new BitmapWorkerResult(new IllegalArgumentException("Bitmap could not be decoded from the Uri: [" + mInputUri + "]", retryError));
             }
         }
 
@@ -123,24 +212,132 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
             return new BitmapWorkerResult(new IllegalArgumentException("Bitmap could not be decoded from the Uri: [" + mInputUri + "]"));
         }
 
-        int exifOrientation = BitmapLoadUtils.getExifOrientation(mContext, mInputUri);
-        int exifDegrees = BitmapLoadUtils.exifToDegrees(exifOrientation);
-        int exifTranslation = BitmapLoadUtils.exifToTranslation(exifOrientation);
+        if (mBitmapLoadCallback != null) {
+            decodeSampledBitmap = BitmapLoadUtils.transformBitmap(decodeSampledBitmap, BitmapLoadUtils.getExifMatrix(
+                    exifInfo, decodeSampledBitmap.getWidth(), decodeSampledBitmap.getHeight()));
+        }
 
-        ExifInfo exifInfo = new ExifInfo(exifOrientation, exifDegrees, exifTranslation);
+        return new BitmapWorkerResult(decodeSampledBitmap, exifInfo);
+    }
+
+    /**
+     * @return coarse bitmap of the image, or null if it can't be decoded, the bitmap is still loaded then
+     */
+    @Nullable
+    private Bitmap decodePreview(@NonNull FileDescriptor descriptor, int sampleSize, @Nullable Bitmap.Config config) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        try {
+            return BitmapFactory.decodeFileDescriptor(descriptor, null, options);
+        } catch (OutOfMemoryError error) {
+            Log.w(TAG, "decodePreview: ", error);
+            return null;
+        }
+    }
 
-        Matrix matrix = new Matrix();
-        if (exifDegrees != 0) {
-            matrix.preRotate(exifDegrees);
+    /**
+     * Input is a file or content cropped in place by now, both are regular files,
+     * BitmapFactory leaves the position of the descriptor where it was, so it's decoded from several times.
+     */
+    @NonNull
+    private ParcelFileDescriptor openInputDescriptor() throws FileNotFoundException {
+        ParcelFileDescriptor descriptor = mContext.getContentResolver().openFileDescriptor(mInputUri, "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("File descriptor for given input Uri is null");
         }
-        if (exifTranslation != 1) {
-            matrix.postScale(exifTranslation, 1);
+        return descriptor;
+    }
+
+    private static void closeDescriptor(@Nullable ParcelFileDescriptor descriptor) {
+        if (descriptor != null) {
+            try {
+                descriptor.close();
+            } catch (IOException e) {
+                // silence
+            }
         }
-        if (!matrix.isIdentity()) {
-            return new BitmapWorkerResult(BitmapLoadUtils.transformBitmap(decodeSampledBitmap, matrix), exifInfo);
+    }
+
+    /**
+     * Picks the largest power of 2 sample size which still leaves at least the required size,
+     * the rest of the downscale is done by density scaling, so the bitmap has exactly the required size
+     * along its limiting side. Sample size is doubled further while the bitmap doesn't fit into memory.
+     *
+     * @param config - config the bitmap is decoded to
+     */
+    @NonNull
+    private DecodePlan planDecode(int width, int height, @Nullable Bitmap.Config config) {
+        final long budget = getMemoryBudget();
+        final int bytesPerPixel = getBytesPerPixel(config);
+        final boolean limitedByWidth = (long) mRequiredWidth * height <= (long) mRequiredHeight * width;
+        final int requiredSide = limitedByWidth ? mRequiredWidth : mRequiredHeight;
+        final int side = limitedByWidth ? width : height;
+
+        int sampleSize = 1;
+        while (requiredSide > 0 && side / (sampleSize * 2) >= requiredSide) {
+            sampleSize *= 2;
         }
+        while (true) {
+            int sampledWidth = (width + sampleSize - 1) / sampleSize;
+            int sampledHeight = (height + sampleSize - 1) / sampleSize;
+            int sampledSide = limitedByWidth ? sampledWidth : sampledHeight;
+            int resultWidth = sampledWidth, resultHeight = sampledHeight;
+            int density = 0, targetDensity = 0;
+            if (requiredSide > 0 && sampledSide > requiredSide) {
+                density = sampledSide;
+                targetDensity = requiredSide;
+                float scale = targetDensity / (float) density;
+                resultWidth = Math.max(1, (int) (sampledWidth * scale + 0.5f));
+                resultHeight = Math.max(1, (int) (sampledHeight * scale + 0.5f));
+            }
 
-        return new BitmapWorkerResult(decodeSampledBitmap, exifInfo);
+            long bitmapBytes = (long) resultWidth * resultHeight * bytesPerPixel;
+            long bytes = bitmapBytes;
+            if (density != 0) {
+                // Subsampled image is decoded first and then scaled into the bitmap.
+                bytes += (long) sampledWidth * sampledHeight * bytesPerPixel;
+            }
+            DecodePlan plan = new DecodePlan(sampleSize, density, targetDensity, resultWidth, resultHeight,
+                    bytes, budget);
+            if (plan.fits() && bitmapBytes <= MAX_BITMAP_SIZE) {
+                return plan;
+            }
+            if (sampledWidth == 1 && sampledHeight == 1) {
+                Log.w(TAG, "planDecode: bitmap doesn't fit into " + budget / 1024 + " KB");
+                return plan;
+            }
+            sampleSize *= 2;
+        }
+    }
+
+    private static int getBytesPerPixel(@Nullable Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+            return 8;
+        }
+        return 4;
+    }
+
+    /**
+     * Pixels of bitmaps are allocated in the Java heap of the process before Android O and in the native heap since.
+     */
+    private long getMemoryBudget() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            Runtime runtime = Runtime.getRuntime();
+            long used = runtime.totalMemory() - runtime.freeMemory();
+            return Math.max(0, runtime.maxMemory() - used) / MEMORY_BUDGET_DIVIDER;
+        }
+        ActivityManager activityManager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return Long.MAX_VALUE;
+        }
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return Math.max(0, memoryInfo.availMem - memoryInfo.threshold) / MEMORY_BUDGET_DIVIDER;
     }
 
     private void processInputUri() throws NullPointerException, IOException {
@@ -154,6 +351,10 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
                 throw e;
             }
         } else if ("content".equals(inputUriScheme)) {
+            if (mImageLoadCallback != null && canCropInPlace(mInputUri)) {
+                Log.d(TAG, "Crop content in place");
+                return;
+            }
             try {
                 copyFile(mInputUri, mOutputUri);
             } catch (NullPointerException | IOException e) {
@@ -166,6 +367,35 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
         }
     }
 
+    /**
+     * Content which is a regular file in a format the native crop decodes by regions (JPEG or PNG)
+     * is cropped straight from its file descriptor, so it doesn't have to be copied first.
+     * Pipes and sockets can't be read more than once, so their content is still copied.
+     * The descriptor and the header read to check the format are kept for the decode then.
+     */
+    private boolean canCropInPlace(@NonNull Uri inputUri) {
+        ParcelFileDescriptor descriptor = null;
+        try {
+            descriptor = mContext.getContentResolver().openFileDescriptor(inputUri, "r");
+            if (descriptor == null || descriptor.getStatSize() < 0) {
+                return false;
+            }
+            ImageHeader header = BitmapLoadUtils.readImageHeader(descriptor);
+            if ("image/jpeg".equals(header.getMimeType()) || "image/png".equals(header.getMimeType())) {
+                mInputDescriptor = descriptor;
+                mImageHeader = header;
+                descriptor = null;
+                return true;
+            }
+            return false;
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "canCropInPlace: " + inputUri, e);
+            return false;
+        } finally {
+            closeDescriptor(descriptor);
+        }
+    }
+
     private void copyFile(@NonNull Uri inputUri, @Nullable Uri outputUri) throws NullPointerException, IOException {
         Log.d(TAG, "copyFile");
 
@@ -238,20 +468,26 @@ public class BitmapLoadTask extends AsyncTask<Void, Void, BitmapLoadTask.BitmapW
     }
 
     @Override
-    protected void onPostExecute(@NonNull BitmapWorkerResult result) {
-        if (result.mBitmapWorkerException == null) {
-            mBitmapLoadCallback.onBitmapLoaded(result.mBitmapResult, result.mExifInfo, mInputUri.getPath(), (mOutputUri == null) ? null : mOutputUri.getPath());
-        } else {
-            mBitmapLoadCallback.onFailure(result.mBitmapWorkerException);
+    protected void onProgressUpdate(@NonNull BitmapWorkerResult... previews) {
+        if (!isCancelled() && mImageLoadCallback instanceof ImagePreviewCallback) {
+            ((ImagePreviewCallback) mImageLoadCallback).onPreviewLoaded(previews[0].mBitmapResult, previews[0].mExifInfo, mImageHeader,
+                    mInputUri, mOutputUri);
         }
     }
 
-    private boolean checkSize(Bitmap bitmap, BitmapFactory.Options options) {
-        int bitmapSize = bitmap != null ? bitmap.getByteCount() : 0;
-        if (bitmapSize > MAX_BITMAP_SIZE) {
-            options.inSampleSize *= 2;
-            return true;
+    @Override
+    protected void onPostExecute(@NonNull BitmapWorkerResult result) {
+        if (mImageLoadCallback == null) {
+            if (result.mBitmapWorkerException == null) {
+                mBitmapLoadCallback.onBitmapLoaded(result.mBitmapResult, result.mExifInfo, mInputUri.getPath(), (mOutputUri == null) ? null : mOutputUri.getPath());
+            } else {
+                mBitmapLoadCallback.onFailure(result.mBitmapWorkerException);
+            }
+        } else if (result.mBitmapWorkerException == null) {
+            mImageLoadCallback.onImageLoaded(result.mBitmapResult, result.mExifInfo, mImageHeader,
+                    mInputUri, mOutputUri);
+        } else {
+            mImageLoadCallback.onFailure(result.mBitmapWorkerException);
         }
-        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.yalantis.ucrop.task;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+
+import androidx.annotation.Keep;
+import androidx.annotation.Nullable;
+
+/**
+ * Bindings of the native crop. Besides the Android SDK they only need {@link Bitmap},
+ * so the host build compiles this class as is to call the native crop from a desktop JVM.
+ */
+public final class NativeCrop {
+
+    static {
+        System.loadLibrary("ucrop");
+    }
+
+    /**
+     * Receives progress of the native crop on the thread which runs it.
+     */
+    @Keep
+    public interface ProgressListener {
+
+        /**
+         * Called after each strip of the result.
+         *
+         * @return false if the crop should stop
+         */
+        boolean onNativeProgress(int rowsDone, int rows);
+
+    }
+
+    private NativeCrop() {
+    }
+
+    /**
+     * Composes mapping of a result pixel to a pixel of the image as it is stored in the file:
+     * crop offset, rotation around the center of the resized image, resize and EXIF orientation.
+     *
+     * @param imageWidth  - size of the image as it is stored, before EXIF orientation
+     * @param resizeScale - scale of the EXIF oriented image
+     * @param angle       - clockwise rotation of the resized image around its center, in degrees
+     * @param left        - crop offset in the bounding box of the rotated image
+     * @return - values [a, b, c, d, e, f] of sx = a * x + b * y + c, sy = d * x + e * y + f
+     */
+    @SuppressWarnings("JniMissingFunction")
+    native public static float[]
+    cropMatrix(int imageWidth, int imageHeight, int exifDegrees, int exifTranslation,
+               float resizeScale, float angle, int left, int top);
+
+    /**
+     * Samples every pixel of the result from the source image through the given affine transform.
+     *
+     * @param width       - result width
+     * @param height      - result height
+     * @param matrix      - maps a result pixel to the source pixel, see {@link #cropMatrix}
+     * @param format      - ordinal of {@link Bitmap.CompressFormat}, WEBP is lossless at quality 100
+     * @param webpEffort  - WebP method, 0 (fastest) to 6 (smallest file)
+     * @param pngLevel    - zlib compression level of PNG, 0 to 9
+     * @param pngFilter   - one of UCrop.Options.PNG_FILTER_* row filters
+     * @param pngParallel - whether PNG is filtered and deflated on all threads, in independently compressed parts
+     * @param resampling  - one of UCrop.Options.RESAMPLING_* filters
+     * @param scaleDenom  - JPEG is decoded downscaled by at least 1 / scaleDenom (1, 2, 4 or 8),
+     *                    more if the result is small enough, see {@link com.yalantis.ucrop.model.CropPlan}
+     * @param threadCount - number of threads, 0 to use all CPU cores
+     * @param listener    - receives progress and is asked whether to go on between strips of the result,
+     *                    cancelled crop throws {@link java.util.concurrent.CancellationException}. Can be null
+     */
+    @SuppressWarnings("JniMissingFunction")
+    native public static boolean
+    cropCImg(String inputPath, String outputPath,
+             int width, int height, float[] matrix,
+             int format, int quality, int webpEffort, int pngLevel, int pngFilter, boolean pngParallel,
+             int resampling, int scaleDenom, int threadCount,
+             @Nullable ProgressListener listener) throws IOException, OutOfMemoryError;
+
+    /**
+     * Same as {@link #cropCImg(String, String, int, int, float[], int, int, int, int, int, boolean, int, int, int, ProgressListener)}, but reads the source
+     * from a file descriptor, which must be seekable and is read from its beginning.
+     * Result is written to the output descriptor, which is truncated first.
+     * Only JPEG, PNG and WebP results can be written to a descriptor.
+     */
+    @SuppressWarnings("JniMissingFunction")
+    native public static boolean
+    cropCImgFd(int inputFd, int outputFd,
+               int width, int height, float[] matrix,
+               int format, int quality, int webpEffort, int pngLevel, int pngFilter, boolean pngParallel,
+               int resampling, int scaleDenom, int threadCount,
+               @Nullable ProgressListener listener) throws IOException, OutOfMemoryError;
+
+    /**
+     * Samples the result into pixels of an ARGB_8888 bitmap, which has the size of the result.
+     * Pixels with alpha are premultiplied, as the bitmap expects.
+     */
+    @SuppressWarnings("JniMissingFunction")
+    native public static boolean
+    cropCImgBitmap(String inputPath, Bitmap result, float[] matrix,
+                   int resampling, int scaleDenom, int threadCount,
+                   @Nullable ProgressListener listener) throws IOException, OutOfMemoryError;
+
+    /**
+     * Same as {@link #cropCImgBitmap(String, Bitmap, float[], int, int, int, ProgressListener)}, but reads the source
+     * from a seekable file descriptor.
+     */
+    @SuppressWarnings("JniMissingFunction")
+    native public static boolean
+    cropCImgFdBitmap(int inputFd, Bitmap result, float[] matrix,
+                     int resampling, int scaleDenom, int threadCount,
+                     @Nullable ProgressListener listener) throws IOException, OutOfMemoryError;
+
+    /**
+     * Crops and rotates JPEG image by transforming its DCT coefficients, so nothing is decoded or re-encoded
+     * and there is no quality loss. Compression quality of the source is kept.
+     * Corner of the crop bounds which becomes the origin of the stored image is moved onto the MCU grid
+     * (8-16 pixels), so the bounds can grow by up to 15 pixels on that side, like {@code jpegtran -crop} does.
+     *
+     * @param angle        - right angle, one of 0, 90, 180, 270
+     * @param resultBounds - receives left, top, width and height of the bounds actually cropped
+     * @return - false if the image is not a JPEG, nothing is written then
+     * @throws IOException if the JPEG can't be transformed (e.g. bounds are smaller than a MCU), the message has the reason
+     */
+    @SuppressWarnings("JniMissingFunction")
+    native public static boolean
+    cropJpegLossless(String inputPath, String outputPath,
+                     int left, int top, int width, int height, int angle,
+                     int exifDegrees, int exifTranslation, int[] resultBounds) throws IOException;
+
+    /**
+     * Same as {@link #cropJpegLossless(String, String, int, int, int, int, int, int, int, int[])},
+     * but reads the source from a seekable file descriptor.
+     */
+    @SuppressWarnings("JniMissingFunction")
+    native public static boolean
+    cropJpegLosslessFd(int inputFd, String outputPath,
+                       int left, int top, int width, int height, int angle,
+                       int exifDegrees, int exifTranslation, int[] resultBounds) throws IOException;
+
+}
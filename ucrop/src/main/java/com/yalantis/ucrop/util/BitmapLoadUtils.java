@@ -6,18 +6,23 @@ import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Point;
+import android.graphics.RectF;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 import android.view.Display;
 import android.view.WindowManager;
 
 import com.yalantis.ucrop.callback.BitmapLoadCallback;
+import com.yalantis.ucrop.callback.ImageLoadCallback;
+import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageHeader;
 import com.yalantis.ucrop.task.BitmapLoadTask;
 
 import java.io.Closeable;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -41,6 +46,32 @@ public class BitmapLoadUtils {
                 .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
+    public static void decodeBitmapInBackground(@NonNull Context context,
+                                                @NonNull Uri uri, @Nullable Uri outputUri,
+                                                int requiredWidth, int requiredHeight,
+                                                @NonNull ImageLoadCallback loadCallback) {
+
+        new BitmapLoadTask(context, uri, outputUri, requiredWidth, requiredHeight, loadCallback)
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * @return matrix which rotates and mirrors an image of the given size as its EXIF orientation says,
+     * the transformed image has its top left corner at 0, 0
+     */
+    @NonNull
+    public static Matrix getExifMatrix(@NonNull ExifInfo exifInfo, int width, int height) {
+        Matrix matrix = new Matrix();
+        matrix.setRotate(exifInfo.getExifDegrees());
+        if (exifInfo.getExifTranslation() != 1) {
+            matrix.postScale(exifInfo.getExifTranslation(), 1);
+        }
+        RectF bounds = new RectF(0, 0, width, height);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        return matrix;
+    }
+
     public static Bitmap transformBitmap(@NonNull Bitmap bitmap, @NonNull Matrix transformMatrix) {
         try {
             Bitmap converted = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), transformMatrix, true);
@@ -69,19 +100,18 @@ public class BitmapLoadUtils {
         return inSampleSize;
     }
 
-    public static int getExifOrientation(@NonNull Context context, @NonNull Uri imageUri) {
-        int orientation = ExifInterface.ORIENTATION_UNDEFINED;
-        try {
-            InputStream stream = context.getContentResolver().openInputStream(imageUri);
-            if (stream == null) {
-                return orientation;
-            }
-            orientation = new ImageHeaderParser(stream).getOrientation();
-            close(stream);
-        } catch (IOException e) {
-            Log.e(TAG, "getExifOrientation: " + imageUri.toString(), e);
-        }
-        return orientation;
+    /**
+     * Reads the header of the image from the start of the file, then moves the descriptor back there,
+     * so the image can be decoded from the same descriptor.
+     */
+    @NonNull
+    public static ImageHeader readImageHeader(@NonNull ParcelFileDescriptor descriptor) throws IOException {
+        // Not closed, that would close the descriptor.
+        FileInputStream stream = new FileInputStream(descriptor.getFileDescriptor());
+        stream.getChannel().position(0);
+        ImageHeader header = ImageHeaderParser.readHeader(stream);
+        stream.getChannel().position(0);
+        return header;
     }
 
     public static int exifToDegrees(int exifOrientation) {
@@ -32,6 +32,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.channels.FileChannel;
 import java.util.Locale;
 
@@ -234,4 +236,22 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Copies the stream into the file with the given path, the stream is closed afterwards.
+     */
+    public static void copyFile(@NonNull InputStream inputFrom, @NonNull String pathTo) throws IOException {
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(new File(pathTo));
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputFrom.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            BitmapLoadUtils.close(outputStream);
+            BitmapLoadUtils.close(inputFrom);
+        }
+    }
+
 }
@@ -33,16 +33,23 @@ package com.yalantis.ucrop.util;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.yalantis.ucrop.model.ImageHeader;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.exifinterface.media.ExifInterface;
 
 /**
  * A class for parsing the exif orientation from an image header.
+ * {@link #readHeader(InputStream)} also reads the size and format of JPEG, PNG and WebP images.
  */
 public class ImageHeaderParser {
     private static final String TAG = "ImageHeaderParser";
@@ -65,8 +72,13 @@ public class ImageHeaderParser {
     private static final int MARKER_EOI = 0xD9;
     private static final int SEGMENT_START_ID = 0xFF;
     private static final int EXIF_SEGMENT_TYPE = 0xE1;
+    private static final int JPEG_BLOCK_SIZE = 8;
     private static final int ORIENTATION_TAG_TYPE = 0x0112;
     private static final int[] BYTES_PER_FORMAT = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // Header is read in steps of this size, up to MAX_HEADER_SIZE which fits APP1 and a few other large segments.
+    private static final int HEADER_READ_STEP = 16 * 1024;
+    private static final int MAX_HEADER_SIZE = 256 * 1024;
 
     private final Reader reader;
 
@@ -104,6 +116,115 @@ public class ImageHeaderParser {
         }
     }
 
+    /**
+     * Reads size, format and EXIF of the image from the start of the stream in one pass,
+     * no more bytes than the header takes are read. Fields which weren't found are left empty.
+     */
+    @NonNull
+    public static ImageHeader readHeader(@NonNull InputStream is) throws IOException {
+        HeaderBuffer buffer = new HeaderBuffer(is);
+        if (buffer.require(2) && buffer.getUInt16(0) == EXIF_MAGIC_NUMBER) {
+            return readJpegHeader(buffer);
+        } else if (buffer.require(24) && buffer.matches(0, PNG_SIGNATURE) && buffer.matches(12, "IHDR")) {
+            return new ImageHeader(buffer.getInt32(16), buffer.getInt32(20), "image/png",
+                    UNKNOWN_ORIENTATION, null);
+        } else if (buffer.require(30) && buffer.matches(0, "RIFF") && buffer.matches(8, "WEBP")) {
+            return readWebpHeader(buffer);
+        }
+        return new ImageHeader(0, 0, null, UNKNOWN_ORIENTATION, null);
+    }
+
+    /**
+     * Walks segments up to the start of frame, which has the size and sampling factors of the image,
+     * keeping APP1 on the way.
+     */
+    @NonNull
+    private static ImageHeader readJpegHeader(@NonNull HeaderBuffer buffer) throws IOException {
+        int width = 0, height = 0, mcuWidth = 0, mcuHeight = 0;
+        int orientation = UNKNOWN_ORIENTATION;
+        byte[] exif = null;
+
+        int offset = 2;
+        while (buffer.require(offset + 4) && buffer.getUInt8(offset) == SEGMENT_START_ID) {
+            int segmentType = buffer.getUInt8(offset + 1);
+            if (segmentType == SEGMENT_START_ID) {
+                // Fill byte before the marker.
+                offset++;
+                continue;
+            } else if (segmentType == SEGMENT_SOS || segmentType == MARKER_EOI) {
+                break;
+            }
+
+            // Segment length includes bytes for segment length.
+            int segmentLength = buffer.getUInt16(offset + 2) - 2;
+            int segmentOffset = offset + 4;
+            if (segmentLength < 0) {
+                break;
+            }
+
+            if (segmentType == EXIF_SEGMENT_TYPE && exif == null) {
+                if (!buffer.require(segmentOffset + segmentLength)) {
+                    break;
+                }
+                byte[] segment = buffer.copy(segmentOffset, segmentLength);
+                if (hasJpegExifPreamble(segment, segmentLength)) {
+                    exif = segment;
+                    try {
+                        orientation = parseExifSegment(new RandomAccessReader(segment, segmentLength));
+                    } catch (IndexOutOfBoundsException e) {
+                        Log.w(TAG, "readJpegHeader: malformed exif segment", e);
+                    }
+                }
+            } else if (isStartOfFrame(segmentType)) {
+                if (buffer.require(segmentOffset + 6)) {
+                    height = buffer.getUInt16(segmentOffset + 1);
+                    width = buffer.getUInt16(segmentOffset + 3);
+                    int components = buffer.getUInt8(segmentOffset + 5);
+                    if (components > 0 && buffer.require(segmentOffset + 6 + 3 * components)) {
+                        // Component id, then horizontal and vertical sampling factors in one byte.
+                        int maxH = 0, maxV = 0;
+                        for (int i = 0; i < components; i++) {
+                            int sampling = buffer.getUInt8(segmentOffset + 7 + 3 * i);
+                            maxH = Math.max(maxH, sampling >> 4);
+                            maxV = Math.max(maxV, sampling & 0x0F);
+                        }
+                        mcuWidth = maxH * JPEG_BLOCK_SIZE;
+                        mcuHeight = maxV * JPEG_BLOCK_SIZE;
+                    }
+                }
+                break;
+            }
+            offset = segmentOffset + segmentLength;
+        }
+        return new ImageHeader(width, height, "image/jpeg", orientation, exif, mcuWidth, mcuHeight);
+    }
+
+    private static boolean isStartOfFrame(int segmentType) {
+        // SOF0 - SOF15 except DHT, JPG and DAC, which share the range.
+        return segmentType >= 0xC0 && segmentType <= 0xCF
+                && segmentType != 0xC4 && segmentType != 0xC8 && segmentType != 0xCC;
+    }
+
+    /**
+     * Size of lossy, lossless and extended WebP, EXIF of the latter is at the end of the file and isn't read.
+     */
+    @NonNull
+    private static ImageHeader readWebpHeader(@NonNull HeaderBuffer buffer) {
+        int width = 0, height = 0;
+        if (buffer.matches(12, "VP8 ")) {
+            width = buffer.getUInt16LE(26) & 0x3FFF;
+            height = buffer.getUInt16LE(28) & 0x3FFF;
+        } else if (buffer.matches(12, "VP8L")) {
+            int bits = buffer.getUInt16LE(21) | buffer.getUInt16LE(23) << 16;
+            width = (bits & 0x3FFF) + 1;
+            height = (bits >> 14 & 0x3FFF) + 1;
+        } else if (buffer.matches(12, "VP8X")) {
+            width = (buffer.getUInt16LE(24) | buffer.getUInt8(26) << 16) + 1;
+            height = (buffer.getUInt16LE(27) | buffer.getUInt8(29) << 16) + 1;
+        }
+        return new ImageHeader(width, height, "image/webp", UNKNOWN_ORIENTATION, null);
+    }
+
     private int parseExifSegment(byte[] tempArray, int exifSegmentLength) throws IOException {
         int read = reader.read(tempArray, exifSegmentLength);
         if (read != exifSegmentLength) {
@@ -126,7 +247,7 @@ public class ImageHeaderParser {
         }
     }
 
-    private boolean hasJpegExifPreamble(byte[] exifData, int exifSegmentLength) {
+    private static boolean hasJpegExifPreamble(byte[] exifData, int exifSegmentLength) {
         boolean result =
                 exifData != null && exifSegmentLength > JPEG_EXIF_SEGMENT_PREAMBLE_BYTES.length;
         if (result) {
@@ -376,7 +497,103 @@ public class ImageHeaderParser {
         }
     }
 
-    public static void copyExif(ExifInterface originalExif, int width, int height, String imageOutputPath) {
+    /**
+     * Bytes from the start of a stream, read only as far as they are required.
+     */
+    private static class HeaderBuffer {
+        private final InputStream is;
+        private byte[] data = new byte[HEADER_READ_STEP];
+        private int length;
+
+        public HeaderBuffer(InputStream is) {
+            this.is = is;
+        }
+
+        /**
+         * @return false if the stream ends before, or the header would be longer than MAX_HEADER_SIZE
+         */
+        public boolean require(int end) throws IOException {
+            if (end > MAX_HEADER_SIZE) {
+                return false;
+            }
+            if (end > data.length) {
+                int size = (end + HEADER_READ_STEP - 1) / HEADER_READ_STEP * HEADER_READ_STEP;
+                data = Arrays.copyOf(data, Math.min(size, MAX_HEADER_SIZE));
+            }
+            while (length < end) {
+                int read = is.read(data, length, data.length - length);
+                if (read == -1) {
+                    return false;
+                }
+                length += read;
+            }
+            return true;
+        }
+
+        public int getUInt8(int offset) {
+            return data[offset] & 0xFF;
+        }
+
+        public int getUInt16(int offset) {
+            return getUInt8(offset) << 8 | getUInt8(offset + 1);
+        }
+
+        public int getUInt16LE(int offset) {
+            return getUInt8(offset) | getUInt8(offset + 1) << 8;
+        }
+
+        public int getInt32(int offset) {
+            return getUInt16(offset) << 16 | getUInt16(offset + 2);
+        }
+
+        public boolean matches(int offset, byte[] bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                if (data[offset + i] != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean matches(int offset, String ascii) {
+            for (int i = 0; i < ascii.length(); i++) {
+                if (data[offset + i] != ascii.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public byte[] copy(int offset, int count) {
+            return Arrays.copyOfRange(data, offset, offset + count);
+        }
+    }
+
+    /**
+     * Parses EXIF kept by {@link #readHeader(InputStream)}, wrapped into the smallest JPEG ExifInterface reads.
+     *
+     * @param exif - contents of the APP1 segment, starting with the Exif preamble
+     */
+    @NonNull
+    public static ExifInterface createExifInterface(@NonNull byte[] exif) throws IOException {
+        final int segmentLength = exif.length + 2;
+        byte[] jpeg = new byte[exif.length + 8];
+        jpeg[0] = (byte) SEGMENT_START_ID;
+        jpeg[1] = (byte) (EXIF_MAGIC_NUMBER & 0xFF);
+        jpeg[2] = (byte) SEGMENT_START_ID;
+        jpeg[3] = (byte) EXIF_SEGMENT_TYPE;
+        jpeg[4] = (byte) (segmentLength >> 8);
+        jpeg[5] = (byte) segmentLength;
+        System.arraycopy(exif, 0, jpeg, 6, exif.length);
+        jpeg[jpeg.length - 2] = (byte) SEGMENT_START_ID;
+        jpeg[jpeg.length - 1] = (byte) MARKER_EOI;
+        return new ExifInterface(new ByteArrayInputStream(jpeg));
+    }
+
+    /**
+     * @param originalExif - EXIF of the source image, null if it had none, only size and orientation are set then
+     */
+    public static void copyExif(@Nullable ExifInterface originalExif, int width, int height, String imageOutputPath) {
         String[] attributes = new String[]{
                 ExifInterface.TAG_F_NUMBER,
                 ExifInterface.TAG_DATETIME,
@@ -405,10 +622,12 @@ public class ImageHeaderParser {
         try {
             ExifInterface newExif = new ExifInterface(imageOutputPath);
             String value;
-            for (String attribute : attributes) {
-                value = originalExif.getAttribute(attribute);
-                if (!TextUtils.isEmpty(value)) {
-                    newExif.setAttribute(attribute, value);
+            if (originalExif != null) {
+                for (String attribute : attributes) {
+                    value = originalExif.getAttribute(attribute);
+                    if (!TextUtils.isEmpty(value)) {
+                        newExif.setAttribute(attribute, value);
+                    }
                 }
             }
             newExif.setAttribute(ExifInterface.TAG_IMAGE_WIDTH, String.valueOf(width));
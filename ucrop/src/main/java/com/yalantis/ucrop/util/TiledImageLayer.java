@@ -0,0 +1,327 @@
+package com.yalantis.ucrop.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+import com.yalantis.ucrop.model.ExifInfo;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Draws tiles of the source image decoded at the resolution of the screen over the downsampled bitmap of the view,
+ * once the bitmap is magnified enough to look blurry. Only the visible tiles are decoded, one at a time
+ * on a background thread, and recently drawn tiles are kept in a cache limited by their size in bytes.
+ * <p/>
+ * All methods must be called from the main thread.
+ */
+public class TiledImageLayer {
+
+    private static final String TAG = "TiledImageLayer";
+
+    // Side of a decoded tile in pixels.
+    private static final int TILE_SIZE = 512;
+    // Tiles are drawn once the bitmap of the view is magnified more than that.
+    private static final float MIN_TILED_SCALE = 1.5f;
+    // Tile cache takes at most this part of the heap, and never more than MAX_CACHE_BYTES.
+    private static final int CACHE_HEAP_DIVIDER = 8;
+    private static final int MAX_CACHE_BYTES = 64 * 1024 * 1024;
+
+    private final View mView;
+    private final Context mContext;
+    private final Uri mImageUri;
+    private final ExifInfo mExifInfo;
+    private final int mBitmapWidth, mBitmapHeight;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final LruCache<Tile, Bitmap> mCache;
+    private final Set<Tile> mPendingTiles = new HashSet<>();
+    // Replaced as a whole, the decoding thread reads it to skip tiles which went out of sight.
+    private volatile Set<Tile> mVisibleTiles = Collections.emptySet();
+
+    // Maps the source image to the bitmap of the view, then to the view.
+    private final Matrix mImageToBitmapMatrix = new Matrix();
+    private final Matrix mImageToViewMatrix = new Matrix();
+    private final Matrix mViewToImageMatrix = new Matrix();
+    private final Matrix mTileMatrix = new Matrix();
+    private final Matrix mLastImageMatrix = new Matrix();
+    private final RectF mTempRect = new RectF();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private int mImageWidth, mImageHeight;
+    private boolean mReady, mReleased;
+
+    // Accessed only from the decoding thread.
+    private BitmapRegionDecoder mDecoder;
+    private ParcelFileDescriptor mDescriptor;
+    private boolean mDecoderFailed;
+
+    /**
+     * @param imageUri     - source image, a file or content Uri
+     * @param bitmapWidth  - width of the bitmap of the view after EXIF orientation is applied
+     * @param bitmapHeight - height of the bitmap of the view after EXIF orientation is applied
+     */
+    public TiledImageLayer(@NonNull View view, @NonNull Uri imageUri, @NonNull ExifInfo exifInfo,
+                           int bitmapWidth, int bitmapHeight) {
+        mView = view;
+        mContext = view.getContext().getApplicationContext();
+        mImageUri = imageUri;
+        mExifInfo = exifInfo;
+        mBitmapWidth = bitmapWidth;
+        mBitmapHeight = bitmapHeight;
+
+        int cacheBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / CACHE_HEAP_DIVIDER, MAX_CACHE_BYTES);
+        mCache = new LruCache<Tile, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Tile tile, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (openDecoder()) {
+                    final int width = mDecoder.getWidth(), height = mDecoder.getHeight();
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onDecoderOpened(width, height);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the tiles visible with the given image matrix of the view and starts to decode the missing ones.
+     */
+    public void update(@NonNull Matrix imageMatrix) {
+        mLastImageMatrix.set(imageMatrix);
+        if (!mReady || mReleased) {
+            return;
+        }
+
+        mImageToViewMatrix.set(mImageToBitmapMatrix);
+        mImageToViewMatrix.postConcat(imageMatrix);
+        mImageToViewMatrix.postTranslate(mView.getPaddingLeft(), mView.getPaddingTop());
+
+        // View pixels per source pixel, the bitmap of the view has mBitmapWidth / oriented width of them.
+        final float scale = mImageToViewMatrix.mapRadius(1);
+        final float bitmapScale = scale * Math.max(mImageWidth, mImageHeight) / Math.max(mBitmapWidth, mBitmapHeight);
+        if (bitmapScale <= MIN_TILED_SCALE || !mImageToViewMatrix.invert(mViewToImageMatrix)) {
+            mVisibleTiles = Collections.emptySet();
+            return;
+        }
+
+        // Largest power of 2 subsampling which still gives at least one tile pixel per view pixel.
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+
+        mTempRect.set(0, 0, mView.getWidth(), mView.getHeight());
+        mViewToImageMatrix.mapRect(mTempRect);
+        final int tileExtent = TILE_SIZE * sampleSize;
+        final int firstColumn = Math.max(0, (int) Math.floor(mTempRect.left / tileExtent));
+        final int firstRow = Math.max(0, (int) Math.floor(mTempRect.top / tileExtent));
+        final int lastColumn = Math.min((mImageWidth - 1) / tileExtent, (int) Math.floor(mTempRect.right / tileExtent));
+        final int lastRow = Math.min((mImageHeight - 1) / tileExtent, (int) Math.floor(mTempRect.bottom / tileExtent));
+
+        Set<Tile> visibleTiles = new HashSet<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Tile tile = new Tile(sampleSize, column, row, tileExtent, mImageWidth, mImageHeight);
+                visibleTiles.add(tile);
+            }
+        }
+        mVisibleTiles = visibleTiles;
+
+        for (Tile tile : visibleTiles) {
+            if (mCache.get(tile) == null && mPendingTiles.add(tile)) {
+                decodeTile(tile);
+            }
+        }
+    }
+
+    /**
+     * Draws decoded visible tiles, the bitmap of the view must be drawn under them.
+     */
+    public void draw(@NonNull Canvas canvas) {
+        if (mReleased) {
+            return;
+        }
+        for (Tile tile : mVisibleTiles) {
+            Bitmap bitmap = mCache.get(tile);
+            if (bitmap != null) {
+                mTileMatrix.setScale(tile.mRect.width() / (float) bitmap.getWidth(),
+                        tile.mRect.height() / (float) bitmap.getHeight());
+                mTileMatrix.postTranslate(tile.mRect.left, tile.mRect.top);
+                mTileMatrix.postConcat(mImageToViewMatrix);
+                canvas.drawBitmap(bitmap, mTileMatrix, mPaint);
+            }
+        }
+    }
+
+    /**
+     * Stops decoding and drops the cached tiles, the layer can't be used anymore.
+     */
+    public void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        mVisibleTiles = Collections.emptySet();
+        mHandler.removeCallbacksAndMessages(null);
+        mCache.evictAll();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mDecoder != null) {
+                    mDecoder.recycle();
+                    mDecoder = null;
+                }
+                BitmapLoadUtils.close(mDescriptor);
+                mDescriptor = null;
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private void onDecoderOpened(int imageWidth, int imageHeight) {
+        if (mReleased) {
+            return;
+        }
+        mImageWidth = imageWidth;
+        mImageHeight = imageHeight;
+
+        // Same orientation as the view applies to its bitmap, then scaled to the bitmap.
+        mImageToBitmapMatrix.set(BitmapLoadUtils.getExifMatrix(mExifInfo, imageWidth, imageHeight));
+        mTempRect.set(0, 0, imageWidth, imageHeight);
+        mImageToBitmapMatrix.mapRect(mTempRect);
+        mImageToBitmapMatrix.postScale(mBitmapWidth / mTempRect.width(), mBitmapHeight / mTempRect.height());
+
+        mReady = true;
+        update(mLastImageMatrix);
+        mView.invalidate();
+    }
+
+    private void decodeTile(@NonNull final Tile tile) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                if (mVisibleTiles.contains(tile) && openDecoder()) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = tile.mSampleSize;
+                    try {
+                        bitmap = mDecoder.decodeRegion(tile.mRect, options);
+                    } catch (OutOfMemoryError error) {
+                        Log.w(TAG, "decodeTile: " + tile.mRect, error);
+                    }
+                }
+                final Bitmap decoded = bitmap;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onTileDecoded(tile, decoded);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onTileDecoded(@NonNull Tile tile, @Nullable Bitmap bitmap) {
+        mPendingTiles.remove(tile);
+        if (mReleased || bitmap == null) {
+            return;
+        }
+        mCache.put(tile, bitmap);
+        if (mVisibleTiles.contains(tile)) {
+            mView.invalidate();
+        }
+    }
+
+    /**
+     * Called on the decoding thread.
+     *
+     * @return false if the image can't be decoded by regions, tiles are not drawn then
+     */
+    private boolean openDecoder() {
+        if (mDecoder != null) {
+            return true;
+        }
+        if (mDecoderFailed) {
+            return false;
+        }
+        try {
+            if ("file".equals(mImageUri.getScheme())) {
+                mDecoder = BitmapRegionDecoder.newInstance(mImageUri.getPath(), false);
+            } else {
+                mDescriptor = mContext.getContentResolver().openFileDescriptor(mImageUri, "r");
+                if (mDescriptor != null) {
+                    mDecoder = BitmapRegionDecoder.newInstance(mDescriptor.getFileDescriptor(), false);
+                }
+            }
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "openDecoder: " + mImageUri, e);
+        }
+        mDecoderFailed = mDecoder == null;
+        return !mDecoderFailed;
+    }
+
+    /**
+     * Square of TILE_SIZE pixels after subsampling, clipped to the image.
+     */
+    private static class Tile {
+
+        final int mSampleSize, mColumn, mRow;
+        final Rect mRect;
+
+        Tile(int sampleSize, int column, int row, int extent, int imageWidth, int imageHeight) {
+            mSampleSize = sampleSize;
+            mColumn = column;
+            mRow = row;
+            mRect = new Rect(column * extent, row * extent,
+                    Math.min(imageWidth, (column + 1) * extent), Math.min(imageHeight, (row + 1) * extent));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Tile)) return false;
+            Tile tile = (Tile) o;
+            return mSampleSize == tile.mSampleSize && mColumn == tile.mColumn && mRow == tile.mRow;
+        }
+
+        @Override
+        public int hashCode() {
+            return (mSampleSize * 31 + mColumn) * 31 + mRow;
+        }
+
+    }
+
+}
@@ -5,14 +5,18 @@ import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.graphics.RectF;
-import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.util.AttributeSet;
 
 import com.yalantis.ucrop.R;
+import com.yalantis.ucrop.UCrop;
 import com.yalantis.ucrop.callback.BitmapCropCallback;
 import com.yalantis.ucrop.callback.CropBoundsChangeListener;
+import com.yalantis.ucrop.callback.CropProgressCallback;
+import com.yalantis.ucrop.callback.CroppedBitmapCallback;
 import com.yalantis.ucrop.model.CropParameters;
+import com.yalantis.ucrop.model.ExifInfo;
 import com.yalantis.ucrop.model.ImageState;
 import com.yalantis.ucrop.task.BitmapCropTask;
 import com.yalantis.ucrop.util.CubicEasing;
@@ -34,6 +38,11 @@ import androidx.annotation.Nullable;
 public class CropImageView extends TransformImageView {
 
     public static final int DEFAULT_MAX_BITMAP_SIZE = 0;
+    public static final int DEFAULT_CROP_THREAD_COUNT = 0;
+    public static final int DEFAULT_RESAMPLING_QUALITY = UCrop.Options.RESAMPLING_BILINEAR;
+    public static final int DEFAULT_WEBP_EFFORT = 4;
+    public static final int DEFAULT_PNG_COMPRESSION_LEVEL = 6;
+    public static final int DEFAULT_PNG_FILTER = UCrop.Options.PNG_FILTER_ADAPTIVE;
     public static final int DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION = 500;
     public static final float DEFAULT_MAX_SCALE_MULTIPLIER = 10.0f;
     public static final float SOURCE_IMAGE_ASPECT_RATIO = 0f;
@@ -47,11 +56,19 @@ public class CropImageView extends TransformImageView {
     private float mMaxScaleMultiplier = DEFAULT_MAX_SCALE_MULTIPLIER;
 
     private CropBoundsChangeListener mCropBoundsChangeListener;
+    private CropProgressCallback mCropProgressCallback;
+    private BitmapCropTask mCropTask;
 
     private Runnable mWrapCropBoundsRunnable, mZoomImageToPositionRunnable = null;
 
     private float mMaxScale, mMinScale;
     private int mMaxResultImageSizeX = 0, mMaxResultImageSizeY = 0;
+    private int mCropThreadCount = DEFAULT_CROP_THREAD_COUNT;
+    private int mResamplingQuality = DEFAULT_RESAMPLING_QUALITY;
+    private int mWebpEffort = DEFAULT_WEBP_EFFORT;
+    private int mPngCompressionLevel = DEFAULT_PNG_COMPRESSION_LEVEL;
+    private int mPngFilter = DEFAULT_PNG_FILTER;
+    private boolean mPngParallelDeflate;
     private long mImageToWrapCropBoundsAnimDuration = DEFAULT_IMAGE_TO_CROP_BOUNDS_ANIM_DURATION;
 
     public CropImageView(Context context) {
@@ -75,17 +92,75 @@ public class CropImageView extends TransformImageView {
         cancelAllAnimations();
         setImageToWrapCropBounds(false);
 
-        final ImageState imageState = new ImageState(
+        CropTaskCallback taskCallback = new CropTaskCallback(cropCallback, null);
+        startCropTask(new BitmapCropTask(getContext(), getViewBitmap(), getImageState(),
+                getCropParameters(compressFormat, compressQuality), taskCallback), taskCallback);
+    }
+
+    /**
+     * Same as {@link #cropAndSaveImage(Bitmap.CompressFormat, int, BitmapCropCallback)}, but the result is
+     * delivered as a bitmap, which skips encoding it to the output file and decoding it back.
+     * The whole result is held in memory, if it doesn't fit the crop fails with {@link OutOfMemoryError}
+     * passed to the callback, so limit the result with {@link #setMaxResultImageSizeX(int)} and
+     * {@link #setMaxResultImageSizeY(int)}.
+     *
+     * @param resultBitmap - mutable ARGB_8888 bitmap of the result size to reuse, a new one is allocated otherwise
+     */
+    public void cropToBitmap(@Nullable Bitmap resultBitmap, @Nullable CroppedBitmapCallback cropCallback) {
+        cancelAllAnimations();
+        setImageToWrapCropBounds(false);
+
+        CropTaskCallback taskCallback = new CropTaskCallback(null, cropCallback);
+        startCropTask(new BitmapCropTask(getContext(), getViewBitmap(), getImageState(),
+                getCropParameters(null, 0), resultBitmap, taskCallback), taskCallback);
+    }
+
+    /**
+     * Stops the running crop, none of its callbacks is called then.
+     */
+    public void cancelCrop() {
+        if (mCropTask != null) {
+            mCropTask.cancel(false);
+            mCropTask = null;
+        }
+    }
+
+    /**
+     * @param cropProgressCallback - receives progress of the following crops
+     */
+    public void setCropProgressCallback(@Nullable CropProgressCallback cropProgressCallback) {
+        mCropProgressCallback = cropProgressCallback;
+    }
+
+    private void startCropTask(@NonNull BitmapCropTask cropTask, @NonNull CropTaskCallback taskCallback) {
+        cropTask.setProgressCallback(mCropProgressCallback);
+        taskCallback.mTask = cropTask;
+        mCropTask = cropTask;
+        cropTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    private ImageState getImageState() {
+        return new ImageState(
                 mCropRect, RectUtils.trapToRect(mCurrentImageCorners),
                 getCurrentScale(), getCurrentAngle());
+    }
 
-        final CropParameters cropParameters = new CropParameters(
-                mMaxResultImageSizeX, mMaxResultImageSizeY,
-                compressFormat, compressQuality,
-                getImageInputPath(), getImageOutputPath(), getExifInfo());
-
-        new BitmapCropTask(getViewBitmap(), imageState, cropParameters, cropCallback)
-                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    private CropParameters getCropParameters(@Nullable Bitmap.CompressFormat compressFormat, int compressQuality) {
+        // Files are cropped by path, anything else is read from the content resolver.
+        Uri inputUri = getImageInputUri();
+        String inputPath = inputUri != null && "file".equals(inputUri.getScheme()) ? inputUri.getPath() : null;
+        return new CropParameters.Builder(
+                mMaxResultImageSizeX, mMaxResultImageSizeY, compressFormat, compressQuality,
+                inputPath, getImageOutputPath(), getExifInfo())
+                .setWebpEffort(mWebpEffort)
+                .setPngCompressionLevel(mPngCompressionLevel)
+                .setPngFilter(mPngFilter)
+                .setPngParallelDeflate(mPngParallelDeflate)
+                .setCropThreadCount(mCropThreadCount)
+                .setResamplingQuality(mResamplingQuality)
+                .setContentImageInputUri(inputPath == null ? inputUri : null)
+                .setImageHeader(getImageHeader())
+                .build();
     }
 
     /**
@@ -131,14 +206,14 @@ public class CropImageView extends TransformImageView {
      * @param targetAspectRatio - aspect ratio for image crop (e.g. 1.77(7) for 16:9)
      */
     public void setTargetAspectRatio(float targetAspectRatio) {
-        final Drawable drawable = getDrawable();
-        if (drawable == null) {
+        final RectF imageBounds = getImageBounds();
+        if (imageBounds == null) {
             mTargetAspectRatio = targetAspectRatio;
             return;
         }
 
         if (targetAspectRatio == SOURCE_IMAGE_ASPECT_RATIO) {
-            mTargetAspectRatio = drawable.getIntrinsicWidth() / (float) drawable.getIntrinsicHeight();
+            mTargetAspectRatio = imageBounds.width() / imageBounds.height();
         } else {
             mTargetAspectRatio = targetAspectRatio;
         }
@@ -175,6 +250,60 @@ public class CropImageView extends TransformImageView {
         mMaxResultImageSizeY = maxResultImageSizeY;
     }
 
+    /**
+     * This method sets number of threads used by the native crop
+     *
+     * @param cropThreadCount - number of threads, 0 to use all available CPU cores
+     */
+    public void setCropThreadCount(@IntRange(from = 0) int cropThreadCount) {
+        mCropThreadCount = cropThreadCount;
+    }
+
+    /**
+     * This method sets filter used by the native crop to sample the source image
+     *
+     * @param resamplingQuality - one of UCrop.Options.RESAMPLING_* values
+     */
+    public void setResamplingQuality(@UCrop.Options.ResamplingQuality int resamplingQuality) {
+        mResamplingQuality = resamplingQuality;
+    }
+
+    /**
+     * This method sets how much time the WebP encoder of the native crop spends on making the result smaller
+     *
+     * @param webpEffort - 0 (fastest) to 6 (smallest)
+     */
+    public void setWebpEffort(@IntRange(from = 0, to = 6) int webpEffort) {
+        mWebpEffort = webpEffort;
+    }
+
+    /**
+     * This method sets zlib compression level of PNG results of the native crop
+     *
+     * @param pngCompressionLevel - 0 (stored) to 9 (smallest)
+     */
+    public void setPngCompressionLevel(@IntRange(from = 0, to = 9) int pngCompressionLevel) {
+        mPngCompressionLevel = pngCompressionLevel;
+    }
+
+    /**
+     * This method sets filter applied to rows of PNG results of the native crop
+     *
+     * @param pngFilter - one of UCrop.Options.PNG_FILTER_* values
+     */
+    public void setPngFilter(@UCrop.Options.PngFilter int pngFilter) {
+        mPngFilter = pngFilter;
+    }
+
+    /**
+     * This method sets whether PNG results of the native crop are deflated on all crop threads
+     *
+     * @param pngParallelDeflate - true to trade a slightly larger file for faster encoding
+     */
+    public void setPngParallelDeflate(boolean pngParallelDeflate) {
+        mPngParallelDeflate = pngParallelDeflate;
+    }
+
     /**
      * This method sets animation duration for image to wrap the crop bounds
      *
@@ -368,13 +497,13 @@ public class CropImageView extends TransformImageView {
     @Override
     protected void onImageLaidOut() {
         super.onImageLaidOut();
-        final Drawable drawable = getDrawable();
-        if (drawable == null) {
+        final RectF imageBounds = getImageBounds();
+        if (imageBounds == null) {
             return;
         }
 
-        float drawableWidth = drawable.getIntrinsicWidth();
-        float drawableHeight = drawable.getIntrinsicHeight();
+        float drawableWidth = imageBounds.width();
+        float drawableHeight = imageBounds.height();
 
         if (mTargetAspectRatio == SOURCE_IMAGE_ASPECT_RATIO) {
             mTargetAspectRatio = drawableWidth / drawableHeight;
@@ -402,6 +531,18 @@ public class CropImageView extends TransformImageView {
         }
     }
 
+    /**
+     * Running animations are defined by scale of the replaced bitmap, so they are stopped
+     * and the image is wrapped into the crop bounds again.
+     */
+    @Override
+    protected void replaceImageBitmap(@NonNull Bitmap bitmap, @Nullable ExifInfo exifInfo) {
+        cancelAllAnimations();
+        super.replaceImageBitmap(bitmap, exifInfo);
+        calculateImageScaleBounds();
+        setImageToWrapCropBounds();
+    }
+
     /**
      * This method checks whether current image fills the crop bounds.
      */
@@ -450,11 +591,11 @@ public class CropImageView extends TransformImageView {
     }
 
     private void calculateImageScaleBounds() {
-        final Drawable drawable = getDrawable();
-        if (drawable == null) {
+        final RectF imageBounds = getImageBounds();
+        if (imageBounds == null) {
             return;
         }
-        calculateImageScaleBounds(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+        calculateImageScaleBounds(imageBounds.width(), imageBounds.height());
     }
 
     /**
@@ -575,6 +716,56 @@ public class CropImageView extends TransformImageView {
         }
     }
 
+    /**
+     * Forgets the finished task, so it doesn't keep its bitmaps until the next crop, and passes the result on.
+     */
+    private class CropTaskCallback implements BitmapCropCallback, CroppedBitmapCallback {
+
+        private final BitmapCropCallback mCropCallback;
+        private final CroppedBitmapCallback mBitmapCallback;
+        private BitmapCropTask mTask;
+
+        CropTaskCallback(@Nullable BitmapCropCallback cropCallback, @Nullable CroppedBitmapCallback bitmapCallback) {
+            mCropCallback = cropCallback;
+            mBitmapCallback = bitmapCallback;
+        }
+
+        @Override
+        public void onBitmapCropped(@NonNull Uri resultUri, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+            onCropTaskFinished();
+            if (mCropCallback != null) {
+                mCropCallback.onBitmapCropped(resultUri, offsetX, offsetY, imageWidth, imageHeight);
+            }
+        }
+
+        @Override
+        public void onBitmapCropped(@NonNull Bitmap bitmap, int offsetX, int offsetY) {
+            onCropTaskFinished();
+            if (mBitmapCallback != null) {
+                mBitmapCallback.onBitmapCropped(bitmap, offsetX, offsetY);
+            }
+        }
+
+        @Override
+        public void onCropFailure(@NonNull Throwable t) {
+            onCropTaskFinished();
+            if (mCropCallback != null) {
+                mCropCallback.onCropFailure(t);
+            }
+            if (mBitmapCallback != null) {
+                mBitmapCallback.onCropFailure(t);
+            }
+        }
+
+        private void onCropTaskFinished() {
+            if (mCropTask == mTask) {
+                mCropTask = null;
+            }
+            mTask = null;
+        }
+
+    }
+
     /**
      * This Runnable is used to animate an image zoom.
      * Given values are interpolated during the animation time.
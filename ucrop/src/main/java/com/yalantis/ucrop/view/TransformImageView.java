@@ -2,6 +2,7 @@ package com.yalantis.ucrop.view;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
@@ -9,11 +10,14 @@ import android.net.Uri;
 import android.util.AttributeSet;
 import android.util.Log;
 
-import com.yalantis.ucrop.callback.BitmapLoadCallback;
+import com.yalantis.ucrop.callback.ImageLoadCallback;
+import com.yalantis.ucrop.callback.ImagePreviewCallback;
 import com.yalantis.ucrop.model.ExifInfo;
+import com.yalantis.ucrop.model.ImageHeader;
 import com.yalantis.ucrop.util.BitmapLoadUtils;
 import com.yalantis.ucrop.util.FastBitmapDrawable;
 import com.yalantis.ucrop.util.RectUtils;
+import com.yalantis.ucrop.util.TiledImageLayer;
 
 import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
@@ -42,6 +46,11 @@ public class TransformImageView extends AppCompatImageView {
     protected Matrix mCurrentImageMatrix = new Matrix();
     protected int mThisWidth, mThisHeight;
 
+    // Applies EXIF orientation to the bitmap, which is kept as stored in the file.
+    // Image corners and the current matrix are in the oriented image.
+    private final Matrix mBaseImageMatrix = new Matrix();
+    private final Matrix mDrawImageMatrix = new Matrix();
+
     protected TransformImageListener mTransformImageListener;
 
     private float[] mInitialImageCorners;
@@ -51,9 +60,12 @@ public class TransformImageView extends AppCompatImageView {
     protected boolean mBitmapLaidOut = false;
 
     private int mMaxBitmapSize = 0;
+    private boolean mTiledPreviewEnabled = false;
+    private TiledImageLayer mTiledImageLayer;
 
-    private String mImageInputPath, mImageOutputPath;
+    private Uri mImageInputUri, mImageOutputUri;
     private ExifInfo mExifInfo;
+    private ImageHeader mImageHeader;
 
     /**
      * Interface for rotation and scale change notifying.
@@ -106,6 +118,16 @@ public class TransformImageView extends AppCompatImageView {
         mMaxBitmapSize = maxBitmapSize;
     }
 
+    /**
+     * Setter for {@link #mTiledPreviewEnabled} value.
+     * Be sure to call it before {@link #setImageUri(Uri, Uri)}.
+     *
+     * @param enabled - true to draw the visible part of the zoomed in image decoded at screen resolution
+     */
+    public void setTiledPreviewEnabled(boolean enabled) {
+        mTiledPreviewEnabled = enabled;
+    }
+
     public int getMaxBitmapSize() {
         if (mMaxBitmapSize <= 0) {
             mMaxBitmapSize = BitmapLoadUtils.calculateMaxBitmapSize(getContext());
@@ -115,23 +137,70 @@ public class TransformImageView extends AppCompatImageView {
 
     @Override
     public void setImageBitmap(final Bitmap bitmap) {
+        setImageBitmap(bitmap, null);
+    }
+
+    /**
+     * @param exifInfo - orientation applied to the bitmap by {@link #mBaseImageMatrix} when it is drawn
+     */
+    private void setImageBitmap(@NonNull Bitmap bitmap, @Nullable ExifInfo exifInfo) {
+        if (exifInfo != null) {
+            mBaseImageMatrix.set(BitmapLoadUtils.getExifMatrix(exifInfo, bitmap.getWidth(), bitmap.getHeight()));
+        } else {
+            mBaseImageMatrix.reset();
+        }
         setImageDrawable(new FastBitmapDrawable(bitmap));
+        applyImageMatrix();
+    }
+
+    /**
+     * @return bounds of the image in the view, the drawable after EXIF orientation is applied, at 0, 0
+     */
+    @Nullable
+    protected RectF getImageBounds() {
+        final Drawable drawable = getDrawable();
+        if (drawable == null) {
+            return null;
+        }
+        RectF bounds = new RectF(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+        mBaseImageMatrix.mapRect(bounds);
+        return bounds;
     }
 
+    /**
+     * @return - path of the input image, null if it is read from a content provider
+     * @deprecated content Uris are no longer copied to a file before cropping, so there is no path for them
+     * and null is returned. Use {@link #getImageInputUri()}, which is set for every input.
+     */
+    @Deprecated
+    @Nullable
     public String getImageInputPath() {
-        return mImageInputPath;
+        return mImageInputUri != null && "file".equals(mImageInputUri.getScheme()) ? mImageInputUri.getPath() : null;
     }
 
     public String getImageOutputPath() {
-        return mImageOutputPath;
+        return mImageOutputUri != null ? mImageOutputUri.getPath() : null;
+    }
+
+    public Uri getImageInputUri() {
+        return mImageInputUri;
     }
 
     public ExifInfo getExifInfo() {
         return mExifInfo;
     }
 
+    /**
+     * @return - header of the input image read while loading it, null until it is loaded
+     */
+    @Nullable
+    public ImageHeader getImageHeader() {
+        return mImageHeader;
+    }
+
     /**
      * This method takes an Uri as a parameter, then calls method to decode it into Bitmap with specified size.
+     * Large images are shown from a coarse preview first, the bitmap replaces it in place when it's decoded.
      *
      * @param imageUri - image Uri
      * @throws Exception - can throw exception if having problems with decoding Uri or OOM.
@@ -140,26 +209,7 @@ public class TransformImageView extends AppCompatImageView {
         int maxBitmapSize = getMaxBitmapSize();
 
         BitmapLoadUtils.decodeBitmapInBackground(getContext(), imageUri, outputUri, maxBitmapSize, maxBitmapSize,
-                new BitmapLoadCallback() {
-
-                    @Override
-                    public void onBitmapLoaded(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull String imageInputPath, @Nullable String imageOutputPath) {
-                        mImageInputPath = imageInputPath;
-                        mImageOutputPath = imageOutputPath;
-                        mExifInfo = exifInfo;
-
-                        mBitmapDecoded = true;
-                        setImageBitmap(bitmap);
-                    }
-
-                    @Override
-                    public void onFailure(@NonNull Exception bitmapWorkerException) {
-                        Log.e(TAG, "onFailure: setImageUri", bitmapWorkerException);
-                        if (mTransformImageListener != null) {
-                            mTransformImageListener.onLoadFailure(bitmapWorkerException);
-                        }
-                    }
-                });
+                new ImageUriLoadCallback());
     }
 
     /**
@@ -195,9 +245,35 @@ public class TransformImageView extends AppCompatImageView {
 
     @Override
     public void setImageMatrix(Matrix matrix) {
-        super.setImageMatrix(matrix);
         mCurrentImageMatrix.set(matrix);
+        applyImageMatrix();
         updateCurrentImagePoints();
+        if (mTiledImageLayer != null) {
+            mTiledImageLayer.update(mCurrentImageMatrix);
+        }
+    }
+
+    /**
+     * Draws the bitmap with the current matrix applied after {@link #mBaseImageMatrix}.
+     */
+    private void applyImageMatrix() {
+        mDrawImageMatrix.set(mBaseImageMatrix);
+        mDrawImageMatrix.postConcat(mCurrentImageMatrix);
+        super.setImageMatrix(mDrawImageMatrix);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mTiledImageLayer != null) {
+            mTiledImageLayer.draw(canvas);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseTiledImageLayer();
     }
 
     @Nullable
@@ -281,17 +357,13 @@ public class TransformImageView extends AppCompatImageView {
      * must be set.
      */
     protected void onImageLaidOut() {
-        final Drawable drawable = getDrawable();
-        if (drawable == null) {
+        final RectF initialImageRect = getImageBounds();
+        if (initialImageRect == null) {
             return;
         }
 
-        float w = drawable.getIntrinsicWidth();
-        float h = drawable.getIntrinsicHeight();
+        Log.d(TAG, String.format("Image size: [%d:%d]", (int) initialImageRect.width(), (int) initialImageRect.height()));
 
-        Log.d(TAG, String.format("Image size: [%d:%d]", (int) w, (int) h));
-
-        RectF initialImageRect = new RectF(0, 0, w, h);
         mInitialImageCorners = RectUtils.getCornersFromRect(initialImageRect);
         mInitialImageCenter = RectUtils.getCenterFromRect(initialImageRect);
 
@@ -302,6 +374,33 @@ public class TransformImageView extends AppCompatImageView {
         }
     }
 
+    /**
+     * Replaces the laid out bitmap with another one of the same image in a different resolution.
+     * Current matrix is scaled by the ratio of their widths, so the image stays where it is on the screen.
+     */
+    protected void replaceImageBitmap(@NonNull Bitmap bitmap, @Nullable ExifInfo exifInfo) {
+        final Bitmap replacedBitmap = getViewBitmap();
+        setImageBitmap(bitmap, exifInfo);
+        final RectF initialImageRect = getImageBounds();
+        if (replacedBitmap == null || initialImageRect == null) {
+            return;
+        }
+
+        // Both sides of the preview are rounded separately, one ratio keeps the image from being distorted
+        float scale = replacedBitmap.getWidth() / (float) bitmap.getWidth();
+
+        Log.d(TAG, String.format("Image size: [%d:%d]", (int) initialImageRect.width(), (int) initialImageRect.height()));
+
+        mInitialImageCorners = RectUtils.getCornersFromRect(initialImageRect);
+        mInitialImageCenter = RectUtils.getCenterFromRect(initialImageRect);
+
+        mCurrentImageMatrix.preScale(scale, scale);
+        setImageMatrix(mCurrentImageMatrix);
+        if (mTransformImageListener != null) {
+            mTransformImageListener.onScale(getCurrentScale());
+        }
+    }
+
     /**
      * This method returns Matrix value for given index.
      *
@@ -337,4 +436,65 @@ public class TransformImageView extends AppCompatImageView {
         mCurrentImageMatrix.mapPoints(mCurrentImageCenter, mInitialImageCenter);
     }
 
+    private void releaseTiledImageLayer() {
+        if (mTiledImageLayer != null) {
+            mTiledImageLayer.release();
+            mTiledImageLayer = null;
+        }
+    }
+
+    /**
+     * Lays out the preview of large images first, then replaces it with the decoded bitmap.
+     */
+    private class ImageUriLoadCallback implements ImageLoadCallback, ImagePreviewCallback {
+
+        private boolean mPreviewShown;
+
+        @Override
+        public void onPreviewLoaded(@NonNull Bitmap preview, @NonNull ExifInfo exifInfo, @NonNull ImageHeader imageHeader,
+                                    @NonNull Uri imageInputUri, @Nullable Uri imageOutputUri) {
+            mImageInputUri = imageInputUri;
+            mImageOutputUri = imageOutputUri;
+            mExifInfo = exifInfo;
+            mImageHeader = imageHeader;
+
+            releaseTiledImageLayer();
+            mPreviewShown = true;
+            mBitmapDecoded = true;
+            setImageBitmap(preview, exifInfo);
+        }
+
+        @Override
+        public void onImageLoaded(@NonNull Bitmap bitmap, @NonNull ExifInfo exifInfo, @NonNull ImageHeader imageHeader,
+                                  @NonNull Uri imageInputUri, @Nullable Uri imageOutputUri) {
+            mImageInputUri = imageInputUri;
+            mImageOutputUri = imageOutputUri;
+            mExifInfo = exifInfo;
+            mImageHeader = imageHeader;
+
+            if (mPreviewShown && mBitmapLaidOut) {
+                replaceImageBitmap(bitmap, exifInfo);
+            } else {
+                mBitmapDecoded = true;
+                setImageBitmap(bitmap, exifInfo);
+            }
+
+            releaseTiledImageLayer();
+            RectF imageBounds = getImageBounds();
+            if (mTiledPreviewEnabled && imageBounds != null) {
+                mTiledImageLayer = new TiledImageLayer(TransformImageView.this, imageInputUri, exifInfo,
+                        (int) imageBounds.width(), (int) imageBounds.height());
+                mTiledImageLayer.update(mCurrentImageMatrix);
+            }
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception bitmapWorkerException) {
+            Log.e(TAG, "onFailure: setImageUri", bitmapWorkerException);
+            if (mTransformImageListener != null) {
+                mTransformImageListener.onLoadFailure(bitmapWorkerException);
+            }
+        }
+    }
+
 }
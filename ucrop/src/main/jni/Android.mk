@@ -3,12 +3,30 @@ LOCAL_PATH := $(call my-dir)
 include $(CLEAR_VARS)
 
 LOCAL_MODULE    := ucrop
-LOCAL_SRC_FILES := uCrop.cpp
+LOCAL_SRC_FILES := uCrop.cpp crop_matrix.cpp image_io.cpp jpeg_region.cpp jpeg_transform.cpp jpeg_encoder.cpp png_region.cpp png_encoder.cpp png_parallel.cpp webp_encoder.cpp rgba_writer.cpp resample.cpp
 
-LOCAL_LDLIBS    := -landroid -llog -lz
-LOCAL_STATIC_LIBRARIES := libpng libjpeg_static
+# Vector sampling kernels, armeabi-v7a checks for NEON at runtime.
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+    LOCAL_SRC_FILES += resample_neon.cpp.neon
+    LOCAL_CFLAGS += -DUCROP_HAVE_NEON
+    LOCAL_STATIC_LIBRARIES += cpufeatures
+endif
+ifeq ($(TARGET_ARCH_ABI),arm64-v8a)
+    LOCAL_SRC_FILES += resample_neon.cpp
+    LOCAL_CFLAGS += -DUCROP_HAVE_NEON
+endif
+ifneq ($(filter x86 x86_64,$(TARGET_ARCH_ABI)),)
+    LOCAL_SRC_FILES += resample_sse2.cpp
+    LOCAL_CFLAGS += -DUCROP_HAVE_SSE2
+endif
+
+LOCAL_LDLIBS    := -landroid -llog -lz -ljnigraphics
+LOCAL_STATIC_LIBRARIES += libpng libjpeg_static webp
 
 include $(BUILD_SHARED_LIBRARY)
 
+# libpng, libjpeg and libwebp come from NDK_MODULE_PATH, cpufeatures from the NDK, see README.md.
 $(call import-module,libpng)
-$(call import-module,libjpeg)
\ No newline at end of file
+$(call import-module,libjpeg)
+$(call import-module,libwebp)
+$(call import-module,android/cpufeatures)
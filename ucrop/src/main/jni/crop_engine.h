@@ -0,0 +1,92 @@
+//
+// Native crop without JNI, called by the Java bindings in uCrop.cpp and by the host command-line driver.
+//
+
+#ifndef UCROP_CROP_ENGINE_H
+#define UCROP_CROP_ENGINE_H
+
+#include "image_io.h"
+
+#define SAVE_FORMAT_JPEG 0
+#define SAVE_FORMAT_PNG  1
+// Ordinals of Bitmap.CompressFormat, WEBP is lossless at quality 100 like Bitmap.compress() since Android Q.
+#define SAVE_FORMAT_WEBP          2
+#define SAVE_FORMAT_WEBP_LOSSY    3
+#define SAVE_FORMAT_WEBP_LOSSLESS 4
+
+// Outcome of a crop, the Java bindings throw the matching exception for all but CROP_RESULT_OK.
+#define CROP_RESULT_OK            0
+#define CROP_RESULT_CANCELLED     1
+#define CROP_RESULT_OUT_OF_MEMORY 2
+#define CROP_RESULT_IO_ERROR      3
+
+struct CropOptions {
+    // one of SAVE_FORMAT_* values, formats CImg saves by the extension of the target path otherwise
+    int format;
+    int quality;
+    // WebP method, 0 (fastest) to 6 (smallest file)
+    int webp_effort;
+    int png_level;
+    // one of PNG_ROW_FILTER_* values
+    int png_filter;
+    bool png_parallel;
+    // one of RESAMPLING_* values
+    int resampling;
+    // JPEG is decoded downscaled by at least 1/scale_denom
+    int scale_denom;
+    // 0 or less to use all online cores
+    int threads;
+};
+
+/**
+ * Receives progress of the crop on the thread which started it.
+ */
+struct CropListener {
+    /**
+     * @return false to cancel the crop
+     */
+    bool (*progress)(void *arg, int rows_done, int rows);
+    void *arg;
+};
+
+/**
+ * Computes the matrix of crop_image() for the bounds of the crop in the image which is EXIF oriented,
+ * resized by resize_scale and rotated clockwise by angle degrees around its center. The bounds are relative
+ * to the bounding box of the rotated image. Java calls it through NativeCrop.cropMatrix(), so the library
+ * and the host driver crop with the same transform.
+ *
+ * @param image_width      - size of the image as stored, before EXIF orientation
+ * @param exif_degrees     - clockwise rotation by EXIF orientation, 0, 90, 180 or 270
+ * @param exif_translation - -1 if EXIF orientation mirrors the image after the rotation, 1 otherwise
+ * @param matrix           - receives 6 values, see crop_image()
+ */
+void crop_matrix(int image_width, int image_height, int exif_degrees, int exif_translation,
+                 float resize_scale, float angle, int left, int top, float *matrix);
+
+/**
+ * Samples every pixel of the result from the source, matrix {a, b, c, d, e, f} maps the result pixel (x, y)
+ * to the source pixel (a * x + b * y + c, d * x + e * y + f). Result is encoded into the target,
+ * or written as premultiplied RGBA to pixels if they are not NULL.
+ *
+ * @param stride   - distance between rows of {@code pixels} in bytes
+ * @param listener - can be NULL
+ * @return one of CROP_RESULT_* values, the error describes all but CROP_RESULT_OK
+ */
+int crop_image(const ImageSource *source, const ImageTarget *target, unsigned char *pixels, int stride,
+               int width, int height, const float *matrix, const CropOptions *options,
+               const CropListener *listener, char *error, int error_size);
+
+/**
+ * Crops JPEG by transforming its DCT coefficients, the rectangle is in the image rotated clockwise
+ * by angle after EXIF orientation is applied. The corner of the bounds which becomes the origin
+ * of the stored image is moved onto the iMCU grid (8 or 16 pixels), see jpeg_transform_region(),
+ * the bounds actually cropped are stored to result_rect as left, top, width and height.
+ *
+ * @return false if the source isn't JPEG or can't be transformed, the error describes the latter
+ */
+bool crop_jpeg_lossless(const ImageSource *source, const char *result_path,
+                        int left, int top, int width, int height, int angle,
+                        int exif_degrees, int exif_translation, int *result_rect,
+                        char *error, int error_size);
+
+#endif //UCROP_CROP_ENGINE_H
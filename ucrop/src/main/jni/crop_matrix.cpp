@@ -0,0 +1,73 @@
+//
+// Transform from pixels of the crop result to pixels of the stored source image.
+//
+
+#include <math.h>
+
+#include "crop_engine.h"
+
+/**
+ * Affine transform, the point (x, y) maps to (a * x + b * y + c, d * x + e * y + f).
+ */
+struct Affine {
+    double a, b, c, d, e, f;
+};
+
+/**
+ * Applies the transform {a, b, c, d, e, f} after the matrix, like android.graphics.Matrix.postConcat().
+ */
+static void post_concat(Affine *m, double a, double b, double c, double d, double e, double f) {
+    Affine r;
+    r.a = a * m->a + b * m->d;
+    r.b = a * m->b + b * m->e;
+    r.c = a * m->c + b * m->f + c;
+    r.d = d * m->a + e * m->d;
+    r.e = d * m->b + e * m->e;
+    r.f = d * m->c + e * m->f + f;
+    *m = r;
+}
+
+void crop_matrix(int image_width, int image_height, int exif_degrees, int exif_translation,
+                 float resize_scale, float angle, int left, int top, float *matrix) {
+    const bool swap_sides = exif_degrees == 90 || exif_degrees == 270;
+    const int oriented_width = swap_sides ? image_height : image_width;
+    const int oriented_height = swap_sides ? image_width : image_height;
+    const int resized_width = resize_scale != 1 ? (int) (oriented_width * resize_scale) : oriented_width;
+    const int resized_height = resize_scale != 1 ? (int) (oriented_height * resize_scale) : oriented_height;
+
+    const double radians = angle * M_PI / 180;
+    const double cos_a = cos(radians), sin_a = sin(radians);
+    const float rotated_width = (float) (resized_width * fabs(cos_a) + resized_height * fabs(sin_a));
+    const float rotated_height = (float) (resized_width * fabs(sin_a) + resized_height * fabs(cos_a));
+
+    // Result pixel relative to the center of the rotated image bounds
+    Affine m = {1, 0, left - rotated_width / 2, 0, 1, top - rotated_height / 2};
+    // Back to the resized image
+    post_concat(&m, cos_a, sin_a, resized_width / 2.0, -sin_a, cos_a, resized_height / 2.0);
+    // Back to the EXIF oriented image
+    post_concat(&m, oriented_width / (double) resized_width, 0, 0, 0, oriented_height / (double) resized_height, 0);
+    // Back to the stored image, which was rotated clockwise and then mirrored
+    if (exif_translation != 1) {
+        post_concat(&m, -1, 0, oriented_width - 1, 0, 1, 0);
+    }
+    switch (exif_degrees) {
+        case 90:
+            post_concat(&m, 0, 1, 0, -1, 0, image_height - 1);
+            break;
+        case 180:
+            post_concat(&m, -1, 0, image_width - 1, 0, -1, image_height - 1);
+            break;
+        case 270:
+            post_concat(&m, 0, -1, image_width - 1, 1, 0, 0);
+            break;
+        default:
+            break;
+    }
+
+    matrix[0] = (float) m.a;
+    matrix[1] = (float) m.b;
+    matrix[2] = (float) m.c;
+    matrix[3] = (float) m.d;
+    matrix[4] = (float) m.e;
+    matrix[5] = (float) m.f;
+}
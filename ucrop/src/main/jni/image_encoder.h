@@ -0,0 +1,83 @@
+//
+// Streaming encoders used by the native crop, the image is requested strip by strip
+// while it is written, so it is never held in memory at once.
+//
+
+#ifndef UCROP_IMAGE_ENCODER_H
+#define UCROP_IMAGE_ENCODER_H
+
+#include "image_io.h"
+
+/**
+ * Produces rows of the encoded image on demand.
+ */
+struct RowSource {
+    /**
+     * Fills rows [row_begin, row_end) of the image into {@code rows} as interleaved 8-bit samples.
+     *
+     * @return false to stop writing the image, it is discarded then
+     */
+    bool (*read)(void *arg, unsigned char *rows, int row_begin, int row_end);
+    void *arg;
+};
+
+/**
+ * Encodes JPEG file from rows with 1 to 4 components, alpha (2nd or 4th component) is dropped.
+ *
+ * @param strip_height - number of rows requested from the source at once
+ */
+bool jpeg_encode_rows(const ImageTarget *target, int width, int height, int components, int quality,
+                      const RowSource *source, int strip_height,
+                      char *error, int error_size);
+
+// Row filter types of PNG, adaptive picks one for every row.
+#define PNG_ROW_FILTER_NONE     0
+#define PNG_ROW_FILTER_SUB      1
+#define PNG_ROW_FILTER_UP       2
+#define PNG_ROW_FILTER_AVERAGE  3
+#define PNG_ROW_FILTER_PAETH    4
+#define PNG_ROW_FILTER_ADAPTIVE 5
+
+struct PngOptions {
+    // zlib compression level, 0 (store) to 9 (smallest)
+    int level;
+    // one of PNG_ROW_FILTER_* values
+    int filter;
+    // more than 1 deflates parts of every strip in parallel
+    int threads;
+};
+
+/**
+ * Encodes 8-bit PNG file from rows of gray, gray + alpha, RGB or RGBA samples.
+ *
+ * @param strip_height - number of rows requested from the source at once
+ */
+bool png_encode_rows(const ImageTarget *target, int width, int height, int components,
+                     const PngOptions *options, const RowSource *source, int strip_height,
+                     char *error, int error_size);
+
+/**
+ * Encodes lossy or lossless WebP file from rows of gray, gray + alpha, RGB or RGBA samples.
+ * Unlike the other encoders WebP needs the whole picture, which takes 4 bytes per pixel.
+ *
+ * @param quality      - 0 to 100, for lossless images higher quality spends more time on smaller file
+ * @param effort       - WebP method, 0 (fastest) to 6 (smallest file)
+ * @param strip_height - number of rows requested from the source at once
+ */
+bool webp_encode_rows(const ImageTarget *target, int width, int height, int components,
+                      int quality, bool lossless, int effort,
+                      const RowSource *source, int strip_height,
+                      char *error, int error_size);
+
+/**
+ * Writes rows of gray, gray + alpha, RGB or RGBA samples as premultiplied RGBA pixels,
+ * the layout of an ARGB_8888 android.graphics.Bitmap.
+ *
+ * @param stride       - distance between rows of {@code pixels} in bytes
+ * @param strip_height - number of rows requested from the source at once
+ */
+bool rgba_write_rows(unsigned char *pixels, int stride, int width, int height, int components,
+                     const RowSource *source, int strip_height,
+                     char *error, int error_size);
+
+#endif //UCROP_IMAGE_ENCODER_H
@@ -0,0 +1,114 @@
+//
+// Where the native crop reads the source image from and writes the result to.
+//
+
+#include <limits.h>
+#include <string.h>
+#include <unistd.h>
+
+#include "image_io.h"
+
+ImageSource image_source_from_path(const char *path) {
+    ImageSource source = {path, -1};
+    return source;
+}
+
+ImageSource image_source_from_fd(int fd) {
+    ImageSource source = {NULL, fd};
+    return source;
+}
+
+/**
+ * Duplicate shares the file offset with the descriptor, but can be closed along with its stream.
+ */
+static FILE *open_fd(int fd, const char *mode) {
+    if (lseek(fd, 0, SEEK_SET) != 0) {
+        return NULL;
+    }
+    const int copy = dup(fd);
+    if (copy < 0) {
+        return NULL;
+    }
+    FILE *file = fdopen(copy, mode);
+    if (file == NULL) {
+        close(copy);
+    }
+    return file;
+}
+
+FILE *image_source_open(const ImageSource *source) {
+    if (source->path != NULL) {
+        return fopen(source->path, "rb");
+    } else if (source->fd >= 0) {
+        return open_fd(source->fd, "rb");
+    }
+    return NULL;
+}
+
+const char *image_source_name(const ImageSource *source) {
+    if (source->path != NULL) {
+        return source->path;
+    }
+    return "file descriptor";
+}
+
+ImageTarget image_target_from_path(const char *path) {
+    ImageTarget target = {path, -1};
+    return target;
+}
+
+ImageTarget image_target_from_fd(int fd) {
+    ImageTarget target = {NULL, fd};
+    return target;
+}
+
+bool image_target_temp_path(const ImageTarget *target, char *buffer, size_t size) {
+    if (target->path == NULL) {
+        return false;
+    }
+    // Suffix goes before the extension, so CImg still recognizes the format by the name.
+    const char *name = strrchr(target->path, '/');
+    const char *extension = strrchr(name != NULL ? name : target->path, '.');
+    const int base_length = (int) (extension != NULL ? extension - target->path : strlen(target->path));
+    const int length = snprintf(buffer, size, "%.*s.tmp%s", base_length, target->path,
+                                extension != NULL ? extension : "");
+    return length >= 0 && (size_t) length < size;
+}
+
+FILE *image_target_open(const ImageTarget *target) {
+    if (target->path != NULL) {
+        char temp_path[PATH_MAX];
+        return image_target_temp_path(target, temp_path, sizeof(temp_path)) ? fopen(temp_path, "wb") : NULL;
+    } else if (target->fd >= 0 && ftruncate(target->fd, 0) == 0) {
+        return open_fd(target->fd, "wb");
+    }
+    return NULL;
+}
+
+bool image_target_finish(const ImageTarget *target, FILE *file) {
+    bool finished = file == NULL || fclose(file) == 0;
+    if (finished && target->path != NULL) {
+        char temp_path[PATH_MAX];
+        finished = image_target_temp_path(target, temp_path, sizeof(temp_path))
+                   && rename(temp_path, target->path) == 0;
+    }
+    if (!finished) {
+        image_target_discard(target);
+    }
+    return finished;
+}
+
+void image_target_discard(const ImageTarget *target) {
+    if (target->path != NULL) {
+        char temp_path[PATH_MAX];
+        if (image_target_temp_path(target, temp_path, sizeof(temp_path))) {
+            remove(temp_path);
+        }
+    } else if (target->fd >= 0) {
+        ftruncate(target->fd, 0);
+    }
+}
+
+const char *image_target_name(const ImageTarget *target) {
+    return target->path != NULL ? target->path : "file descriptor";
+}
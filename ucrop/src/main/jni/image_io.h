@@ -0,0 +1,84 @@
+//
+// Where the native crop reads the source image from and writes the result to.
+//
+
+#ifndef UCROP_IMAGE_IO_H
+#define UCROP_IMAGE_IO_H
+
+#include <stdio.h>
+#include <stddef.h>
+
+/**
+ * Encoded source image, either a file path or an open file descriptor.
+ * Every open starts reading from the beginning, so a source can be opened several times, but not concurrently.
+ */
+struct ImageSource {
+    const char *path;
+    int fd;
+};
+
+/**
+ * Result file, either a path or an open, writable and seekable file descriptor.
+ */
+struct ImageTarget {
+    const char *path;
+    int fd;
+};
+
+ImageSource image_source_from_path(const char *path);
+
+/**
+ * The descriptor stays owned by the caller, it must be seekable (a regular file, not a pipe).
+ */
+ImageSource image_source_from_fd(int fd);
+
+/**
+ * Opens the source for reading from its beginning, returns NULL on failure.
+ */
+FILE *image_source_open(const ImageSource *source);
+
+/**
+ * Describes the source in error messages.
+ */
+const char *image_source_name(const ImageSource *source);
+
+/**
+ * The result is written to a temporary file next to the path and renamed when complete,
+ * so the path can be the source itself and it is kept if the crop fails.
+ */
+ImageTarget image_target_from_path(const char *path);
+
+/**
+ * The descriptor stays owned by the caller, the file is truncated when opened.
+ */
+ImageTarget image_target_from_fd(int fd);
+
+/**
+ * Opens the target for writing from its beginning, returns NULL on failure.
+ */
+FILE *image_target_open(const ImageTarget *target);
+
+/**
+ * Temporary file of a path target, it has the extension of the path.
+ *
+ * @return false if the target isn't a path or the name doesn't fit into the buffer
+ */
+bool image_target_temp_path(const ImageTarget *target, char *buffer, size_t size);
+
+/**
+ * Closes the file opened by image_target_open() and moves a complete result to the path of the target.
+ * File can be NULL if the temporary file was written otherwise. On failure the result is discarded.
+ */
+bool image_target_finish(const ImageTarget *target, FILE *file);
+
+/**
+ * Removes a partially written result, the temporary file is removed or the descriptor is truncated.
+ */
+void image_target_discard(const ImageTarget *target);
+
+/**
+ * Describes the target in error messages.
+ */
+const char *image_target_name(const ImageTarget *target);
+
+#endif //UCROP_IMAGE_IO_H
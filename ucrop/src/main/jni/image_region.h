@@ -0,0 +1,12 @@
+//
+// Rectangular part of an image decoded by the native crop.
+//
+
+#ifndef UCROP_IMAGE_REGION_H
+#define UCROP_IMAGE_REGION_H
+
+struct ImageRegion {
+    int x, y, width, height;
+};
+
+#endif //UCROP_IMAGE_REGION_H
@@ -0,0 +1,43 @@
+//
+// Helpers shared by the libjpeg based parts of the native crop.
+//
+
+#ifndef UCROP_JPEG_COMMON_H
+#define UCROP_JPEG_COMMON_H
+
+#include <stdio.h>
+#include <setjmp.h>
+
+extern "C" {
+#include "jpeglib.h"
+}
+
+/**
+ * libjpeg calls exit() on errors by default, this one returns control to the setjmp point.
+ */
+struct JpegErrorManager {
+    struct jpeg_error_mgr pub;
+    jmp_buf setjmp_buffer;
+    char message[JMSG_LENGTH_MAX];
+};
+
+static void jpeg_error_exit(j_common_ptr cinfo) {
+    JpegErrorManager *err = (JpegErrorManager *) cinfo->err;
+    (*cinfo->err->format_message)(cinfo, err->message);
+    longjmp(err->setjmp_buffer, 1);
+}
+
+static inline void jpeg_init_error_manager(JpegErrorManager *err) {
+    jpeg_std_error(&err->pub);
+    err->pub.error_exit = jpeg_error_exit;
+    err->message[0] = 0;
+}
+
+static inline bool jpeg_has_signature(FILE *file) {
+    unsigned char signature[2] = {0, 0};
+    bool result = fread(signature, 1, 2, file) == 2 && signature[0] == 0xFF && signature[1] == 0xD8;
+    rewind(file);
+    return result;
+}
+
+#endif //UCROP_JPEG_COMMON_H
@@ -0,0 +1,103 @@
+//
+// Streaming JPEG encoder used by the native crop.
+//
+
+#include <stdlib.h>
+#include <string.h>
+
+#include "jpeg_common.h"
+#include "image_encoder.h"
+
+bool jpeg_encode_rows(const ImageTarget *target, int width, int height, int components, int quality,
+                      const RowSource *source, int strip_height,
+                      char *error, int error_size) {
+    FILE *file = image_target_open(target);
+    if (file == NULL) {
+        snprintf(error, error_size, "Failed to open file '%s'", image_target_name(target));
+        return false;
+    }
+
+    // Gray + alpha is written as gray, RGBA as RGB.
+    const int out_components = components < 3 ? 1 : 3;
+    const size_t stride = (size_t) width * components;
+
+    struct jpeg_compress_struct cinfo;
+    JpegErrorManager jerr;
+    jpeg_init_error_manager(&jerr);
+    cinfo.err = &jerr.pub;
+
+    // Must be volatile, otherwise their values are undefined after longjmp().
+    unsigned char *volatile strip = NULL;
+    unsigned char *volatile row = NULL;
+
+    if (setjmp(jerr.setjmp_buffer)) {
+        snprintf(error, error_size, "%s", jerr.message);
+        jpeg_destroy_compress(&cinfo);
+        fclose(file);
+        image_target_discard(target);
+        free(strip);
+        free(row);
+        return false;
+    }
+
+    jpeg_create_compress(&cinfo);
+    jpeg_stdio_dest(&cinfo, file);
+    cinfo.image_width = (JDIMENSION) width;
+    cinfo.image_height = (JDIMENSION) height;
+    cinfo.input_components = out_components;
+    cinfo.in_color_space = out_components == 1 ? JCS_GRAYSCALE : JCS_RGB;
+    jpeg_set_defaults(&cinfo);
+    jpeg_set_quality(&cinfo, quality < 0 ? 0 : quality > 100 ? 100 : quality, TRUE);
+
+    strip = (unsigned char *) malloc(stride * strip_height);
+    if (out_components != components) {
+        row = (unsigned char *) malloc((size_t) width * out_components);
+    }
+    if (strip == NULL || (out_components != components && row == NULL)) {
+        snprintf(error, error_size, "Failed to allocate %dx%d strip", width, strip_height);
+        jpeg_destroy_compress(&cinfo);
+        fclose(file);
+        image_target_discard(target);
+        free(strip);
+        free(row);
+        return false;
+    }
+
+    jpeg_start_compress(&cinfo, TRUE);
+    for (int strip_begin = 0; strip_begin < height; strip_begin += strip_height) {
+        const int strip_end = strip_begin + strip_height < height ? strip_begin + strip_height : height;
+        if (!source->read(source->arg, strip, strip_begin, strip_end)) {
+            snprintf(error, error_size, "Cancelled");
+            jpeg_destroy_compress(&cinfo);
+            fclose(file);
+            image_target_discard(target);
+            free(strip);
+            free(row);
+            return false;
+        }
+        for (int y = strip_begin; y < strip_end; y++) {
+            JSAMPROW row_pointer = strip + (size_t) (y - strip_begin) * stride;
+            if (row != NULL) {
+                const unsigned char *ptrs = row_pointer;
+                unsigned char *ptrd = row;
+                for (int x = 0; x < width; x++, ptrs += components) {
+                    for (int c = 0; c < out_components; c++) {
+                        *(ptrd++) = ptrs[c];
+                    }
+                }
+                row_pointer = row;
+            }
+            jpeg_write_scanlines(&cinfo, &row_pointer, 1);
+        }
+    }
+    jpeg_finish_compress(&cinfo);
+    jpeg_destroy_compress(&cinfo);
+    free(strip);
+    free(row);
+
+    if (!image_target_finish(target, file)) {
+        snprintf(error, error_size, "Failed to write file '%s'", image_target_name(target));
+        return false;
+    }
+    return true;
+}
@@ -0,0 +1,161 @@
+//
+// Region-of-interest JPEG decoding used by the native crop.
+//
+
+#include <stdlib.h>
+#include <string.h>
+
+#include "jpeg_common.h"
+#include "jpeg_region.h"
+
+// jpeg_crop_scanline() and jpeg_skip_scanlines() are available since libjpeg-turbo 1.5.
+#if !defined(UCROP_JPEG_SKIP_SCANLINES) && defined(LIBJPEG_TURBO_VERSION_NUMBER)
+#if LIBJPEG_TURBO_VERSION_NUMBER >= 1005000
+#define UCROP_JPEG_SKIP_SCANLINES
+#endif
+#endif
+
+static bool is_supported_color_space(J_COLOR_SPACE color_space) {
+    return color_space == JCS_GRAYSCALE || color_space == JCS_YCbCr || color_space == JCS_RGB;
+}
+
+bool jpeg_read_info(const ImageSource *source, int *width, int *height, int *components) {
+    FILE *file = image_source_open(source);
+    if (file == NULL) {
+        return false;
+    }
+    if (!jpeg_has_signature(file)) {
+        fclose(file);
+        return false;
+    }
+
+    struct jpeg_decompress_struct cinfo;
+    JpegErrorManager jerr;
+    jpeg_init_error_manager(&jerr);
+    cinfo.err = &jerr.pub;
+
+    if (setjmp(jerr.setjmp_buffer)) {
+        jpeg_destroy_decompress(&cinfo);
+        fclose(file);
+        return false;
+    }
+
+    jpeg_create_decompress(&cinfo);
+    jpeg_stdio_src(&cinfo, file);
+    jpeg_read_header(&cinfo, TRUE);
+
+    bool supported = is_supported_color_space(cinfo.jpeg_color_space);
+    *width = cinfo.image_width;
+    *height = cinfo.image_height;
+    *components = cinfo.jpeg_color_space == JCS_GRAYSCALE ? 1 : 3;
+
+    jpeg_destroy_decompress(&cinfo);
+    fclose(file);
+    return supported;
+}
+
+bool jpeg_decode_region(const ImageSource *source, int scale_denom, ImageRegion *region,
+                        unsigned char **pixels, int *components,
+                        char *error, int error_size) {
+    *pixels = NULL;
+
+    FILE *file = image_source_open(source);
+    if (file == NULL) {
+        snprintf(error, error_size, "Failed to open file '%s'", image_source_name(source));
+        return false;
+    }
+
+    struct jpeg_decompress_struct cinfo;
+    JpegErrorManager jerr;
+    jpeg_init_error_manager(&jerr);
+    cinfo.err = &jerr.pub;
+
+    // Must be volatile, otherwise their values are undefined after longjmp().
+    unsigned char *volatile result = NULL;
+    unsigned char *volatile row = NULL;
+
+    if (setjmp(jerr.setjmp_buffer)) {
+        snprintf(error, error_size, "%s", jerr.message);
+        jpeg_destroy_decompress(&cinfo);
+        fclose(file);
+        free(result);
+        free(row);
+        return false;
+    }
+
+    jpeg_create_decompress(&cinfo);
+    jpeg_stdio_src(&cinfo, file);
+    jpeg_read_header(&cinfo, TRUE);
+    cinfo.out_color_space = cinfo.jpeg_color_space == JCS_GRAYSCALE ? JCS_GRAYSCALE : JCS_RGB;
+    cinfo.scale_num = 1;
+    cinfo.scale_denom = (unsigned int) scale_denom;
+    jpeg_start_decompress(&cinfo);
+
+    const int image_width = cinfo.output_width, image_height = cinfo.output_height;
+    const int channels = cinfo.output_components;
+
+    int x0 = region->x < 0 ? 0 : region->x;
+    int y0 = region->y < 0 ? 0 : region->y;
+    int x1 = region->x + region->width > image_width ? image_width : region->x + region->width;
+    int y1 = region->y + region->height > image_height ? image_height : region->y + region->height;
+    if (x1 <= x0 || y1 <= y0) {
+        x0 = y0 = 0;
+        x1 = image_width;
+        y1 = image_height;
+    }
+
+#ifdef UCROP_JPEG_SKIP_SCANLINES
+    // Columns outside the crop skip IDCT, upsampling and color conversion.
+    // Offset and width are adjusted by libjpeg to the iMCU boundaries.
+    JDIMENSION crop_x = (JDIMENSION) x0, crop_width = (JDIMENSION) (x1 - x0);
+    jpeg_crop_scanline(&cinfo, &crop_x, &crop_width);
+    // Row offset inside the cropped scanline, output_width is the cropped width now.
+    const int row_x = 0, row_width = cinfo.output_width;
+    x0 = crop_x;
+    x1 = crop_x + crop_width;
+    if (y0 > 0) {
+        jpeg_skip_scanlines(&cinfo, (JDIMENSION) y0);
+    }
+#else
+    const int row_x = x0, row_width = image_width;
+#endif
+
+    const int region_width = x1 - x0, region_height = y1 - y0;
+    const size_t region_stride = (size_t) region_width * channels;
+
+    result = (unsigned char *) malloc(region_stride * region_height);
+    row = (unsigned char *) malloc((size_t) row_width * channels);
+    if (result == NULL || row == NULL) {
+        snprintf(error, error_size, "Failed to allocate %dx%d region", region_width, region_height);
+        jpeg_destroy_decompress(&cinfo);
+        fclose(file);
+        free(result);
+        free(row);
+        return false;
+    }
+
+    JSAMPROW row_pointer[1] = {row};
+    while ((int) cinfo.output_scanline < y1) {
+        const int y = cinfo.output_scanline;
+        if (jpeg_read_scanlines(&cinfo, row_pointer, 1) != 1) {
+            break;
+        }
+        if (y >= y0) {
+            memcpy(result + (size_t) (y - y0) * region_stride, row + (size_t) row_x * channels, region_stride);
+        }
+    }
+
+    // Rows below the region are never decoded.
+    jpeg_abort_decompress(&cinfo);
+    jpeg_destroy_decompress(&cinfo);
+    fclose(file);
+    free(row);
+
+    region->x = x0;
+    region->y = y0;
+    region->width = region_width;
+    region->height = region_height;
+    *pixels = result;
+    *components = channels;
+    return true;
+}
@@ -0,0 +1,31 @@
+//
+// Region-of-interest JPEG decoding used by the native crop.
+//
+
+#ifndef UCROP_JPEG_REGION_H
+#define UCROP_JPEG_REGION_H
+
+#include "image_io.h"
+#include "image_region.h"
+
+/**
+ * Reads JPEG header of the file. Returns false if file is not a JPEG or has
+ * a color space that cannot be decoded to 8-bit gray/RGB (e.g. CMYK).
+ */
+bool jpeg_read_info(const ImageSource *source, int *width, int *height, int *components);
+
+/**
+ * Decodes only given region of a JPEG file into interleaved 8-bit pixels (gray or RGB).
+ * Rows above and below the region are skipped without IDCT/color conversion, columns are
+ * cropped to the iMCU grid, so the region can be expanded to the left and right -
+ * actual decoded region is written back to {@code region}.
+ * Returned buffer must be released with {@code free()}.
+ *
+ * @param scale_denom - image is downscaled by 1/scale_denom (1, 2, 4 or 8) during IDCT,
+ *                      region is given in coordinates of the downscaled image
+ */
+bool jpeg_decode_region(const ImageSource *source, int scale_denom, ImageRegion *region,
+                        unsigned char **pixels, int *components,
+                        char *error, int error_size);
+
+#endif //UCROP_JPEG_REGION_H
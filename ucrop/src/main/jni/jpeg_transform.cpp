@@ -0,0 +1,235 @@
+//
+// Lossless (DCT domain) crop and right angle transform of JPEG files.
+//
+
+#include <stdlib.h>
+#include <string.h>
+
+#include "jpeg_common.h"
+#include "jpeg_transform.h"
+
+static int round_up(int value, int multiple) {
+    return (value + multiple - 1) / multiple * multiple;
+}
+
+static int div_round_up(int value, int divisor) {
+    return (value + divisor - 1) / divisor;
+}
+
+/**
+ * Moves the edge of one region axis that becomes origin of the result onto the iMCU grid,
+ * blocks crossing it can't be split without decoding them. Like {@code jpegtran -crop}, the start
+ * moves back and the region grows by the fringe. Mirrored axes start at the end instead, it moves forward
+ * unless that passes the image edge, then the partial iMCU is trimmed like {@code jpegtran -trim} does.
+ *
+ * @return false if nothing is left of the axis
+ */
+static bool snap_axis(int *start, int *length, int size, int imcu, bool flip) {
+    if (flip) {
+        const int end = *start + *length;
+        const int snapped = div_round_up(end, imcu) * imcu;
+        *length = (snapped <= size ? snapped : end / imcu * imcu) - *start;
+    } else {
+        const int snapped = *start / imcu * imcu;
+        *length += *start - snapped;
+        *start = snapped;
+    }
+    return *length > 0;
+}
+
+/**
+ * Coefficient k of a transformed block equals {@code sign[k] * source[index[k]]}.
+ * Transposition swaps horizontal and vertical frequencies,
+ * mirroring negates coefficients with odd frequency along the mirrored axis.
+ */
+static void build_block_transform(const JpegTransform *transform, int index[DCTSIZE2], int sign[DCTSIZE2]) {
+    for (int v = 0; v < DCTSIZE; v++) {
+        for (int u = 0; u < DCTSIZE; u++) {
+            const int k = v * DCTSIZE + u;
+            // Source horizontal and vertical frequency of the coefficient.
+            const int su = transform->transpose ? v : u, sv = transform->transpose ? u : v;
+            index[k] = sv * DCTSIZE + su;
+            sign[k] = ((transform->flip_x && (su & 1)) != (transform->flip_y && (sv & 1))) ? -1 : 1;
+        }
+    }
+}
+
+bool jpeg_transform_region(const ImageSource *source, const char *dst_path,
+                           const JpegTransform *transform, ImageRegion *region,
+                           char *error, int error_size) {
+    FILE *input = image_source_open(source);
+    if (input == NULL) {
+        snprintf(error, error_size, "Failed to open file '%s'", image_source_name(source));
+        return false;
+    }
+    if (!jpeg_has_signature(input)) {
+        snprintf(error, error_size, "Not a JPEG file '%s'", image_source_name(source));
+        fclose(input);
+        return false;
+    }
+
+    // Result is written next to the destination and renamed when complete,
+    // so the source is never truncated if it is the same file.
+    const ImageTarget target = image_target_from_path(dst_path);
+
+    struct jpeg_decompress_struct src;
+    struct jpeg_compress_struct dst;
+    JpegErrorManager jerr;
+    jpeg_init_error_manager(&jerr);
+    src.err = &jerr.pub;
+    dst.err = &jerr.pub;
+
+    // Must be volatile, otherwise their values are undefined after longjmp().
+    FILE *volatile output = NULL;
+    volatile bool dst_created = false;
+
+    if (setjmp(jerr.setjmp_buffer)) {
+        snprintf(error, error_size, "%s", jerr.message);
+        if (dst_created) {
+            jpeg_destroy_compress(&dst);
+        }
+        jpeg_destroy_decompress(&src);
+        fclose(input);
+        if (output != NULL) {
+            fclose(output);
+            image_target_discard(&target);
+        }
+        return false;
+    }
+
+    jpeg_create_decompress(&src);
+    jpeg_stdio_src(&src, input);
+    jpeg_read_header(&src, TRUE);
+
+    const int image_width = src.image_width, image_height = src.image_height;
+    const int imcu_width = src.max_h_samp_factor * DCTSIZE, imcu_height = src.max_v_samp_factor * DCTSIZE;
+
+    int x = region->x < 0 ? 0 : region->x, y = region->y < 0 ? 0 : region->y;
+    int width = x + region->width > image_width ? image_width - x : region->width;
+    int height = y + region->height > image_height ? image_height - y : region->height;
+    if (!snap_axis(&x, &width, image_width, imcu_width, transform->flip_x)
+        || !snap_axis(&y, &height, image_height, imcu_height, transform->flip_y)) {
+        snprintf(error, error_size, "Region %d,%d %dx%d is smaller than the %dx%d iMCU",
+                 region->x, region->y, region->width, region->height, imcu_width, imcu_height);
+        jpeg_destroy_decompress(&src);
+        fclose(input);
+        return false;
+    }
+
+    const bool transpose = transform->transpose;
+    const int dst_width = transpose ? height : width, dst_height = transpose ? width : height;
+    const int dst_max_h = transpose ? src.max_v_samp_factor : src.max_h_samp_factor;
+    const int dst_max_v = transpose ? src.max_h_samp_factor : src.max_v_samp_factor;
+
+    // Result coefficients, must be requested before jpeg_read_coefficients() realizes virtual arrays.
+    jvirt_barray_ptr *dst_coefs = (jvirt_barray_ptr *) (*src.mem->alloc_small)(
+            (j_common_ptr) &src, JPOOL_IMAGE, sizeof(jvirt_barray_ptr) * src.num_components);
+    for (int c = 0; c < src.num_components; c++) {
+        const jpeg_component_info *comp = src.comp_info + c;
+        const int h_samp = transpose ? comp->v_samp_factor : comp->h_samp_factor;
+        const int v_samp = transpose ? comp->h_samp_factor : comp->v_samp_factor;
+        const int width_in_blocks = div_round_up(dst_width * h_samp, dst_max_h * DCTSIZE);
+        const int height_in_blocks = div_round_up(dst_height * v_samp, dst_max_v * DCTSIZE);
+        dst_coefs[c] = (*src.mem->request_virt_barray)(
+                (j_common_ptr) &src, JPOOL_IMAGE, TRUE,
+                (JDIMENSION) round_up(width_in_blocks, h_samp),
+                (JDIMENSION) round_up(height_in_blocks, v_samp),
+                (JDIMENSION) v_samp);
+    }
+
+    jvirt_barray_ptr *src_coefs = jpeg_read_coefficients(&src);
+
+    int coef_index[DCTSIZE2], coef_sign[DCTSIZE2];
+    build_block_transform(transform, coef_index, coef_sign);
+
+    for (int c = 0; c < src.num_components; c++) {
+        const jpeg_component_info *comp = src.comp_info + c;
+        const int src_blocks_x = round_up(comp->width_in_blocks, comp->h_samp_factor);
+        const int src_blocks_y = round_up(comp->height_in_blocks, comp->v_samp_factor);
+        // Aligned edges of the region in blocks of this component.
+        const int block_x0 = x / imcu_width * comp->h_samp_factor;
+        const int block_y0 = y / imcu_height * comp->v_samp_factor;
+        const int block_x1 = (x + width) / imcu_width * comp->h_samp_factor;
+        const int block_y1 = (y + height) / imcu_height * comp->v_samp_factor;
+
+        const int h_samp = transpose ? comp->v_samp_factor : comp->h_samp_factor;
+        const int v_samp = transpose ? comp->h_samp_factor : comp->v_samp_factor;
+        const int dst_blocks_x = round_up(div_round_up(dst_width * h_samp, dst_max_h * DCTSIZE), h_samp);
+        const int dst_blocks_y = round_up(div_round_up(dst_height * v_samp, dst_max_v * DCTSIZE), v_samp);
+
+        for (int dy = 0; dy < dst_blocks_y; dy++) {
+            JBLOCKROW dst_row = (*src.mem->access_virt_barray)(
+                    (j_common_ptr) &src, dst_coefs[c], (JDIMENSION) dy, 1, TRUE)[0];
+            for (int dx = 0; dx < dst_blocks_x; dx++) {
+                const int tx = transpose ? dy : dx, ty = transpose ? dx : dy;
+                const int sx = transform->flip_x ? block_x1 - 1 - tx : block_x0 + tx;
+                const int sy = transform->flip_y ? block_y1 - 1 - ty : block_y0 + ty;
+                JCOEF *dst_block = dst_row[dx];
+                if (sx < 0 || sx >= src_blocks_x || sy < 0 || sy >= src_blocks_y) {
+                    // Padding block outside of the source image.
+                    memset(dst_block, 0, sizeof(JBLOCK));
+                    continue;
+                }
+                const JCOEF *src_block = (*src.mem->access_virt_barray)(
+                        (j_common_ptr) &src, src_coefs[c], (JDIMENSION) sy, 1, FALSE)[0][sx];
+                for (int k = 0; k < DCTSIZE2; k++) {
+                    dst_block[k] = (JCOEF) (coef_sign[k] * src_block[coef_index[k]]);
+                }
+            }
+        }
+    }
+
+    output = image_target_open(&target);
+    if (output == NULL) {
+        snprintf(error, error_size, "Failed to open file '%s'", dst_path);
+        jpeg_destroy_decompress(&src);
+        fclose(input);
+        return false;
+    }
+
+    jpeg_create_compress(&dst);
+    dst_created = true;
+    jpeg_copy_critical_parameters(&src, &dst);
+    dst.image_width = (JDIMENSION) dst_width;
+    dst.image_height = (JDIMENSION) dst_height;
+    if (transpose) {
+        for (int c = 0; c < dst.num_components; c++) {
+            jpeg_component_info *comp = dst.comp_info + c;
+            const int h_samp = comp->h_samp_factor;
+            comp->h_samp_factor = comp->v_samp_factor;
+            comp->v_samp_factor = h_samp;
+        }
+        for (int t = 0; t < NUM_QUANT_TBLS; t++) {
+            JQUANT_TBL *table = dst.quant_tbl_ptrs[t];
+            if (table == NULL) continue;
+            for (int v = 0; v < DCTSIZE; v++) {
+                for (int u = v + 1; u < DCTSIZE; u++) {
+                    const UINT16 value = table->quantval[v * DCTSIZE + u];
+                    table->quantval[v * DCTSIZE + u] = table->quantval[u * DCTSIZE + v];
+                    table->quantval[u * DCTSIZE + v] = value;
+                }
+            }
+        }
+    }
+    dst.optimize_coding = TRUE;
+    jpeg_stdio_dest(&dst, output);
+    jpeg_write_coefficients(&dst, dst_coefs);
+    jpeg_finish_compress(&dst);
+    jpeg_destroy_compress(&dst);
+    dst_created = false;
+
+    // Coefficient arrays belong to the source, so it's released last.
+    jpeg_destroy_decompress(&src);
+    fclose(input);
+
+    const bool written = image_target_finish(&target, output);
+    if (!written) {
+        snprintf(error, error_size, "Failed to write file '%s'", dst_path);
+    }
+
+    region->x = x;
+    region->y = y;
+    region->width = width;
+    region->height = height;
+    return written;
+}
@@ -0,0 +1,34 @@
+//
+// Lossless (DCT domain) crop and right angle transform of JPEG files.
+//
+
+#ifndef UCROP_JPEG_TRANSFORM_H
+#define UCROP_JPEG_TRANSFORM_H
+
+#include "jpeg_region.h"
+
+/**
+ * Describes how a pixel of the result maps to the source image region:
+ * coordinates are swapped first if {@code transpose} is set, then flipped along the source axes.
+ */
+struct JpegTransform {
+    bool transpose;
+    bool flip_x, flip_y;
+};
+
+/**
+ * Crops given region of the source JPEG and applies the transform to its DCT coefficients,
+ * no pixels are decoded or re-encoded, so there is no generation loss.
+ * <p/>
+ * Edge of the region that becomes the top-left corner of the result is moved onto the iMCU grid
+ * (like {@code jpegtran -crop}), the region grows by up to one iMCU less a pixel on that side, or a partial
+ * iMCU at a mirrored image edge is trimmed. If nothing is left, nothing is written and false is returned,
+ * so the caller can crop the region by sampling instead.
+ * Region clipped to the image and snapped to the grid is written back to {@code region}.
+ * Source can be the same file as the destination path.
+ */
+bool jpeg_transform_region(const ImageSource *source, const char *dst_path,
+                           const JpegTransform *transform, ImageRegion *region,
+                           char *error, int error_size);
+
+#endif //UCROP_JPEG_TRANSFORM_H
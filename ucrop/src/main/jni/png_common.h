@@ -0,0 +1,32 @@
+//
+// Helpers shared by the libpng based parts of the native crop.
+//
+
+#ifndef UCROP_PNG_COMMON_H
+#define UCROP_PNG_COMMON_H
+
+#include <stdio.h>
+#include <setjmp.h>
+
+#include "png.h"
+
+#define PNG_SIGNATURE_SIZE 8
+#define PNG_MESSAGE_SIZE 200
+
+/**
+ * libpng aborts on errors unless the error handler jumps back, message is kept for the caller.
+ */
+struct PngErrorManager {
+    char message[PNG_MESSAGE_SIZE];
+};
+
+static void png_error_exit(png_structp png, png_const_charp message) {
+    PngErrorManager *err = (PngErrorManager *) png_get_error_ptr(png);
+    snprintf(err->message, sizeof(err->message), "%s", message);
+    longjmp(png_jmpbuf(png), 1);
+}
+
+static void png_warning_ignore(png_structp png, png_const_charp message) {
+}
+
+#endif //UCROP_PNG_COMMON_H
@@ -0,0 +1,118 @@
+//
+// Streaming PNG encoder used by the native crop.
+//
+
+#include <stdlib.h>
+
+#include "png_common.h"
+#include "png_parallel.h"
+
+static int color_type_of(int components) {
+    switch (components) {
+        case 1:
+            return PNG_COLOR_TYPE_GRAY;
+        case 2:
+            return PNG_COLOR_TYPE_GRAY_ALPHA;
+        case 3:
+            return PNG_COLOR_TYPE_RGB;
+        default:
+            return PNG_COLOR_TYPE_RGB_ALPHA;
+    }
+}
+
+static int filter_mask_of(int filter) {
+    switch (filter) {
+        case PNG_ROW_FILTER_NONE:
+            return PNG_FILTER_NONE;
+        case PNG_ROW_FILTER_SUB:
+            return PNG_FILTER_SUB;
+        case PNG_ROW_FILTER_UP:
+            return PNG_FILTER_UP;
+        case PNG_ROW_FILTER_AVERAGE:
+            return PNG_FILTER_AVG;
+        case PNG_ROW_FILTER_PAETH:
+            return PNG_FILTER_PAETH;
+        default:
+            return PNG_ALL_FILTERS;
+    }
+}
+
+bool png_encode_rows(const ImageTarget *target, int width, int height, int components,
+                     const PngOptions *options, const RowSource *source, int strip_height,
+                     char *error, int error_size) {
+    if (options->threads > 1) {
+        return png_encode_rows_parallel(target, width, height, components, color_type_of(components),
+                                        options, source, strip_height, error, error_size);
+    }
+
+    FILE *file = image_target_open(target);
+    if (file == NULL) {
+        snprintf(error, error_size, "Failed to open file '%s'", image_target_name(target));
+        return false;
+    }
+
+    PngErrorManager err;
+    err.message[0] = 0;
+    png_structp png = png_create_write_struct(PNG_LIBPNG_VER_STRING, &err, png_error_exit, png_warning_ignore);
+    png_infop info = png == NULL ? NULL : png_create_info_struct(png);
+    if (info == NULL) {
+        snprintf(error, error_size, "Failed to create PNG encoder");
+        png_destroy_write_struct(&png, NULL);
+        fclose(file);
+        image_target_discard(target);
+        return false;
+    }
+
+    const size_t stride = (size_t) width * components;
+
+    // Must be volatile, otherwise its value is undefined after longjmp().
+    unsigned char *volatile strip = NULL;
+
+    if (setjmp(png_jmpbuf(png))) {
+        snprintf(error, error_size, "%s", err.message);
+        png_destroy_write_struct(&png, &info);
+        fclose(file);
+        image_target_discard(target);
+        free(strip);
+        return false;
+    }
+
+    strip = (unsigned char *) malloc(stride * strip_height);
+    if (strip == NULL) {
+        snprintf(error, error_size, "Failed to allocate %dx%d strip", width, strip_height);
+        png_destroy_write_struct(&png, &info);
+        fclose(file);
+        image_target_discard(target);
+        return false;
+    }
+
+    png_init_io(png, file);
+    png_set_compression_level(png, options->level < 0 ? 0 : options->level > 9 ? 9 : options->level);
+    png_set_filter(png, PNG_FILTER_TYPE_BASE, filter_mask_of(options->filter));
+    png_set_IHDR(png, info, (png_uint_32) width, (png_uint_32) height, 8, color_type_of(components),
+                 PNG_INTERLACE_NONE, PNG_COMPRESSION_TYPE_DEFAULT, PNG_FILTER_TYPE_DEFAULT);
+    png_write_info(png, info);
+    for (int strip_begin = 0; strip_begin < height; strip_begin += strip_height) {
+        const int strip_end = strip_begin + strip_height < height ? strip_begin + strip_height : height;
+        if (!source->read(source->arg, strip, strip_begin, strip_end)) {
+            snprintf(error, error_size, "Cancelled");
+            png_destroy_write_struct(&png, &info);
+            fclose(file);
+            image_target_discard(target);
+            free(strip);
+            return false;
+        }
+        for (int y = strip_begin; y < strip_end; y++) {
+            png_write_row(png, strip + (size_t) (y - strip_begin) * stride);
+        }
+    }
+    png_write_end(png, info);
+    png_destroy_write_struct(&png, &info);
+    free(strip);
+
+    if (!image_target_finish(target, file)) {
+        snprintf(error, error_size, "Failed to write file '%s'", image_target_name(target));
+        return false;
+    }
+    return true;
+}
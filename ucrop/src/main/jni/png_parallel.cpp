@@ -0,0 +1,327 @@
+//
+// PNG encoder that filters and deflates parts of every strip on several threads.
+//
+
+#include <stdlib.h>
+#include <string.h>
+#include <pthread.h>
+#include <zlib.h>
+
+#include "png_parallel.h"
+
+// Deflate can refer back at most this far, every part is primed with the data preceding it.
+#define DEFLATE_WINDOW 32768
+// Room for the empty stored block written by the sync flush.
+#define FLUSH_MARGIN 64
+
+static const unsigned char PNG_SIGNATURE[8] = {137, 80, 78, 71, 13, 10, 26, 10};
+
+/**
+ * Rows of a strip filtered and deflated by one thread. Parts of a strip are concatenated
+ * into a single zlib stream, all but the last part of the image end with a sync flush.
+ */
+struct DeflatePart {
+    const unsigned char *rows;      // raw rows, the row above the first one precedes them
+    unsigned char *filtered;        // filter type byte and filtered samples of every row
+    int row_count, stride, bpp, filter, level;
+    const unsigned char *dictionary;
+    int dictionary_size;
+    bool last;
+    unsigned char *out;
+    size_t out_size;
+    bool failed;
+};
+
+static void put_uint32(unsigned char *dst, unsigned long value) {
+    dst[0] = (unsigned char) (value >> 24);
+    dst[1] = (unsigned char) (value >> 16);
+    dst[2] = (unsigned char) (value >> 8);
+    dst[3] = (unsigned char) value;
+}
+
+static void write_chunk(FILE *file, const char *type, const unsigned char *data, size_t size) {
+    unsigned char header[8];
+    put_uint32(header, size);
+    memcpy(header + 4, type, 4);
+    uLong checksum = crc32(0, header + 4, 4);
+    if (size > 0) {
+        // zlib returns 0 for a NULL buffer instead of the checksum so far.
+        checksum = crc32(checksum, data, (uInt) size);
+    }
+    unsigned char crc[4];
+    put_uint32(crc, checksum);
+    fwrite(header, 1, sizeof(header), file);
+    fwrite(data, 1, size, file);
+    fwrite(crc, 1, sizeof(crc), file);
+}
+
+static int paeth(int a, int b, int c) {
+    const int p = a + b - c;
+    const int pa = abs(p - a), pb = abs(p - b), pc = abs(p - c);
+    return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+}
+
+static void filter_row(int type, const unsigned char *row, const unsigned char *up, int stride, int bpp,
+                       unsigned char *out) {
+    *(out++) = (unsigned char) type;
+    for (int i = 0; i < stride; i++) {
+        const int left = i >= bpp ? row[i - bpp] : 0, up_left = i >= bpp ? up[i - bpp] : 0;
+        int predictor;
+        switch (type) {
+            case PNG_ROW_FILTER_SUB:
+                predictor = left;
+                break;
+            case PNG_ROW_FILTER_UP:
+                predictor = up[i];
+                break;
+            case PNG_ROW_FILTER_AVERAGE:
+                predictor = (left + up[i]) >> 1;
+                break;
+            case PNG_ROW_FILTER_PAETH:
+                predictor = paeth(left, up[i], up_left);
+                break;
+            default:
+                predictor = 0;
+        }
+        out[i] = (unsigned char) (row[i] - predictor);
+    }
+}
+
+/**
+ * Sum of filtered samples as signed bytes, the smaller the better the row usually deflates.
+ */
+static unsigned long filter_cost(const unsigned char *filtered, int stride) {
+    unsigned long cost = 0;
+    for (int i = 1; i <= stride; i++) {
+        cost += filtered[i] < 128 ? filtered[i] : 256 - filtered[i];
+    }
+    return cost;
+}
+
+static void *filter_part(void *arg) {
+    DeflatePart *part = (DeflatePart *) arg;
+    const int stride = part->stride;
+    for (int y = 0; y < part->row_count; y++) {
+        const unsigned char *row = part->rows + (size_t) y * stride;
+        unsigned char *out = part->filtered + (size_t) y * (stride + 1);
+        if (part->filter != PNG_ROW_FILTER_ADAPTIVE) {
+            filter_row(part->filter, row, row - stride, stride, part->bpp, out);
+            continue;
+        }
+        // Same heuristic as libpng: type with the smallest sum of absolute differences.
+        unsigned long best_cost = 0;
+        int best_type = -1;
+        for (int type = PNG_ROW_FILTER_NONE; type <= PNG_ROW_FILTER_PAETH; type++) {
+            filter_row(type, row, row - stride, stride, part->bpp, out);
+            const unsigned long cost = filter_cost(out, stride);
+            if (best_type < 0 || cost < best_cost) {
+                best_cost = cost;
+                best_type = type;
+            }
+        }
+        if (best_type != PNG_ROW_FILTER_PAETH) {
+            filter_row(best_type, row, row - stride, stride, part->bpp, out);
+        }
+    }
+    return NULL;
+}
+
+static void *deflate_part(void *arg) {
+    DeflatePart *part = (DeflatePart *) arg;
+    part->failed = true;
+    z_stream stream;
+    memset(&stream, 0, sizeof(stream));
+    // Raw deflate, the zlib header and checksum are written once for the whole image.
+    if (deflateInit2(&stream, part->level, Z_DEFLATED, -15, 8,
+                     part->filter == PNG_ROW_FILTER_NONE ? Z_DEFAULT_STRATEGY : Z_FILTERED) != Z_OK) {
+        return NULL;
+    }
+    const size_t in_size = (size_t) part->row_count * (part->stride + 1);
+    const size_t capacity = deflateBound(&stream, (uLong) in_size) + FLUSH_MARGIN;
+    part->out = (unsigned char *) malloc(capacity);
+    if (part->out != NULL
+        && (part->dictionary_size == 0
+            || deflateSetDictionary(&stream, part->dictionary, (uInt) part->dictionary_size) == Z_OK)) {
+        stream.next_in = part->filtered;
+        stream.avail_in = (uInt) in_size;
+        stream.next_out = part->out;
+        stream.avail_out = (uInt) capacity;
+        const int result = deflate(&stream, part->last ? Z_FINISH : Z_SYNC_FLUSH);
+        part->failed = result != (part->last ? Z_STREAM_END : Z_OK) || stream.avail_in != 0;
+        part->out_size = capacity - stream.avail_out;
+    }
+    deflateEnd(&stream);
+    return NULL;
+}
+
+/**
+ * Runs the function for every part, the calling thread takes the first one.
+ * Parts of threads that failed to start are done inline.
+ */
+static void run_parts(void *(*run)(void *), DeflatePart *parts, int count, pthread_t *ids, bool *started) {
+    for (int i = 1; i < count; i++) {
+        started[i] = pthread_create(&ids[i], NULL, run, &parts[i]) == 0;
+    }
+    run(&parts[0]);
+    for (int i = 1; i < count; i++) {
+        if (started[i]) {
+            pthread_join(ids[i], NULL);
+        } else {
+            run(&parts[i]);
+        }
+    }
+}
+
+static unsigned char zlib_level_flags(int level) {
+    return (unsigned char) (level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3);
+}
+
+bool png_encode_rows_parallel(const ImageTarget *target, int width, int height, int components,
+                              int color_type, const PngOptions *options,
+                              const RowSource *source, int strip_height,
+                              char *error, int error_size) {
+    const int stride = width * components;
+    const int threads = options->threads;
+    const int level = options->level < 0 ? 0 : options->level > 9 ? 9 : options->level;
+
+    // First row holds the last row of the previous strip, zeros above the image.
+    unsigned char *rows = (unsigned char *) calloc((size_t) strip_height + 1, stride);
+    unsigned char *filtered = (unsigned char *) malloc((size_t) strip_height * (stride + 1));
+    unsigned char *history = (unsigned char *) malloc(DEFLATE_WINDOW);
+    DeflatePart *parts = (DeflatePart *) calloc(threads, sizeof(DeflatePart));
+    pthread_t *ids = (pthread_t *) malloc(sizeof(pthread_t) * threads);
+    bool *started = (bool *) malloc(sizeof(bool) * threads);
+    if (rows == NULL || filtered == NULL || history == NULL || parts == NULL || ids == NULL || started == NULL) {
+        snprintf(error, error_size, "Failed to allocate %dx%d strip", width, strip_height);
+        free(rows);
+        free(filtered);
+        free(history);
+        free(parts);
+        free(ids);
+        free(started);
+        return false;
+    }
+
+    FILE *file = image_target_open(target);
+    if (file == NULL) {
+        snprintf(error, error_size, "Failed to open file '%s'", image_target_name(target));
+        free(rows);
+        free(filtered);
+        free(history);
+        free(parts);
+        free(ids);
+        free(started);
+        return false;
+    }
+
+    unsigned char ihdr[13];
+    put_uint32(ihdr, (unsigned long) width);
+    put_uint32(ihdr + 4, (unsigned long) height);
+    ihdr[8] = 8;
+    ihdr[9] = (unsigned char) color_type;
+    ihdr[10] = ihdr[11] = ihdr[12] = 0;
+    fwrite(PNG_SIGNATURE, 1, sizeof(PNG_SIGNATURE), file);
+    write_chunk(file, "IHDR", ihdr, sizeof(ihdr));
+
+    unsigned char zlib_header[2];
+    zlib_header[0] = 0x78;
+    zlib_header[1] = (unsigned char) (zlib_level_flags(level) << 6);
+    zlib_header[1] += (unsigned char) (31 - (zlib_header[0] * 256 + zlib_header[1]) % 31);
+    write_chunk(file, "IDAT", zlib_header, sizeof(zlib_header));
+
+    uLong adler = adler32(0, NULL, 0);
+    int history_size = 0;
+    const char *failure = NULL;
+    for (int strip_begin = 0; strip_begin < height && failure == NULL; strip_begin += strip_height) {
+        const int strip_end = strip_begin + strip_height < height ? strip_begin + strip_height : height;
+        const int strip_rows = strip_end - strip_begin;
+        if (!source->read(source->arg, rows + stride, strip_begin, strip_end)) {
+            failure = "Cancelled";
+            break;
+        }
+
+        const int count = strip_rows < threads ? strip_rows : threads;
+        for (int i = 0; i < count; i++) {
+            const int row_begin = (int) ((long long) strip_rows * i / count);
+            const int row_end = (int) ((long long) strip_rows * (i + 1) / count);
+            DeflatePart *part = &parts[i];
+            part->rows = rows + (size_t) (row_begin + 1) * stride;
+            part->filtered = filtered + (size_t) row_begin * (stride + 1);
+            part->row_count = row_end - row_begin;
+            part->stride = stride;
+            part->bpp = components;
+            part->filter = options->filter;
+            part->level = level;
+            part->last = strip_end == height && i == count - 1;
+            part->out = NULL;
+            part->out_size = 0;
+            // Previous strip primes the first part, the rest are primed with the parts before them.
+            const size_t offset = (size_t) row_begin * (stride + 1);
+            if (i == 0) {
+                part->dictionary = history;
+                part->dictionary_size = history_size;
+            } else {
+                part->dictionary_size = (int) (offset < DEFLATE_WINDOW ? offset : DEFLATE_WINDOW);
+                part->dictionary = filtered + offset - part->dictionary_size;
+            }
+        }
+        run_parts(filter_part, parts, count, ids, started);
+        run_parts(deflate_part, parts, count, ids, started);
+
+        const size_t filtered_size = (size_t) strip_rows * (stride + 1);
+        adler = adler32(adler, filtered, (uInt) filtered_size);
+        for (int i = 0; i < count; i++) {
+            if (parts[i].failed) {
+                failure = "Failed to deflate strip";
+            } else if (failure == NULL && parts[i].out_size > 0) {
+                write_chunk(file, "IDAT", parts[i].out, parts[i].out_size);
+            }
+            free(parts[i].out);
+        }
+
+        // Keep the last window of filtered data and the last raw row for the next strip.
+        if (filtered_size >= DEFLATE_WINDOW) {
+            memcpy(history, filtered + filtered_size - DEFLATE_WINDOW, DEFLATE_WINDOW);
+            history_size = DEFLATE_WINDOW;
+        } else {
+            const int keep = (int) (history_size + filtered_size > DEFLATE_WINDOW
+                                    ? DEFLATE_WINDOW - filtered_size : history_size);
+            memmove(history, history + history_size - keep, (size_t) keep);
+            memcpy(history + keep, filtered, filtered_size);
+            history_size = keep + (int) filtered_size;
+        }
+        memcpy(rows, rows + (size_t) strip_rows * stride, (size_t) stride);
+    }
+
+    free(rows);
+    free(filtered);
+    free(history);
+    free(parts);
+    free(ids);
+    free(started);
+
+    if (failure == NULL) {
+        unsigned char checksum[4];
+        put_uint32(checksum, adler);
+        write_chunk(file, "IDAT", checksum, sizeof(checksum));
+        write_chunk(file, "IEND", NULL, 0);
+        if (ferror(file)) {
+            failure = "Failed to write file";
+        }
+    }
+    if (failure != NULL) {
+        fclose(file);
+    } else if (!image_target_finish(target, file)) {
+        failure = "Failed to write file";
+    }
+    if (failure != NULL) {
+        if (strcmp(failure, "Cancelled") == 0) {
+            snprintf(error, error_size, "%s", failure);
+        } else {
+            snprintf(error, error_size, "%s '%s'", failure, image_target_name(target));
+        }
+        image_target_discard(target);
+        return false;
+    }
+    return true;
+}
@@ -0,0 +1,22 @@
+//
+// PNG encoder that filters and deflates parts of every strip on several threads.
+//
+
+#ifndef UCROP_PNG_PARALLEL_H
+#define UCROP_PNG_PARALLEL_H
+
+#include "image_encoder.h"
+
+/**
+ * Writes the PNG without libpng, parts of the image data are deflated independently
+ * and concatenated into one zlib stream, every part is primed with the data preceding it.
+ * Result is a bit larger than a single stream, but encoding scales with the thread count.
+ *
+ * @param color_type - PNG color type of the components
+ */
+bool png_encode_rows_parallel(const ImageTarget *target, int width, int height, int components,
+                              int color_type, const PngOptions *options,
+                              const RowSource *source, int strip_height,
+                              char *error, int error_size);
+
+#endif //UCROP_PNG_PARALLEL_H
@@ -0,0 +1,177 @@
+//
+// Region-of-interest PNG decoding used by the native crop.
+//
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "png_common.h"
+#include "png_region.h"
+
+static bool has_png_signature(FILE *file) {
+    png_byte signature[PNG_SIGNATURE_SIZE];
+    return fread(signature, 1, PNG_SIGNATURE_SIZE, file) == PNG_SIGNATURE_SIZE
+           && png_sig_cmp(signature, 0, PNG_SIGNATURE_SIZE) == 0;
+}
+
+/**
+ * Sets up transformations to 8-bit gray, gray + alpha, RGB or RGBA samples.
+ */
+static void set_8bit_output(png_structp png, png_infop info) {
+    const int color_type = png_get_color_type(png, info), bit_depth = png_get_bit_depth(png, info);
+    if (color_type == PNG_COLOR_TYPE_PALETTE) {
+        png_set_palette_to_rgb(png);
+    }
+    if (color_type == PNG_COLOR_TYPE_GRAY && bit_depth < 8) {
+        png_set_expand_gray_1_2_4_to_8(png);
+    }
+    if (png_get_valid(png, info, PNG_INFO_tRNS)) {
+        png_set_tRNS_to_alpha(png);
+    }
+    if (bit_depth == 16) {
+        png_set_strip_16(png);
+    }
+    png_read_update_info(png, info);
+}
+
+bool png_read_image_info(const ImageSource *source, int *width, int *height, int *components) {
+    FILE *file = image_source_open(source);
+    if (file == NULL) {
+        return false;
+    }
+    if (!has_png_signature(file)) {
+        fclose(file);
+        return false;
+    }
+
+    PngErrorManager err;
+    err.message[0] = 0;
+    png_structp png = png_create_read_struct(PNG_LIBPNG_VER_STRING, &err, png_error_exit, png_warning_ignore);
+    png_infop info = png == NULL ? NULL : png_create_info_struct(png);
+    if (info == NULL) {
+        png_destroy_read_struct(&png, NULL, NULL);
+        fclose(file);
+        return false;
+    }
+
+    if (setjmp(png_jmpbuf(png))) {
+        png_destroy_read_struct(&png, &info, NULL);
+        fclose(file);
+        return false;
+    }
+
+    png_init_io(png, file);
+    png_set_sig_bytes(png, PNG_SIGNATURE_SIZE);
+    png_read_info(png, info);
+
+    const bool supported = png_get_interlace_type(png, info) == PNG_INTERLACE_NONE;
+    set_8bit_output(png, info);
+    *width = png_get_image_width(png, info);
+    *height = png_get_image_height(png, info);
+    *components = png_get_channels(png, info);
+
+    png_destroy_read_struct(&png, &info, NULL);
+    fclose(file);
+    return supported;
+}
+
+bool png_decode_region(const ImageSource *source, ImageRegion *region,
+                       unsigned char **pixels, int *components,
+                       char *error, int error_size) {
+    *pixels = NULL;
+
+    FILE *file = image_source_open(source);
+    if (file == NULL) {
+        snprintf(error, error_size, "Failed to open file '%s'", image_source_name(source));
+        return false;
+    }
+    if (!has_png_signature(file)) {
+        snprintf(error, error_size, "Not a PNG file '%s'", image_source_name(source));
+        fclose(file);
+        return false;
+    }
+
+    PngErrorManager err;
+    err.message[0] = 0;
+    png_structp png = png_create_read_struct(PNG_LIBPNG_VER_STRING, &err, png_error_exit, png_warning_ignore);
+    png_infop info = png == NULL ? NULL : png_create_info_struct(png);
+    if (info == NULL) {
+        snprintf(error, error_size, "Failed to create PNG decoder");
+        png_destroy_read_struct(&png, NULL, NULL);
+        fclose(file);
+        return false;
+    }
+
+    // Must be volatile, otherwise their values are undefined after longjmp().
+    unsigned char *volatile result = NULL;
+    unsigned char *volatile row = NULL;
+
+    if (setjmp(png_jmpbuf(png))) {
+        snprintf(error, error_size, "%s", err.message);
+        png_destroy_read_struct(&png, &info, NULL);
+        fclose(file);
+        free(result);
+        free(row);
+        return false;
+    }
+
+    png_init_io(png, file);
+    png_set_sig_bytes(png, PNG_SIGNATURE_SIZE);
+    png_read_info(png, info);
+    if (png_get_interlace_type(png, info) != PNG_INTERLACE_NONE) {
+        snprintf(error, error_size, "Interlaced PNG '%s' can't be decoded by rows", image_source_name(source));
+        png_destroy_read_struct(&png, &info, NULL);
+        fclose(file);
+        return false;
+    }
+    set_8bit_output(png, info);
+
+    const int image_width = png_get_image_width(png, info), image_height = png_get_image_height(png, info);
+    const int channels = png_get_channels(png, info);
+
+    int x0 = region->x < 0 ? 0 : region->x;
+    int y0 = region->y < 0 ? 0 : region->y;
+    int x1 = region->x + region->width > image_width ? image_width : region->x + region->width;
+    int y1 = region->y + region->height > image_height ? image_height : region->y + region->height;
+    if (x1 <= x0 || y1 <= y0) {
+        x0 = y0 = 0;
+        x1 = image_width;
+        y1 = image_height;
+    }
+
+    const int region_width = x1 - x0, region_height = y1 - y0;
+    const size_t region_stride = (size_t) region_width * channels;
+
+    result = (unsigned char *) malloc(region_stride * region_height);
+    row = (unsigned char *) malloc(png_get_rowbytes(png, info));
+    if (result == NULL || row == NULL) {
+        snprintf(error, error_size, "Failed to allocate %dx%d region", region_width, region_height);
+        png_destroy_read_struct(&png, &info, NULL);
+        fclose(file);
+        free(result);
+        free(row);
+        return false;
+    }
+
+    // Rows above the region still have to be inflated and unfiltered, but aren't stored.
+    for (int y = 0; y < y1; y++) {
+        png_read_row(png, row, NULL);
+        if (y >= y0) {
+            memcpy(result + (size_t) (y - y0) * region_stride, row + (size_t) x0 * channels, region_stride);
+        }
+    }
+
+    // Rows below the region are never decoded.
+    png_destroy_read_struct(&png, &info, NULL);
+    fclose(file);
+    free(row);
+
+    region->x = x0;
+    region->y = y0;
+    region->width = region_width;
+    region->height = region_height;
+    *pixels = result;
+    *components = channels;
+    return true;
+}
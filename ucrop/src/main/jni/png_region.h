@@ -0,0 +1,28 @@
+//
+// Region-of-interest PNG decoding used by the native crop.
+//
+
+#ifndef UCROP_PNG_REGION_H
+#define UCROP_PNG_REGION_H
+
+#include "image_io.h"
+#include "image_region.h"
+
+/**
+ * Reads PNG header of the file. Returns false if file is not a PNG or is interlaced,
+ * since rows of an interlaced image can't be decoded one by one.
+ */
+bool png_read_image_info(const ImageSource *source, int *width, int *height, int *components);
+
+/**
+ * Decodes only given region of a non interlaced PNG file into interleaved 8-bit pixels
+ * (gray, gray + alpha, RGB or RGBA, palette and transparency are expanded, 16-bit samples are stripped).
+ * Rows are decoded one by one and only the region is kept, decoding stops after its last row -
+ * actual decoded region (clipped to the image) is written back to {@code region}.
+ * Returned buffer must be released with {@code free()}.
+ */
+bool png_decode_region(const ImageSource *source, ImageRegion *region,
+                       unsigned char **pixels, int *components,
+                       char *error, int error_size);
+
+#endif //UCROP_PNG_REGION_H
@@ -0,0 +1,382 @@
+//
+// Sampling kernels of the native crop, scalar reference and CPU dispatch.
+//
+
+#include <stddef.h>
+#include <math.h>
+#include <string.h>
+
+#if defined(UCROP_HAVE_NEON) && defined(__arm__) && defined(ANDROID)
+#include <cpu-features.h>
+#endif
+
+#include "resample.h"
+
+void bilinear_row_scalar(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width) {
+    bilinear_span_scalar(src, warp, y, 0, width, dst);
+}
+
+void bilinear_span_scalar(const SourceImage *src, const CropWarp *warp, int y, int x_begin, int x_end,
+                          unsigned char *dst) {
+    const int components = src->components;
+    const size_t stride = (size_t) src->width * components;
+    const float max_x = src->width - 1, max_y = src->height - 1;
+    for (int x = x_begin; x < x_end; x++) {
+        const float
+        sx = warp->a * x + warp->b * y + warp->c,
+        sy = warp->d * x + warp->e * y + warp->f,
+        nfx = sx < 0 ? 0 : (sx > max_x ? max_x : sx),
+        nfy = sy < 0 ? 0 : (sy > max_y ? max_y : sy);
+        const int ix = (int) nfx, iy = (int) nfy;
+        const float dx = nfx - ix, dy = nfy - iy;
+        const int nx = dx > 0 ? ix + 1 : ix, ny = dy > 0 ? iy + 1 : iy;
+        const unsigned char
+        *pcc = src->data + iy * stride + ix * components, *pnc = src->data + iy * stride + nx * components,
+        *pcn = src->data + ny * stride + ix * components, *pnn = src->data + ny * stride + nx * components;
+        for (int c = 0; c < components; c++) {
+            const float Icc = pcc[c], Inc = pnc[c], Icn = pcn[c], Inn = pnn[c];
+            *(dst++) = (unsigned char) (Icc + dx * (Inc - Icc + dy * (Icc + Inn - Icn - Inc)) + dy * (Icn - Icc));
+        }
+    }
+}
+
+/**
+ * Nearest neighbor, one source pixel per result pixel.
+ */
+static void nearest_row(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width) {
+    const int components = src->components;
+    const size_t stride = (size_t) src->width * components;
+    const float max_x = src->width - 1, max_y = src->height - 1;
+    for (int x = 0; x < width; x++) {
+        const float
+        sx = warp->a * x + warp->b * y + warp->c,
+        sy = warp->d * x + warp->e * y + warp->f,
+        nfx = sx < 0 ? 0 : (sx > max_x ? max_x : sx),
+        nfy = sy < 0 ? 0 : (sy > max_y ? max_y : sy);
+        const unsigned char *pixel = src->data + (int) (nfy + 0.5f) * stride + (int) (nfx + 0.5f) * components;
+        for (int c = 0; c < components; c++) {
+            *(dst++) = pixel[c];
+        }
+    }
+}
+
+/**
+ * Catmull-Rom cubic (a = -0.5), support of 2 pixels.
+ */
+static float cubic_weight(float t) {
+    t = fabsf(t);
+    if (t < 1) {
+        return (1.5f * t - 2.5f) * t * t + 1;
+    } else if (t < 2) {
+        return ((-0.5f * t + 2.5f) * t - 4) * t + 2;
+    }
+    return 0;
+}
+
+/**
+ * Lanczos windowed sinc, support of 3 pixels.
+ */
+static float lanczos3_weight(float t) {
+    t = fabsf(t);
+    if (t < 1e-6f) {
+        return 1;
+    } else if (t >= 3) {
+        return 0;
+    }
+    const float pt = (float) M_PI * t;
+    return 3 * sinf(pt) * sinf(pt / 3) / (pt * pt);
+}
+
+/**
+ * Separable filter over 2 * radius x 2 * radius source pixels around the sample point,
+ * weights are normalized and pixels outside of the source are clamped to its edges.
+ */
+static void filter_row(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width,
+                       int radius, float (*weight)(float)) {
+    const int components = src->components, taps = 2 * radius;
+    const size_t stride = (size_t) src->width * components;
+    const float max_x = src->width - 1, max_y = src->height - 1;
+    float weights_x[2 * RESAMPLING_MAX_RADIUS], weights_y[2 * RESAMPLING_MAX_RADIUS];
+    int offsets_x[2 * RESAMPLING_MAX_RADIUS];
+    const unsigned char *rows[2 * RESAMPLING_MAX_RADIUS];
+    for (int x = 0; x < width; x++) {
+        const float
+        sx = warp->a * x + warp->b * y + warp->c,
+        sy = warp->d * x + warp->e * y + warp->f,
+        nfx = sx < 0 ? 0 : (sx > max_x ? max_x : sx),
+        nfy = sy < 0 ? 0 : (sy > max_y ? max_y : sy);
+        const int ix = (int) nfx - radius + 1, iy = (int) nfy - radius + 1;
+        float sum_x = 0, sum_y = 0;
+        for (int i = 0; i < taps; i++) {
+            const int tx = ix + i, ty = iy + i;
+            weights_x[i] = weight(nfx - tx);
+            weights_y[i] = weight(nfy - ty);
+            sum_x += weights_x[i];
+            sum_y += weights_y[i];
+            offsets_x[i] = (tx < 0 ? 0 : (tx > src->width - 1 ? src->width - 1 : tx)) * components;
+            rows[i] = src->data + (ty < 0 ? 0 : (ty > src->height - 1 ? src->height - 1 : ty)) * stride;
+        }
+        const float norm = 1 / (sum_x * sum_y);
+        for (int c = 0; c < components; c++) {
+            float value = 0;
+            for (int j = 0; j < taps; j++) {
+                float row_value = 0;
+                for (int i = 0; i < taps; i++) {
+                    row_value += weights_x[i] * rows[j][offsets_x[i] + c];
+                }
+                value += weights_y[j] * row_value;
+            }
+            const int result = (int) (value * norm + 0.5f);
+            *(dst++) = (unsigned char) (result < 0 ? 0 : (result > 255 ? 255 : result));
+        }
+    }
+}
+
+static void bicubic_row(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width) {
+    filter_row(src, warp, y, dst, width, 2, cubic_weight);
+}
+
+static void lanczos3_row(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width) {
+    filter_row(src, warp, y, dst, width, 3, lanczos3_weight);
+}
+
+#ifdef UCROP_HAVE_NEON
+static bool cpu_has_neon() {
+#if defined(__aarch64__)
+    return true;
+#elif defined(ANDROID)
+    return android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM
+           && (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) != 0;
+#else
+    return false;
+#endif
+}
+#endif
+
+#ifdef UCROP_HAVE_SSE2
+static bool cpu_has_sse2() {
+#if defined(__x86_64__)
+    return true;
+#else
+    return __builtin_cpu_supports("sse2") != 0;
+#endif
+}
+#endif
+
+// Number of result pixels stepped in fixed point between positions computed in float.
+#define FIXED_SPAN 64
+// Largest source position representable in 16.16 fixed point.
+#define FIXED_LIMIT 32767
+
+void bilinear_row_fixed(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width) {
+    if (src->width > FIXED_LIMIT || src->height > FIXED_LIMIT) {
+        bilinear_span_scalar(src, warp, y, 0, width, dst);
+        return;
+    }
+    const int components = src->components;
+    const int stride = src->width * components;
+    const int max_x = (src->width - 1) << 16, max_y = (src->height - 1) << 16;
+    // Scaling by a power of two is exact, so anchors are the float positions rounded to 1/65536.
+    const int step_x = (int) floorf(warp->a * 65536 + 0.5f), step_y = (int) floorf(warp->d * 65536 + 0.5f);
+    const float row_x = warp->b * y + warp->c, row_y = warp->e * y + warp->f;
+    for (int x_begin = 0; x_begin < width; x_begin += FIXED_SPAN) {
+        const int x_end = x_begin + FIXED_SPAN < width ? x_begin + FIXED_SPAN : width;
+        const float
+        sx_begin = warp->a * x_begin + row_x, sy_begin = warp->d * x_begin + row_y,
+        sx_end = warp->a * (x_end - 1) + row_x, sy_end = warp->d * (x_end - 1) + row_y;
+        // Far outside of the source positions don't fit into fixed point, they are clamped to edges anyway.
+        if (fabsf(sx_begin) > FIXED_LIMIT || fabsf(sy_begin) > FIXED_LIMIT
+            || fabsf(sx_end) > FIXED_LIMIT || fabsf(sy_end) > FIXED_LIMIT) {
+            bilinear_span_scalar(src, warp, y, x_begin, x_end, dst + x_begin * components);
+            continue;
+        }
+        int sx = (int) floorf(sx_begin * 65536 + 0.5f), sy = (int) floorf(sy_begin * 65536 + 0.5f);
+        unsigned char *out = dst + x_begin * components;
+        for (int x = x_begin; x < x_end; x++, sx += step_x, sy += step_y) {
+            const int
+            nfx = sx < 0 ? 0 : (sx > max_x ? max_x : sx),
+            nfy = sy < 0 ? 0 : (sy > max_y ? max_y : sy),
+            fx = ((nfx & 0xFFFF) + 128) >> 8, fy = ((nfy & 0xFFFF) + 128) >> 8;
+            const unsigned char *p00 = src->data + (size_t) (nfy >> 16) * stride + (nfx >> 16) * components;
+            // Neighbours are read only with a non zero fraction, which never happens at the last column or row.
+            const unsigned char *p10 = nfx & 0xFFFF ? p00 + components : p00;
+            const int next_row = nfy & 0xFFFF ? stride : 0;
+            for (int c = 0; c < components; c++) {
+                const int
+                top = p00[c] * (256 - fx) + p10[c] * fx,
+                bottom = p00[next_row + c] * (256 - fx) + p10[next_row + c] * fx;
+                *(out++) = (unsigned char) ((top * (256 - fy) + bottom * fy) >> 16);
+            }
+        }
+    }
+}
+
+SampleRowFunction bilinear_row_function(int components) {
+    if (components == 3 || components == 4) {
+#ifdef UCROP_HAVE_NEON
+        static const bool has_neon = cpu_has_neon();
+        if (has_neon) {
+            return bilinear_row_neon;
+        }
+#endif
+#ifdef UCROP_HAVE_SSE2
+        static const bool has_sse2 = cpu_has_sse2();
+        if (has_sse2) {
+            return bilinear_row_sse2;
+        }
+#endif
+    }
+#ifdef __arm__
+    // Without NEON or for other layouts integer stepping is cheaper than the float reference on 32-bit ARM.
+    return bilinear_row_fixed;
+#else
+    return bilinear_row_scalar;
+#endif
+}
+
+SampleRowFunction sample_row_function(int resampling, int components) {
+    switch (resampling) {
+        case RESAMPLING_NEAREST:
+            return nearest_row;
+        case RESAMPLING_BICUBIC:
+            return bicubic_row;
+        case RESAMPLING_LANCZOS3:
+            return lanczos3_row;
+        default:
+            return bilinear_row_function(components);
+    }
+}
+
+void box_halve_rows(const SourceImage *src, unsigned char *dst, int row_begin, int row_end) {
+    const int components = src->components, width = (src->width + 1) / 2;
+    const size_t stride = (size_t) src->width * components;
+    for (int y = row_begin; y < row_end; y++) {
+        const unsigned char *row0 = src->data + 2 * y * stride;
+        const unsigned char *row1 = 2 * y + 1 < src->height ? row0 + stride : row0;
+        unsigned char *out = dst + (size_t) y * width * components;
+        for (int x = 0; x < width; x++) {
+            const int x0 = 2 * x * components;
+            const int x1 = 2 * x + 1 < src->width ? x0 + components : x0;
+            for (int c = 0; c < components; c++) {
+                *(out++) = (unsigned char) ((row0[x0 + c] + row0[x1 + c] + row1[x0 + c] + row1[x1 + c] + 2) >> 2);
+            }
+        }
+    }
+}
+
+// Tolerance of float matrix composition for coefficients of an exact warp.
+#define EXACT_EPSILON 1e-4f
+// Side of square tiles of an exact copy, in pixels.
+#define EXACT_TILE 32
+
+/**
+ * Rounds offset of an exact warp to the nearest whole pixel, or to the other neighbour of a half pixel offset
+ * when only that one keeps source positions [offset + span_min, offset + span_max] inside [0, size).
+ */
+static bool snap_offset(float offset, int span_min, int span_max, int size, int *snapped) {
+    const int nearest = (int) floorf(offset + 0.5f);
+    if (nearest + span_min >= 0 && nearest + span_max < size) {
+        *snapped = nearest;
+        return true;
+    }
+    const int other = nearest > offset ? nearest - 1 : nearest + 1;
+    if (fabsf(offset - other) <= 0.5f + EXACT_EPSILON && other + span_min >= 0 && other + span_max < size) {
+        *snapped = other;
+        return true;
+    }
+    return false;
+}
+
+bool snap_exact_warp(const SourceImage *src, int width, int height, CropWarp *warp) {
+    const float coefficients[4] = {warp->a, warp->b, warp->d, warp->e};
+    int m[4];
+    for (int i = 0; i < 4; i++) {
+        m[i] = (int) floorf(coefficients[i] + 0.5f);
+        if ((m[i] < -1 || m[i] > 1) || fabsf(coefficients[i] - m[i]) > EXACT_EPSILON) {
+            return false;
+        }
+    }
+    // Exactly one of +-1 in every row and column.
+    if (abs(m[0]) + abs(m[1]) != 1 || abs(m[2]) + abs(m[3]) != 1 || abs(m[0]) + abs(m[2]) != 1) {
+        return false;
+    }
+    int c, f;
+    if (!snap_offset(warp->c,
+                     (m[0] < 0 ? m[0] * (width - 1) : 0) + (m[1] < 0 ? m[1] * (height - 1) : 0),
+                     (m[0] > 0 ? m[0] * (width - 1) : 0) + (m[1] > 0 ? m[1] * (height - 1) : 0),
+                     src->width, &c)
+        || !snap_offset(warp->f,
+                        (m[2] < 0 ? m[2] * (width - 1) : 0) + (m[3] < 0 ? m[3] * (height - 1) : 0),
+                        (m[2] > 0 ? m[2] * (width - 1) : 0) + (m[3] > 0 ? m[3] * (height - 1) : 0),
+                        src->height, &f)) {
+        return false;
+    }
+    warp->a = m[0];
+    warp->b = m[1];
+    warp->c = c;
+    warp->d = m[2];
+    warp->e = m[3];
+    warp->f = f;
+    return true;
+}
+
+void copy_exact_rows(const SourceImage *src, const CropWarp *warp, int row_begin, int row_end,
+                     unsigned char *dst, int width) {
+    const int components = src->components;
+    const ptrdiff_t stride = (ptrdiff_t) src->width * components;
+    const int a = (int) warp->a, b = (int) warp->b, c = (int) warp->c;
+    const int d = (int) warp->d, e = (int) warp->e, f = (int) warp->f;
+    // Source step between neighbour result pixels of a row.
+    const ptrdiff_t step = a * components + d * stride;
+
+    if (d == 0) {
+        // Result rows are source rows, possibly reversed.
+        for (int y = row_begin; y < row_end; y++) {
+            const unsigned char *pixel = src->data + (e * y + f) * stride + (ptrdiff_t) c * components;
+            unsigned char *out = dst + (ptrdiff_t) (y - row_begin) * width * components;
+            if (a > 0) {
+                memcpy(out, pixel, (size_t) width * components);
+            } else {
+                for (int x = 0; x < width; x++, pixel += step) {
+                    for (int i = 0; i < components; i++) {
+                        *(out++) = pixel[i];
+                    }
+                }
+            }
+        }
+        return;
+    }
+
+    // Result rows are source columns, copy tile by tile.
+    for (int y0 = row_begin; y0 < row_end; y0 += EXACT_TILE) {
+        const int y1 = y0 + EXACT_TILE < row_end ? y0 + EXACT_TILE : row_end;
+        for (int x0 = 0; x0 < width; x0 += EXACT_TILE) {
+            const int x1 = x0 + EXACT_TILE < width ? x0 + EXACT_TILE : width;
+            for (int y = y0; y < y1; y++) {
+                const unsigned char *pixel = src->data + (ptrdiff_t) (d * x0 + f) * stride
+                                             + (ptrdiff_t) (b * y + c) * components;
+                unsigned char *out = dst + ((ptrdiff_t) (y - row_begin) * width + x0) * components;
+                switch (components) {
+                    case 4:
+                        for (int x = x0; x < x1; x++, pixel += step, out += 4) {
+                            memcpy(out, pixel, 4);
+                        }
+                        break;
+                    case 3:
+                        for (int x = x0; x < x1; x++, pixel += step, out += 3) {
+                            out[0] = pixel[0];
+                            out[1] = pixel[1];
+                            out[2] = pixel[2];
+                        }
+                        break;
+                    default:
+                        for (int x = x0; x < x1; x++, pixel += step) {
+                            for (int i = 0; i < components; i++) {
+                                *(out++) = pixel[i];
+                            }
+                        }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+//
+// Sampling kernels of the native crop.
+//
+
+#ifndef UCROP_RESAMPLE_H
+#define UCROP_RESAMPLE_H
+
+// Resampling filters, values match UCrop.Options.RESAMPLING_*.
+#define RESAMPLING_NEAREST  0
+#define RESAMPLING_BILINEAR 1
+#define RESAMPLING_BICUBIC  2
+#define RESAMPLING_LANCZOS3 3
+
+// Widest filter support around a sample point, in source pixels.
+#define RESAMPLING_MAX_RADIUS 3
+
+/**
+ * Interleaved 8-bit image the result is sampled from.
+ */
+struct SourceImage {
+    const unsigned char *data;
+    int width, height, components;
+};
+
+/**
+ * Affine mapping of a result pixel (x, y) to the source image:
+ * {@code sx = a*x + b*y + c, sy = d*x + e*y + f}.
+ * It combines crop offset, rotation, resize and EXIF orientation, so every result pixel is sampled once.
+ */
+struct CropWarp {
+    float a, b, c;
+    float d, e, f;
+};
+
+/**
+ * Fills {@code width} pixels of the result row {@code y} into {@code dst} as interleaved samples,
+ * coordinates outside of the source are clamped to its edges.
+ */
+typedef void (*SampleRowFunction)(const SourceImage *src, const CropWarp *warp, int y,
+                                  unsigned char *dst, int width);
+
+/**
+ * Reference linear interpolation, matches CImg::_linear_atXY() exactly.
+ */
+void bilinear_row_scalar(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width);
+
+/**
+ * Reference linear interpolation of pixels [x_begin, x_end) of the result row,
+ * {@code dst} points to the pixel x_begin. Used by vector kernels for the remainder of a row.
+ */
+void bilinear_span_scalar(const SourceImage *src, const CropWarp *warp, int y, int x_begin, int x_end,
+                          unsigned char *dst);
+
+/**
+ * Linear interpolation with 16.16 fixed point positions stepped by per pixel deltas and 8-bit weights,
+ * for CPUs with slow float arithmetic. Positions are taken from the float path every 64 pixels, so they are
+ * within 64 * 2^-17 < 0.0005 pixel of it, and rounded weights are within 2^-9 of the exact ones.
+ * With at most 255 levels between neighbour pixels each sample differs from the reference by at most
+ * 255 * 2 * (2^-9 + 0.0005) + 1 < 2.3, i.e. 2 levels. Sources larger than 32767 pixels use the reference.
+ * <p/>
+ * bilinear_row_function() picks it only on 32-bit ARM: for armeabi, on armeabi-v7a CPUs without NEON,
+ * and for gray and gray + alpha sources, which the vector kernels don't handle. Other ABIs only build it,
+ * so it can be checked on the host.
+ */
+void bilinear_row_fixed(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width);
+
+#ifdef UCROP_HAVE_SSE2
+/**
+ * Linear interpolation of RGB/RGBA sources with SSE2, within 1 of the reference.
+ */
+void bilinear_row_sse2(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width);
+#endif
+
+#ifdef UCROP_HAVE_NEON
+/**
+ * Linear interpolation of RGB/RGBA sources with NEON, within 1 of the reference.
+ */
+void bilinear_row_neon(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width);
+#endif
+
+/**
+ * Picks the fastest linear interpolation kernel the CPU supports for the number of components.
+ */
+SampleRowFunction bilinear_row_function(int components);
+
+/**
+ * Picks the kernel of given resampling filter, unknown values fall back to linear interpolation.
+ */
+SampleRowFunction sample_row_function(int resampling, int components);
+
+/**
+ * Checks whether warp is a right angle rotation and/or mirror without scaling, so every result pixel is
+ * a copy of one source pixel. Offsets are then snapped to whole pixels, which moves the result by at most
+ * half a pixel instead of blurring it, and the whole result must map inside of the source.
+ */
+bool snap_exact_warp(const SourceImage *src, int width, int height, CropWarp *warp);
+
+/**
+ * Copies result rows [row_begin, row_end) of a warp accepted by snap_exact_warp in square tiles,
+ * so transposed reads touch only a few cache lines of each source row per tile.
+ */
+void copy_exact_rows(const SourceImage *src, const CropWarp *warp, int row_begin, int row_end,
+                     unsigned char *dst, int width);
+
+/**
+ * Averages 2x2 blocks of the source into rows [row_begin, row_end) of the next pyramid level,
+ * which is (width + 1) / 2 x (height + 1) / 2 pixels. Odd last column and row are averaged with themselves.
+ */
+void box_halve_rows(const SourceImage *src, unsigned char *dst, int row_begin, int row_end);
+
+#endif //UCROP_RESAMPLE_H
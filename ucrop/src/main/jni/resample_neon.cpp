@@ -0,0 +1,77 @@
+//
+// NEON sampling kernels of the native crop.
+//
+
+#include <stddef.h>
+#include <stdint.h>
+#include <string.h>
+#include <arm_neon.h>
+
+#include "resample.h"
+
+// Weights of the four neighbors are 14-bit fixed point, 8-bit samples times weights are summed in 32-bit.
+#define WEIGHT_BITS 14
+
+static inline uint64_t load_pixel(const unsigned char *pixel, int components) {
+    uint32_t value = 0;
+    memcpy(&value, pixel, components);
+    return value;
+}
+
+void bilinear_row_neon(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width) {
+    const int components = src->components;
+    const size_t stride = (size_t) src->width * components;
+    const float32x4_t
+    a = vdupq_n_f32(warp->a), by = vdupq_n_f32(warp->b * y), c = vdupq_n_f32(warp->c),
+    d = vdupq_n_f32(warp->d), ey = vdupq_n_f32(warp->e * y), f = vdupq_n_f32(warp->f),
+    max_x = vdupq_n_f32(src->width - 1), max_y = vdupq_n_f32(src->height - 1),
+    zero = vdupq_n_f32(0), one = vdupq_n_f32(1), half = vdupq_n_f32(0.5f),
+    scale = vdupq_n_f32(1 << WEIGHT_BITS);
+
+    int x = 0;
+    for (; x + 4 <= width; x += 4) {
+        // Coordinates and weights of four result pixels, same arithmetic as the scalar reference.
+        const float xs_f[4] = {(float) x, (float) (x + 1), (float) (x + 2), (float) (x + 3)};
+        const float32x4_t xs = vld1q_f32(xs_f);
+        const float32x4_t
+        sx = vminq_f32(vmaxq_f32(vaddq_f32(vaddq_f32(vmulq_f32(a, xs), by), c), zero), max_x),
+        sy = vminq_f32(vmaxq_f32(vaddq_f32(vaddq_f32(vmulq_f32(d, xs), ey), f), zero), max_y);
+        const int32x4_t ix = vcvtq_s32_f32(sx), iy = vcvtq_s32_f32(sy);
+        const float32x4_t
+        dx = vsubq_f32(sx, vcvtq_f32_s32(ix)), dy = vsubq_f32(sy, vcvtq_f32_s32(iy)),
+        rx = vsubq_f32(one, dx), ry = vsubq_f32(one, dy);
+
+        int32_t xs_i[4], ys_i[4], w00[4], w10[4], w01[4], w11[4];
+        uint32_t next_x[4], next_y[4];
+        vst1q_s32(xs_i, ix);
+        vst1q_s32(ys_i, iy);
+        vst1q_u32(next_x, vcgtq_f32(dx, zero));
+        vst1q_u32(next_y, vcgtq_f32(dy, zero));
+        vst1q_s32(w00, vcvtq_s32_f32(vaddq_f32(vmulq_f32(vmulq_f32(rx, ry), scale), half)));
+        vst1q_s32(w10, vcvtq_s32_f32(vaddq_f32(vmulq_f32(vmulq_f32(dx, ry), scale), half)));
+        vst1q_s32(w01, vcvtq_s32_f32(vaddq_f32(vmulq_f32(vmulq_f32(rx, dy), scale), half)));
+        vst1q_s32(w11, vcvtq_s32_f32(vaddq_f32(vmulq_f32(vmulq_f32(dx, dy), scale), half)));
+
+        for (int i = 0; i < 4; i++) {
+            const unsigned char
+            *row = src->data + ys_i[i] * stride,
+            *next_row = next_y[i] ? row + stride : row,
+            *pcc = row + xs_i[i] * components, *pcn = next_row + xs_i[i] * components;
+            const int next = next_x[i] ? components : 0;
+            // Two neighbors in the low and high half of a vector, each half is weighted separately.
+            const uint16x8_t
+            top = vmovl_u8(vcreate_u8(load_pixel(pcc, components) | load_pixel(pcc + next, components) << 32)),
+            bottom = vmovl_u8(vcreate_u8(load_pixel(pcn, components) | load_pixel(pcn + next, components) << 32));
+            uint32x4_t sum = vmull_n_u16(vget_low_u16(top), (uint16_t) w00[i]);
+            sum = vmlal_n_u16(sum, vget_high_u16(top), (uint16_t) w10[i]);
+            sum = vmlal_n_u16(sum, vget_low_u16(bottom), (uint16_t) w01[i]);
+            sum = vmlal_n_u16(sum, vget_high_u16(bottom), (uint16_t) w11[i]);
+            const uint16x4_t narrow = vmovn_u32(vshrq_n_u32(sum, WEIGHT_BITS));
+            const uint8x8_t result = vqmovn_u16(vcombine_u16(narrow, narrow));
+            const uint32_t value = vget_lane_u32(vreinterpret_u32_u8(result), 0);
+            memcpy(dst, &value, components);
+            dst += components;
+        }
+    }
+    bilinear_span_scalar(src, warp, y, x, width, dst);
+}
@@ -0,0 +1,102 @@
+//
+// SSE2 sampling kernels of the native crop.
+//
+
+#include <stddef.h>
+#include <string.h>
+#include <emmintrin.h>
+
+#include "resample.h"
+
+// Weights of the four neighbors are 14-bit fixed point, so 8-bit samples times weights fit _mm_madd_epi16().
+#define WEIGHT_BITS 14
+
+static inline __m128i load_pixel(const unsigned char *pixel, int components) {
+    int value = 0;
+    memcpy(&value, pixel, components);
+    return _mm_cvtsi32_si128(value);
+}
+
+/**
+ * Weighted sum of four neighbors, {@code top} and {@code bottom} hold weights of the left neighbor
+ * in the low and of the right one in the high 16 bits. Returns one 32-bit sum per channel.
+ */
+static inline __m128i blend_pixel(const unsigned char *pcc, const unsigned char *pcn, int next, int components,
+                                  __m128i top, __m128i bottom) {
+    const __m128i zero = _mm_setzero_si128();
+    // Samples of two neighbors interleaved per channel as 16-bit, so a single madd weights both.
+    const __m128i
+    top_samples = _mm_unpacklo_epi8(_mm_unpacklo_epi8(load_pixel(pcc, components), load_pixel(pcc + next, components)), zero),
+    bottom_samples = _mm_unpacklo_epi8(_mm_unpacklo_epi8(load_pixel(pcn, components), load_pixel(pcn + next, components)), zero);
+    return _mm_srli_epi32(_mm_add_epi32(_mm_madd_epi16(top_samples, top), _mm_madd_epi16(bottom_samples, bottom)),
+                          WEIGHT_BITS);
+}
+
+void bilinear_row_sse2(const SourceImage *src, const CropWarp *warp, int y, unsigned char *dst, int width) {
+    const int components = src->components;
+    const size_t stride = (size_t) src->width * components;
+    const __m128
+    a = _mm_set1_ps(warp->a), by = _mm_set1_ps(warp->b * y), c = _mm_set1_ps(warp->c),
+    d = _mm_set1_ps(warp->d), ey = _mm_set1_ps(warp->e * y), f = _mm_set1_ps(warp->f),
+    max_x = _mm_set1_ps(src->width - 1), max_y = _mm_set1_ps(src->height - 1),
+    zero = _mm_setzero_ps(), one = _mm_set1_ps(1), half = _mm_set1_ps(0.5f),
+    scale = _mm_set1_ps(1 << WEIGHT_BITS);
+
+    int x = 0;
+    for (; x + 4 <= width; x += 4) {
+        // Coordinates and weights of four result pixels, same arithmetic as the scalar reference.
+        const __m128 xs = _mm_setr_ps(x, x + 1, x + 2, x + 3);
+        const __m128
+        sx = _mm_min_ps(_mm_max_ps(_mm_add_ps(_mm_add_ps(_mm_mul_ps(a, xs), by), c), zero), max_x),
+        sy = _mm_min_ps(_mm_max_ps(_mm_add_ps(_mm_add_ps(_mm_mul_ps(d, xs), ey), f), zero), max_y);
+        const __m128i ix = _mm_cvttps_epi32(sx), iy = _mm_cvttps_epi32(sy);
+        const __m128
+        dx = _mm_sub_ps(sx, _mm_cvtepi32_ps(ix)), dy = _mm_sub_ps(sy, _mm_cvtepi32_ps(iy)),
+        rx = _mm_sub_ps(one, dx), ry = _mm_sub_ps(one, dy);
+        const int next_x = _mm_movemask_ps(_mm_cmpgt_ps(dx, zero)), next_y = _mm_movemask_ps(_mm_cmpgt_ps(dy, zero));
+
+        // Weights of left and right neighbors packed into 32-bit lanes, one lane per result pixel.
+        const __m128i
+        w00 = _mm_cvttps_epi32(_mm_add_ps(_mm_mul_ps(_mm_mul_ps(rx, ry), scale), half)),
+        w10 = _mm_cvttps_epi32(_mm_add_ps(_mm_mul_ps(_mm_mul_ps(dx, ry), scale), half)),
+        w01 = _mm_cvttps_epi32(_mm_add_ps(_mm_mul_ps(_mm_mul_ps(rx, dy), scale), half)),
+        w11 = _mm_cvttps_epi32(_mm_add_ps(_mm_mul_ps(_mm_mul_ps(dx, dy), scale), half)),
+        top = _mm_or_si128(w00, _mm_slli_epi32(w10, 16)),
+        bottom = _mm_or_si128(w01, _mm_slli_epi32(w11, 16));
+
+        int xs_i[4], ys_i[4];
+        _mm_storeu_si128((__m128i *) xs_i, ix);
+        _mm_storeu_si128((__m128i *) ys_i, iy);
+        const unsigned char *pcc[4], *pcn[4];
+        int next[4];
+        for (int i = 0; i < 4; i++) {
+            const unsigned char *row = src->data + ys_i[i] * stride;
+            pcc[i] = row + xs_i[i] * components;
+            pcn[i] = (next_y >> i) & 1 ? pcc[i] + stride : pcc[i];
+            next[i] = (next_x >> i) & 1 ? components : 0;
+        }
+
+        const __m128i
+        p0 = blend_pixel(pcc[0], pcn[0], next[0], components,
+                         _mm_shuffle_epi32(top, _MM_SHUFFLE(0, 0, 0, 0)), _mm_shuffle_epi32(bottom, _MM_SHUFFLE(0, 0, 0, 0))),
+        p1 = blend_pixel(pcc[1], pcn[1], next[1], components,
+                         _mm_shuffle_epi32(top, _MM_SHUFFLE(1, 1, 1, 1)), _mm_shuffle_epi32(bottom, _MM_SHUFFLE(1, 1, 1, 1))),
+        p2 = blend_pixel(pcc[2], pcn[2], next[2], components,
+                         _mm_shuffle_epi32(top, _MM_SHUFFLE(2, 2, 2, 2)), _mm_shuffle_epi32(bottom, _MM_SHUFFLE(2, 2, 2, 2))),
+        p3 = blend_pixel(pcc[3], pcn[3], next[3], components,
+                         _mm_shuffle_epi32(top, _MM_SHUFFLE(3, 3, 3, 3)), _mm_shuffle_epi32(bottom, _MM_SHUFFLE(3, 3, 3, 3)));
+        const __m128i result = _mm_packus_epi16(_mm_packs_epi32(p0, p1), _mm_packs_epi32(p2, p3));
+        if (components == 4) {
+            _mm_storeu_si128((__m128i *) dst, result);
+            dst += 16;
+        } else {
+            unsigned char pixels[16];
+            _mm_storeu_si128((__m128i *) pixels, result);
+            for (int i = 0; i < 4; i++) {
+                memcpy(dst, pixels + i * 4, components);
+                dst += components;
+            }
+        }
+    }
+    bilinear_span_scalar(src, warp, y, x, width, dst);
+}
@@ -0,0 +1,70 @@
+//
+// Writes the native crop result into pixels of an android.graphics.Bitmap.
+//
+
+#include <stdlib.h>
+
+#include "image_encoder.h"
+
+/**
+ * Rounded x * alpha / 255.
+ */
+static inline unsigned char premultiply(int x, int alpha) {
+    const int value = x * alpha + 128;
+    return (unsigned char) ((value + (value >> 8)) >> 8);
+}
+
+bool rgba_write_rows(unsigned char *pixels, int stride, int width, int height, int components,
+                     const RowSource *source, int strip_height,
+                     char *error, int error_size) {
+    unsigned char *strip = (unsigned char *) malloc((size_t) strip_height * width * components);
+    if (strip == NULL) {
+        snprintf(error, error_size, "Failed to allocate %d rows", strip_height);
+        return false;
+    }
+
+    for (int row_begin = 0; row_begin < height; row_begin += strip_height) {
+        const int row_end = row_begin + strip_height < height ? row_begin + strip_height : height;
+        if (!source->read(source->arg, strip, row_begin, row_end)) {
+            snprintf(error, error_size, "Cancelled");
+            free(strip);
+            return false;
+        }
+        for (int row = row_begin; row < row_end; row++) {
+            const unsigned char *in = strip + (size_t) (row - row_begin) * width * components;
+            unsigned char *out = pixels + (size_t) row * stride;
+            switch (components) {
+                case 1:
+                    for (int x = 0; x < width; x++, in++, out += 4) {
+                        out[0] = out[1] = out[2] = in[0];
+                        out[3] = 255;
+                    }
+                    break;
+                case 2:
+                    for (int x = 0; x < width; x++, in += 2, out += 4) {
+                        out[0] = out[1] = out[2] = premultiply(in[0], in[1]);
+                        out[3] = in[1];
+                    }
+                    break;
+                case 3:
+                    for (int x = 0; x < width; x++, in += 3, out += 4) {
+                        out[0] = in[0];
+                        out[1] = in[1];
+                        out[2] = in[2];
+                        out[3] = 255;
+                    }
+                    break;
+                default:
+                    for (int x = 0; x < width; x++, in += components, out += 4) {
+                        out[0] = premultiply(in[0], in[3]);
+                        out[1] = premultiply(in[1], in[3]);
+                        out[2] = premultiply(in[2], in[3]);
+                        out[3] = in[3];
+                    }
+            }
+        }
+    }
+
+    free(strip);
+    return true;
+}
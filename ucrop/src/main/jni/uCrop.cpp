@@ -3,17 +3,27 @@
 //
 
 #include <stdio.h>
+#include <limits.h>
+#include <stdlib.h>
+#include <unistd.h>
+#include <pthread.h>
 #include <jni.h>
 #include <vector>
 #include <android/log.h>
-#include "com_yalantis_ucrop_task_BitmapCropTask.h"
+#include <android/bitmap.h>
+#include "com_yalantis_ucrop_task_NativeCrop.h"
+#include "jpeg_region.h"
+#include "png_region.h"
+#include "image_encoder.h"
+#include "resample.h"
+#include "jpeg_transform.h"
+#include "crop_engine.h"
 
 using namespace std;
 
 #define cimg_display 0
 #define cimg_use_jpeg
 #define cimg_use_png
-#define cimg_use_openmp
 
 #include "CImg.h"
 
@@ -21,96 +31,833 @@ using namespace cimg_library;
 
 #define LOG_TAG "uCrop JNI"
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
+#define LOGW(...) __android_log_print(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
 
-#define SAVE_FORMAT_JPEG 0
-#define SAVE_FORMAT_PNG  1
+// Extra source pixels around the region of interest, needed by the widest resampling filter.
+#define ROI_MARGIN (RESAMPLING_MAX_RADIUS + 1)
 
-JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_BitmapCropTask_cropCImg
+// Smaller bands are not worth starting a thread for.
+#define MIN_ROWS_PER_THREAD 16
+// Minimum number of result rows produced and passed to the encoder at once.
+#define MIN_STRIP_HEIGHT 64
+
+/**
+ * Maps a point of the EXIF oriented image (rotated by exifDegrees, then mirrored if needed)
+ * back to the image as it is stored in the file.
+ */
+static void oriented_to_source(float ox, float oy, int src_width, int src_height,
+                               int exif_degrees, int exif_translation, float *sx, float *sy) {
+    const bool swap_sides = exif_degrees == 90 || exif_degrees == 270;
+    const int oriented_width = swap_sides ? src_height : src_width;
+    if (exif_translation != 1) {
+        ox = oriented_width - 1 - ox;
+    }
+    switch (exif_degrees) {
+        case 90:
+            *sx = oy;
+            *sy = src_height - 1 - ox;
+            break;
+        case 180:
+            *sx = src_width - 1 - ox;
+            *sy = src_height - 1 - oy;
+            break;
+        case 270:
+            *sx = src_width - 1 - oy;
+            *sy = ox;
+            break;
+        default:
+            *sx = ox;
+            *sy = oy;
+    }
+}
+
+/**
+ * Rows of a result strip, {@code dst} holds the strip starting at result row {@code first_row}.
+ */
+struct WarpJob {
+    const SourceImage *src;
+    const CropWarp *warp;
+    SampleRowFunction sample_row;
+    bool exact;
+    unsigned char *dst;
+    int width, first_row;
+};
+
+static void run_warp_job(void *arg, int row_begin, int row_end) {
+    const WarpJob *job = (const WarpJob *) arg;
+    const size_t stride = (size_t) job->width * job->src->components;
+    if (job->exact) {
+        copy_exact_rows(job->src, job->warp, job->first_row + row_begin, job->first_row + row_end,
+                        job->dst + row_begin * stride, job->width);
+        return;
+    }
+    for (int row = row_begin; row < row_end; row++) {
+        job->sample_row(job->src, job->warp, job->first_row + row, job->dst + row * stride, job->width);
+    }
+}
+
+struct RowBand {
+    void (*run)(void *arg, int row_begin, int row_end);
+    void *arg;
+    int row_begin, row_end;
+};
+
+static void *run_row_band(void *arg) {
+    const RowBand *band = (const RowBand *) arg;
+    band->run(band->arg, band->row_begin, band->row_end);
+    return NULL;
+}
+
+/**
+ * @param threads - requested number of threads, 0 or less to use all online cores
+ */
+static int thread_count(int threads) {
+    if (threads <= 0) {
+        const long cores = sysconf(_SC_NPROCESSORS_ONLN);
+        threads = cores > 0 ? (int) cores : 1;
+    }
+    return threads;
+}
+
+/**
+ * Splits rows of the result into contiguous bands and processes them in parallel.
+ * Every row is written by exactly one thread with the same arithmetic, so the result
+ * doesn't depend on the thread count.
+ *
+ * @param threads - number of threads, 0 or less to use all online cores
+ */
+static void parallel_rows(int rows, int threads, void (*run)(void *arg, int row_begin, int row_end), void *arg) {
+    threads = cimg::min(thread_count(threads), cimg::max(1, rows / MIN_ROWS_PER_THREAD));
+
+    vector<RowBand> bands(threads);
+    vector<pthread_t> ids(threads);
+    vector<bool> started(threads, false);
+    for (int i = 0; i < threads; i++) {
+        bands[i].run = run;
+        bands[i].arg = arg;
+        bands[i].row_begin = (int) ((long long) rows * i / threads);
+        bands[i].row_end = (int) ((long long) rows * (i + 1) / threads);
+    }
+    // The calling thread takes the first band, bands of threads that failed to start are done inline.
+    for (int i = 1; i < threads; i++) {
+        started[i] = pthread_create(&ids[i], NULL, run_row_band, &bands[i]) == 0;
+    }
+    run_row_band(&bands[0]);
+    for (int i = 1; i < threads; i++) {
+        if (started[i]) {
+            pthread_join(ids[i], NULL);
+        } else {
+            run_row_band(&bands[i]);
+        }
+    }
+}
+
+/**
+ * Reports progress of the crop to the listener, which answers whether the crop should go on.
+ */
+struct CropProgress {
+    const CropListener *listener;
+    bool cancelled;
+};
+
+static void crop_progress_init(CropProgress *progress, const CropListener *listener) {
+    progress->listener = listener;
+    progress->cancelled = false;
+}
+
+/**
+ * @return false if the crop is cancelled, it must stop and release its buffers then
+ */
+static bool crop_progress(CropProgress *progress, int rows_done, int rows) {
+    if (!progress->cancelled && progress->listener != NULL) {
+        progress->cancelled = !progress->listener->progress(progress->listener->arg, rows_done, rows);
+    }
+    return !progress->cancelled;
+}
+
+/**
+ * Result rows are produced strip by strip while the encoder consumes them,
+ * the crop can be cancelled between strips.
+ */
+struct CropRowSource {
+    const SourceImage *src;
+    const CropWarp *warp;
+    SampleRowFunction sample_row;
+    bool exact;
+    int width, height, threads;
+    CropProgress *progress;
+};
+
+static bool read_crop_rows(void *arg, unsigned char *rows, int row_begin, int row_end) {
+    const CropRowSource *crop = (const CropRowSource *) arg;
+    WarpJob job;
+    job.src = crop->src;
+    job.warp = crop->warp;
+    job.sample_row = crop->sample_row;
+    job.exact = crop->exact;
+    job.dst = rows;
+    job.width = crop->width;
+    job.first_row = row_begin;
+    parallel_rows(row_end - row_begin, crop->threads, run_warp_job, &job);
+    return crop_progress(crop->progress, row_end, crop->height);
+}
+
+/**
+ * Bounding box of the result in the stored image, with margin for interpolation.
+ * Only this region of the source has to be decoded.
+ */
+static ImageRegion source_region(const CropWarp &warp, int width, int height) {
+    float min_x = 0, min_y = 0, max_x = 0, max_y = 0;
+    for (int corner = 0; corner < 4; corner++) {
+        const float
+        x = (corner & 1) ? width - 1 : 0, y = (corner & 2) ? height - 1 : 0,
+        sx = warp.a * x + warp.b * y + warp.c, sy = warp.d * x + warp.e * y + warp.f;
+        min_x = corner == 0 ? sx : cimg::min(min_x, sx);
+        min_y = corner == 0 ? sy : cimg::min(min_y, sy);
+        max_x = corner == 0 ? sx : cimg::max(max_x, sx);
+        max_y = corner == 0 ? sy : cimg::max(max_y, sy);
+    }
+    ImageRegion region;
+    region.x = (int) std::floor(min_x) - ROI_MARGIN;
+    region.y = (int) std::floor(min_y) - ROI_MARGIN;
+    region.width = (int) std::ceil(max_x) + ROI_MARGIN - region.x + 1;
+    region.height = (int) std::ceil(max_y) + ROI_MARGIN - region.y + 1;
+    return region;
+}
+
+/**
+ * Distance in source pixels between neighbour result pixels along the denser axis.
+ */
+static float warp_step(const CropWarp &warp) {
+    return cimg::min(std::sqrt(warp.a * warp.a + warp.d * warp.d),
+                     std::sqrt(warp.b * warp.b + warp.e * warp.e));
+}
+
+/**
+ * Largest JPEG IDCT downscale 1/denom (denom is 1, 2, 4 or 8) that still leaves at least one decoded pixel
+ * per result pixel along both axes, so only the residual fraction of the downscale is resampled.
+ */
+static int jpeg_scale_denom(const CropWarp &warp) {
+    const float step = warp_step(warp);
+    int denom = 1;
+    while (denom < 8 && denom * 2 <= step) {
+        denom *= 2;
+    }
+    return denom;
+}
+
+/**
+ * Maps warp to the image downscaled by 1/denom, where the decoded pixel i covers the source pixels
+ * [i * denom, (i + 1) * denom) and so its center is at i * denom + (denom - 1) / 2.
+ */
+static void scale_warp(CropWarp *warp, int denom) {
+    const float offset = 0.5f * (denom - 1);
+    warp->a /= denom;
+    warp->b /= denom;
+    warp->c = (warp->c - offset) / denom;
+    warp->d /= denom;
+    warp->e /= denom;
+    warp->f = (warp->f - offset) / denom;
+}
+
+/**
+ * Pixels of a decoded region, released when the crop leaves the scope, also on exceptions.
+ */
+struct DecodedPixels {
+    unsigned char *data;
+
+    DecodedPixels() : data(NULL) {
+    }
+
+    ~DecodedPixels() {
+        free(data);
+    }
+};
+
+struct HalveJob {
+    const SourceImage *src;
+    unsigned char *dst;
+};
+
+static void run_halve_job(void *arg, int row_begin, int row_end) {
+    const HalveJob *job = (const HalveJob *) arg;
+    box_halve_rows(job->src, job->dst, row_begin, row_end);
+}
+
+/**
+ * Replaces the source with levels of its box filtered pyramid while the result still has at most
+ * one pixel per 2 source pixels, so every source pixel contributes to the result instead of being
+ * skipped by interpolation. Only the current level and the next one exist at once.
+ *
+ * @return - number of halvings
+ */
+static int downscale_source(SourceImage *src, CropWarp *warp, DecodedPixels *pixels, int threads) {
+    int levels = 0;
+    while (warp_step(*warp) >= 2 && src->width > 1 && src->height > 1) {
+        const int width = (src->width + 1) / 2, height = (src->height + 1) / 2;
+        unsigned char *level = (unsigned char *) malloc((size_t) width * height * src->components);
+        if (!level) {
+            throw CImgInstanceException("cropCImg(): Failed to allocate %dx%d pyramid level", width, height);
+        }
+        HalveJob job;
+        job.src = src;
+        job.dst = level;
+        parallel_rows(height, threads, run_halve_job, &job);
+
+        free(pixels->data);
+        pixels->data = level;
+        src->data = level;
+        src->width = width;
+        src->height = height;
+        scale_warp(warp, 2);
+        levels++;
+    }
+    return levels;
+}
+
+/**
+ * Maps a pixel of the image rotated clockwise by a right angle back to the not rotated image.
+ */
+static void rotated_to_oriented(int rx, int ry, int oriented_width, int oriented_height, int degrees,
+                                int *ox, int *oy) {
+    switch (degrees) {
+        case 90:
+            *ox = ry;
+            *oy = oriented_height - 1 - rx;
+            break;
+        case 180:
+            *ox = oriented_width - 1 - rx;
+            *oy = oriented_height - 1 - ry;
+            break;
+        case 270:
+            *ox = oriented_width - 1 - ry;
+            *oy = rx;
+            break;
+        default:
+            *ox = rx;
+            *oy = ry;
+    }
+}
+
+/**
+ * Maps a pixel of the rotated and EXIF oriented image to the stored image.
+ */
+static void rotated_to_source(int rx, int ry, int src_width, int src_height,
+                              int degrees, int exif_degrees, int exif_translation, int *sx, int *sy) {
+    const bool swap_sides = exif_degrees == 90 || exif_degrees == 270;
+    int ox, oy;
+    rotated_to_oriented(rx, ry, swap_sides ? src_height : src_width, swap_sides ? src_width : src_height,
+                        degrees, &ox, &oy);
+    float fx, fy;
+    oriented_to_source(ox, oy, src_width, src_height, exif_degrees, exif_translation, &fx, &fy);
+    *sx = (int) fx;
+    *sy = (int) fy;
+}
+
+bool crop_jpeg_lossless(const ImageSource *source, const char *result_path,
+                        int left, int top, int width, int height, int angle,
+                        int exif_degrees, int exif_translation, int *result_rect,
+                        char *error, int error_size) {
+    bool transformed = false;
+    int src_width, src_height, src_components;
+    if (jpeg_read_info(source, &src_width, &src_height, &src_components)) {
+        LOGD("Crop JPEG losslessly");
+
+        // Result pixel (x, y) maps to the source pixel origin + x * axis_x + y * axis_y.
+        int origin_x, origin_y, axis_x_x, axis_x_y, axis_y_x, axis_y_y;
+        rotated_to_source(0, 0, src_width, src_height, angle, exif_degrees, exif_translation, &origin_x, &origin_y);
+        rotated_to_source(1, 0, src_width, src_height, angle, exif_degrees, exif_translation, &axis_x_x, &axis_x_y);
+        rotated_to_source(0, 1, src_width, src_height, angle, exif_degrees, exif_translation, &axis_y_x, &axis_y_y);
+        axis_x_x -= origin_x;
+        axis_x_y -= origin_y;
+        axis_y_x -= origin_x;
+        axis_y_y -= origin_y;
+
+        JpegTransform transform;
+        transform.transpose = axis_x_x == 0;
+        transform.flip_x = transform.transpose ? axis_y_x < 0 : axis_x_x < 0;
+        transform.flip_y = transform.transpose ? axis_x_y < 0 : axis_y_y < 0;
+
+        int sx0, sy0, sx1, sy1;
+        rotated_to_source(left, top, src_width, src_height, angle, exif_degrees, exif_translation, &sx0, &sy0);
+        rotated_to_source(left + width - 1, top + height - 1, src_width, src_height, angle, exif_degrees, exif_translation, &sx1, &sy1);
+
+        ImageRegion region;
+        region.x = cimg::min(sx0, sx1);
+        region.y = cimg::min(sy0, sy1);
+        region.width = cimg::abs(sx1 - sx0) + 1;
+        region.height = cimg::abs(sy1 - sy0) + 1;
+
+        transformed = jpeg_transform_region(source, result_path, &transform, &region, error, error_size);
+        if (transformed) {
+            // Map the snapped region back, the axes are unit vectors so the inverse is the transpose.
+            int corners[2][2] = {{region.x, region.y}, {region.x + region.width - 1, region.y + region.height - 1}};
+            int rect[4] = {INT_MAX, INT_MAX, INT_MIN, INT_MIN};
+            for (int i = 0; i < 2; i++) {
+                const int dx = corners[i][0] - origin_x, dy = corners[i][1] - origin_y;
+                const int rx = dx * axis_x_x + dy * axis_x_y, ry = dx * axis_y_x + dy * axis_y_y;
+                rect[0] = cimg::min(rect[0], rx);
+                rect[1] = cimg::min(rect[1], ry);
+                rect[2] = cimg::max(rect[2], rx);
+                rect[3] = cimg::max(rect[3], ry);
+            }
+            result_rect[0] = rect[0];
+            result_rect[1] = rect[1];
+            result_rect[2] = rect[2] - rect[0] + 1;
+            result_rect[3] = rect[3] - rect[1] + 1;
+        }
+    }
+    return transformed;
+}
+
+static jboolean crop_jpeg_lossless_java(JNIEnv *env, const ImageSource *source, const char *file_result_path,
+                                        jint left, jint top, jint width, jint height, jint angle,
+                                        jint exifDegrees, jint exifTranslation, jintArray resultBounds) {
+    char error[JMSG_LENGTH_MAX] = "";
+    int bounds[4];
+    const bool transformed = crop_jpeg_lossless(source, file_result_path, left, top, width, height, angle,
+                                                exifDegrees, exifTranslation, bounds, error, sizeof(error));
+    if (transformed) {
+        env->SetIntArrayRegion(resultBounds, 0, 4, bounds);
+    } else if (error[0] != '\0') {
+        env->ThrowNew(env->FindClass("java/io/IOException"), error);
+    }
+    return transformed;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_NativeCrop_cropJpegLossless
     (JNIEnv *env, jobject obj,
     jstring pathSource, jstring pathResult,
-    jint left, jint top, jint width, jint height, jfloat angle, jfloat resizeScale,
-    jint format, jint quality,
-    jint exifDegrees, jint exifTranslation) {
-
-    LOGD("Crop image with CImg");
+    jint left, jint top, jint width, jint height, jint angle,
+    jint exifDegrees, jint exifTranslation, jintArray resultBounds) {
 
     const char *file_source_path = env->GetStringUTFChars(pathSource, 0);
     const char *file_result_path = env->GetStringUTFChars(pathResult, 0);
 
+    const ImageSource source = image_source_from_path(file_source_path);
+    const jboolean transformed = crop_jpeg_lossless_java(env, &source, file_result_path,
+                                                         left, top, width, height, angle,
+                                                         exifDegrees, exifTranslation, resultBounds);
+
+    env->ReleaseStringUTFChars(pathSource, file_source_path);
+    env->ReleaseStringUTFChars(pathResult, file_result_path);
+
+    return transformed;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_NativeCrop_cropJpegLosslessFd
+    (JNIEnv *env, jobject obj,
+    jint fdSource, jstring pathResult,
+    jint left, jint top, jint width, jint height, jint angle,
+    jint exifDegrees, jint exifTranslation, jintArray resultBounds) {
+
+    const char *file_result_path = env->GetStringUTFChars(pathResult, 0);
+
+    const ImageSource source = image_source_from_fd(fdSource);
+    const jboolean transformed = crop_jpeg_lossless_java(env, &source, file_result_path,
+                                                         left, top, width, height, angle,
+                                                         exifDegrees, exifTranslation, resultBounds);
+
+    env->ReleaseStringUTFChars(pathResult, file_result_path);
+
+    return transformed;
+}
+
+/**
+ * Loads formats without a region decoder (and interlaced PNG) with CImg. Only files can be loaded by name,
+ * other sources are recognized by their signature and limited to the formats CImg reads from a stream.
+ */
+static void load_source(CImg<unsigned char> &img, const ImageSource *source) {
+    if (source->path != NULL) {
+        img.load(source->path);
+        return;
+    }
+    std::FILE *file = image_source_open(source);
+    if (file == NULL) {
+        throw CImgIOException("cropCImg(): Failed to open %s", image_source_name(source));
+    }
     try {
-        CImg<unsigned char> img(file_source_path);
-        const int
-        x0 = left, y0 = top,
-        x1 = left + width - 1, y1 = top + height - 1;
-
-        /*
-        LOGD("left %d\ntop: %d", left, top);
-        LOGD("width %d\nheight: %d", width, height);
-        LOGD("angle %f\nresizeScale: %f", angle, resizeScale);
-        LOGD("image size pre: %d x %d", img.width(), img.height());
-        LOGD("exifDegrees: %d \nexifTranslation: %d", exifDegrees, exifTranslation);
-        */
-
-        // Handle exif. However it is slow, maybe calculate warp field according to exif rotation/translation.
-        if (exifDegrees != 0) {
-            img.rotate(exifDegrees);
-        }
-        if (exifTranslation != 1) {
-            img.mirror("x");
+        const char *type = cimg::ftype(file, 0);
+        std::rewind(file);
+        if (type != NULL && !std::strcmp(type, "jpg")) {
+            img.load_jpeg(file);
+        } else if (type != NULL && !std::strcmp(type, "png")) {
+            img.load_png(file);
+        } else if (type != NULL && !std::strcmp(type, "bmp")) {
+            img.load_bmp(file);
+        } else if (type != NULL && !std::strcmp(type, "pnm")) {
+            img.load_pnm(file);
+        } else {
+            throw CImgIOException("cropCImg(): Unsupported format of %s", image_source_name(source));
         }
+    } catch (...) {
+        std::fclose(file);
+        throw;
+    }
+    std::fclose(file);
+}
 
-        const int
-            size_x = img.width() * resizeScale, size_y = img.height() * resizeScale,
-            size_z = -100, size_c = -100, interpolation_type = 1;
+int crop_image(const ImageSource *source, const ImageTarget *target, unsigned char *pixels, int stride,
+               int width, int height, const float *matrix, const CropOptions *options,
+               const CropListener *listener, char *error, int error_size) {
 
-        const unsigned int boundary_conditions = 0;
-        const float
-        centering_x = 0, centering_y = 0, centering_z = 0, centering_c = 0;
-        if (resizeScale != 1) {
-            img.resize(size_x, size_y, size_z, size_c, interpolation_type, boundary_conditions, centering_x, centering_y, centering_z, centering_c);
-        }
+    LOGD("Crop image with CImg");
 
-        // Create warp field.
-        CImg<float> warp(cimg::abs(x1 - x0 + 1), cimg::abs(y1 - y0 + 1), 1, 2);
+    CropProgress progress;
+    crop_progress_init(&progress, listener);
 
-        const float
-        rad = angle * cimg::PI/180,
-        ca = std::cos(rad), sa = std::sin(rad),
-        ux = cimg::abs(img.width() * ca), uy = cimg::abs(img.width() * sa),
-        vx = cimg::abs(img.height() * sa), vy = cimg::abs(img.height() * ca),
-        w2 = 0.5f * img.width(), h2 = 0.5f * img.height(),
-        dw2 = 0.5f * (ux + vx), dh2 = 0.5f * (uy + vy);
-
-        cimg_forXY(warp, x, y) {
-            const float
-            u = x + x0 - dw2, v = y + y0 - dh2;
-
-            warp(x, y, 0) = w2 + u*ca + v*sa;
-            warp(x, y, 1) = h2 - u*sa + v*ca;
+    try {
+        CropWarp warp;
+        warp.a = matrix[0];
+        warp.b = matrix[1];
+        warp.c = matrix[2];
+        warp.d = matrix[3];
+        warp.e = matrix[4];
+        warp.f = matrix[5];
+
+        // Source pixels are interleaved, either a decoded region or the whole image loaded by CImg.
+        DecodedPixels decoded;
+        CImg<unsigned char> img;
+        SourceImage src;
+
+        int src_width, src_height, src_components;
+        const bool is_jpeg = jpeg_read_info(source, &src_width, &src_height, &src_components);
+        if (is_jpeg || png_read_image_info(source, &src_width, &src_height, &src_components)) {
+            int scale_denom = is_jpeg ? jpeg_scale_denom(warp) : 1;
+            while (is_jpeg && scale_denom < options->scale_denom && scale_denom < 8) {
+                scale_denom *= 2;
+            }
+            if (scale_denom != 1) {
+                scale_warp(&warp, scale_denom);
+                LOGD("Decode JPEG downscaled by 1/%d", scale_denom);
+            }
+            ImageRegion region = source_region(warp, width, height);
+
+            int components;
+            char decode_error[JMSG_LENGTH_MAX];
+            const bool region_decoded = is_jpeg
+                                        ? jpeg_decode_region(source, scale_denom, &region, &decoded.data, &components,
+                                                             decode_error, sizeof(decode_error))
+                                        : png_decode_region(source, &region, &decoded.data, &components,
+                                                            decode_error, sizeof(decode_error));
+            if (!region_decoded) {
+                throw CImgIOException("cropCImg(): Failed to decode %s region: %s", is_jpeg ? "JPEG" : "PNG", decode_error);
+            }
+            src.data = decoded.data;
+            src.width = region.width;
+            src.height = region.height;
+            src.components = components;
+
+            LOGD("Decoded region %d,%d %dx%d of %dx%d", region.x, region.y, region.width, region.height, src_width, src_height);
+
+            warp.c -= region.x;
+            warp.f -= region.y;
+        } else {
+            load_source(img, source);
+            src.width = img.width();
+            src.height = img.height();
+            src.components = img.spectrum();
+            // CImg stores channels in planes.
+            img.permute_axes("cxyz");
+            src.data = img.data();
+        }
+        if (!crop_progress(&progress, 0, height)) {
+            throw CImgAbortException("cropCImg(): Cancelled after decoding");
+        }
+
+        const int threads = thread_count(options->threads);
+        // Nearest neighbor is chosen for speed, it samples the source as is.
+        if (options->resampling != RESAMPLING_NEAREST) {
+            const int levels = downscale_source(&src, &warp, &decoded, threads);
+            if (levels > 0) {
+                // Pyramid levels are owned by decoded pixels, CImg copy of the source isn't needed anymore.
+                img.assign();
+                LOGD("Sample pyramid level %d, %dx%d", levels, src.width, src.height);
+            }
         }
 
-        img = img.get_warp(warp, 0, 1, 2);
+        CropRowSource crop;
+        crop.src = &src;
+        crop.warp = &warp;
+        crop.sample_row = sample_row_function(options->resampling, src.components);
+        // Right angle rotations and mirrors, also by EXIF orientation alone, are plain copies.
+        crop.exact = snap_exact_warp(&src, width, height, &warp);
+        if (crop.exact) {
+            LOGD("Copy pixels of right angle rotation");
+        }
+        crop.width = width;
+        crop.height = height;
+        crop.threads = threads;
+        crop.progress = &progress;
+        RowSource rows;
+        rows.read = read_crop_rows;
+        rows.arg = &crop;
+        // Strip is large enough to keep all threads busy, only a few strips of the result exist at once.
+        const int strip_height = cimg::max(MIN_STRIP_HEIGHT, MIN_ROWS_PER_THREAD * crop.threads);
 
-        if (format == SAVE_FORMAT_JPEG) {
-            img.save_jpeg(file_result_path, quality);
+        const int format = options->format, quality = options->quality;
+        char encode_error[JMSG_LENGTH_MAX];
+        if (pixels != NULL) {
+            if (!rgba_write_rows(pixels, stride, width, height, src.components, &rows, strip_height,
+                                 encode_error, sizeof(encode_error)) && !progress.cancelled) {
+                throw CImgInstanceException("cropCImg(): Failed to write bitmap: %s", encode_error);
+            }
+        } else if (format == SAVE_FORMAT_JPEG) {
+            if (!jpeg_encode_rows(target, width, height, src.components, quality,
+                                  &rows, strip_height, encode_error, sizeof(encode_error)) && !progress.cancelled) {
+                throw CImgIOException("cropCImg(): Failed to encode JPEG: %s", encode_error);
+            }
         } else if (format == SAVE_FORMAT_PNG) {
-            img.save_png(file_result_path, 0);
+            PngOptions png_options;
+            png_options.level = options->png_level;
+            png_options.filter = options->png_filter;
+            png_options.threads = options->png_parallel ? threads : 1;
+            if (!png_encode_rows(target, width, height, src.components, &png_options,
+                                 &rows, strip_height, encode_error, sizeof(encode_error)) && !progress.cancelled) {
+                throw CImgIOException("cropCImg(): Failed to encode PNG: %s", encode_error);
+            }
+        } else if (format == SAVE_FORMAT_WEBP || format == SAVE_FORMAT_WEBP_LOSSY
+                   || format == SAVE_FORMAT_WEBP_LOSSLESS) {
+            const bool lossless = format == SAVE_FORMAT_WEBP_LOSSLESS || (format == SAVE_FORMAT_WEBP && quality == 100);
+            if (!webp_encode_rows(target, width, height, src.components, quality, lossless, options->webp_effort,
+                                  &rows, strip_height, encode_error, sizeof(encode_error)) && !progress.cancelled) {
+                throw CImgIOException("cropCImg(): Failed to encode WebP: %s", encode_error);
+            }
+        } else if (target->path != NULL) {
+            // Other formats are saved by CImg from the whole result.
+            CImg<unsigned char> result(src.components, width, height, 1);
+            char temp_path[PATH_MAX];
+            if (!image_target_temp_path(target, temp_path, sizeof(temp_path))) {
+                throw CImgIOException("cropCImg(): Path '%s' is too long", target->path);
+            }
+            if (read_crop_rows(&crop, result.data(), 0, height)) {
+                try {
+                    result.permute_axes("yzcx").save(temp_path);
+                } catch (CImgIOException e) {
+                    image_target_discard(target);
+                    throw;
+                }
+                if (!image_target_finish(target, NULL)) {
+                    throw CImgIOException("cropCImg(): Failed to write file '%s'", target->path);
+                }
+            }
         } else {
-            img.save(file_result_path);
+            throw CImgIOException("cropCImg(): Format %d can't be written to a file descriptor", format);
         }
 
-        ~img;
-        env->ReleaseStringUTFChars(pathSource, file_source_path);
-        env->ReleaseStringUTFChars(pathResult, file_result_path);
+        if (progress.cancelled) {
+            throw CImgAbortException("cropCImg(): Cancelled");
+        }
 
-        return true;
+        ~img;
+        return CROP_RESULT_OK;
 
+    } catch (CImgAbortException e) {
+        LOGD("Crop cancelled");
+        snprintf(error, error_size, "%s", e.what());
+        return CROP_RESULT_CANCELLED;
     } catch (CImgInstanceException e) {
-        env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), e.what());
+        snprintf(error, error_size, "%s", e.what());
+        return CROP_RESULT_OUT_OF_MEMORY;
     } catch (CImgIOException e) {
-        env->ThrowNew(env->FindClass("java/io/IOException"), e.what());
+        snprintf(error, error_size, "%s", e.what());
+        return CROP_RESULT_IO_ERROR;
+    }
+}
+
+/**
+ * Calls back the Java progress listener, which answers whether the crop should go on.
+ */
+struct JavaCropTask {
+    JNIEnv *env;
+    jobject task;
+    jmethodID on_progress;
+};
+
+static bool java_crop_progress(void *arg, int rows_done, int rows) {
+    const JavaCropTask *java_task = (const JavaCropTask *) arg;
+    JNIEnv *env = java_task->env;
+    const bool proceed = env->CallBooleanMethod(java_task->task, java_task->on_progress,
+                                                (jint) rows_done, (jint) rows) != JNI_FALSE;
+    if (env->ExceptionCheck()) {
+        env->ExceptionClear();
+        return false;
+    }
+    return proceed;
+}
+
+/**
+ * Result is written to the target encoded in given format, or to the pixels if they are not NULL.
+ * Progress is reported to the listener if it is not NULL, cancelled crop throws CancellationException.
+ */
+static jboolean crop_image_java(JNIEnv *env, const ImageSource *source, const ImageTarget *target,
+                                unsigned char *pixels, int stride, jint width, jint height, jfloatArray matrix,
+                                const CropOptions *options, jobject task) {
+    jfloat values[6];
+    env->GetFloatArrayRegion(matrix, 0, 6, values);
+
+    JavaCropTask java_task;
+    java_task.env = env;
+    java_task.task = task;
+    java_task.on_progress = NULL;
+    if (task != NULL) {
+        jclass task_class = env->GetObjectClass(task);
+        java_task.on_progress = env->GetMethodID(task_class, "onNativeProgress", "(II)Z");
+        env->DeleteLocalRef(task_class);
+        if (java_task.on_progress == NULL) {
+            env->ExceptionClear();
+        }
     }
+    CropListener listener;
+    listener.progress = java_crop_progress;
+    listener.arg = &java_task;
 
+    char error[JMSG_LENGTH_MAX];
+    const int result = crop_image(source, target, pixels, stride, width, height, values, options,
+                                  java_task.on_progress != NULL ? &listener : NULL, error, sizeof(error));
+    switch (result) {
+        case CROP_RESULT_OK:
+            return true;
+        case CROP_RESULT_CANCELLED:
+            env->ThrowNew(env->FindClass("java/util/concurrent/CancellationException"), error);
+            break;
+        case CROP_RESULT_OUT_OF_MEMORY:
+            env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), error);
+            break;
+        default:
+            env->ThrowNew(env->FindClass("java/io/IOException"), error);
+    }
     return false;
-}
\ No newline at end of file
+}
+
+/**
+ * @param pngParallelDeflate - PNG is deflated on all threads of the crop, which makes it a bit larger
+ * @param scaleDenom         - JPEG is decoded downscaled by at least 1/scaleDenom, so the region fits into memory
+ */
+static jboolean crop_file(JNIEnv *env, const ImageSource *source, const ImageTarget *target,
+                          jint width, jint height, jfloatArray matrix,
+                          jint format, jint quality, jint webpEffort,
+                          jint pngLevel, jint pngFilter, jboolean pngParallelDeflate,
+                          jint resampling, jint scaleDenom, jint threadCount, jobject task) {
+    CropOptions options;
+    options.format = format;
+    options.quality = quality;
+    options.webp_effort = webpEffort;
+    options.png_level = pngLevel;
+    options.png_filter = pngFilter;
+    options.png_parallel = pngParallelDeflate != JNI_FALSE;
+    options.resampling = resampling;
+    options.scale_denom = scaleDenom;
+    options.threads = threadCount;
+    return crop_image_java(env, source, target, NULL, 0, width, height, matrix, &options, task);
+}
+
+/**
+ * Crops into the bitmap, the result has its size.
+ */
+static jboolean crop_bitmap(JNIEnv *env, const ImageSource *source, jobject bitmap, jfloatArray matrix,
+                            jint resampling, jint scaleDenom, jint threadCount, jobject task) {
+    AndroidBitmapInfo info;
+    if (AndroidBitmap_getInfo(env, bitmap, &info) != ANDROID_BITMAP_RESULT_SUCCESS
+        || info.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "Result bitmap must be ARGB_8888");
+        return false;
+    }
+    void *pixels;
+    if (AndroidBitmap_lockPixels(env, bitmap, &pixels) != ANDROID_BITMAP_RESULT_SUCCESS) {
+        env->ThrowNew(env->FindClass("java/io/IOException"), "Failed to lock pixels of the result bitmap");
+        return false;
+    }
+    CropOptions options;
+    options.format = -1;
+    options.quality = 0;
+    options.webp_effort = 0;
+    options.png_level = 0;
+    options.png_filter = 0;
+    options.png_parallel = false;
+    options.resampling = resampling;
+    options.scale_denom = scaleDenom;
+    options.threads = threadCount;
+    const jboolean cropped = crop_image_java(env, source, NULL, (unsigned char *) pixels, (int) info.stride,
+                                             (jint) info.width, (jint) info.height, matrix, &options, task);
+    AndroidBitmap_unlockPixels(env, bitmap);
+    return cropped;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_NativeCrop_cropCImg
+    (JNIEnv *env, jobject obj,
+    jstring pathSource, jstring pathResult,
+    jint width, jint height, jfloatArray matrix,
+    jint format, jint quality, jint webpEffort,
+    jint pngLevel, jint pngFilter, jboolean pngParallelDeflate,
+    jint resampling, jint scaleDenom, jint threadCount, jobject task) {
+
+    const char *file_source_path = env->GetStringUTFChars(pathSource, 0);
+    const char *file_result_path = env->GetStringUTFChars(pathResult, 0);
+
+    const ImageSource source = image_source_from_path(file_source_path);
+    const ImageTarget target = image_target_from_path(file_result_path);
+    const jboolean cropped = crop_file(env, &source, &target, width, height, matrix,
+                                       format, quality, webpEffort, pngLevel, pngFilter, pngParallelDeflate,
+                                       resampling, scaleDenom, threadCount, task);
+
+    env->ReleaseStringUTFChars(pathSource, file_source_path);
+    env->ReleaseStringUTFChars(pathResult, file_result_path);
+
+    return cropped;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_NativeCrop_cropCImgFd
+    (JNIEnv *env, jobject obj,
+    jint fdSource, jint fdResult,
+    jint width, jint height, jfloatArray matrix,
+    jint format, jint quality, jint webpEffort,
+    jint pngLevel, jint pngFilter, jboolean pngParallelDeflate,
+    jint resampling, jint scaleDenom, jint threadCount, jobject task) {
+
+    const ImageSource source = image_source_from_fd(fdSource);
+    const ImageTarget target = image_target_from_fd(fdResult);
+    return crop_file(env, &source, &target, width, height, matrix,
+                      format, quality, webpEffort, pngLevel, pngFilter, pngParallelDeflate,
+                      resampling, scaleDenom, threadCount, task);
+}
+
+JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_NativeCrop_cropCImgBitmap
+    (JNIEnv *env, jobject obj,
+    jstring pathSource, jobject bitmapResult, jfloatArray matrix,
+    jint resampling, jint scaleDenom, jint threadCount, jobject task) {
+
+    const char *file_source_path = env->GetStringUTFChars(pathSource, 0);
+
+    const ImageSource source = image_source_from_path(file_source_path);
+    const jboolean cropped = crop_bitmap(env, &source, bitmapResult, matrix, resampling, scaleDenom, threadCount, task);
+
+    env->ReleaseStringUTFChars(pathSource, file_source_path);
+
+    return cropped;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_yalantis_ucrop_task_NativeCrop_cropCImgFdBitmap
+    (JNIEnv *env, jobject obj,
+    jint fdSource, jobject bitmapResult, jfloatArray matrix,
+    jint resampling, jint scaleDenom, jint threadCount, jobject task) {
+
+    const ImageSource source = image_source_from_fd(fdSource);
+    return crop_bitmap(env, &source, bitmapResult, matrix, resampling, scaleDenom, threadCount, task);
+}
+
+JNIEXPORT jfloatArray JNICALL Java_com_yalantis_ucrop_task_NativeCrop_cropMatrix
+    (JNIEnv *env, jobject obj,
+    jint imageWidth, jint imageHeight, jint exifDegrees, jint exifTranslation,
+    jfloat resizeScale, jfloat angle, jint left, jint top) {
+
+    jfloat values[6];
+    crop_matrix(imageWidth, imageHeight, exifDegrees, exifTranslation, resizeScale, angle, left, top, values);
+
+    jfloatArray matrix = env->NewFloatArray(6);
+    if (matrix != NULL) {
+        env->SetFloatArrayRegion(matrix, 0, 6, values);
+    }
+    return matrix;
+}
@@ -0,0 +1,110 @@
+//
+// WebP encoder used by the native crop.
+//
+
+#include <stdio.h>
+#include <stdlib.h>
+
+#include "webp/encode.h"
+#include "image_encoder.h"
+
+static int write_file(const uint8_t *data, size_t data_size, const WebPPicture *picture) {
+    return fwrite(data, 1, data_size, (FILE *) picture->custom_ptr) == data_size;
+}
+
+/**
+ * Packs a strip of gray, gray + alpha, RGB or RGBA samples into ARGB words of the picture.
+ */
+static void pack_argb(const unsigned char *strip, int width, int components, uint32_t *argb) {
+    for (int x = 0; x < width; x++, strip += components) {
+        uint32_t a = 255, r, g, b;
+        if (components < 3) {
+            r = g = b = strip[0];
+            if (components == 2) {
+                a = strip[1];
+            }
+        } else {
+            r = strip[0];
+            g = strip[1];
+            b = strip[2];
+            if (components == 4) {
+                a = strip[3];
+            }
+        }
+        argb[x] = (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
+
+bool webp_encode_rows(const ImageTarget *target, int width, int height, int components,
+                      int quality, bool lossless, int effort,
+                      const RowSource *source, int strip_height,
+                      char *error, int error_size) {
+    WebPConfig config;
+    if (!WebPConfigInit(&config)) {
+        snprintf(error, error_size, "WebP encoder version mismatch");
+        return false;
+    }
+    config.lossless = lossless ? 1 : 0;
+    config.quality = (float) (quality < 0 ? 0 : quality > 100 ? 100 : quality);
+    config.method = effort < 0 ? 0 : effort > 6 ? 6 : effort;
+    if (!WebPValidateConfig(&config)) {
+        snprintf(error, error_size, "Invalid WebP encoder configuration");
+        return false;
+    }
+
+    // WebP is encoded from the whole picture, only the strips of the source are not held at once.
+    WebPPicture picture;
+    if (!WebPPictureInit(&picture)) {
+        snprintf(error, error_size, "WebP encoder version mismatch");
+        return false;
+    }
+    picture.use_argb = 1;
+    picture.width = width;
+    picture.height = height;
+    unsigned char *strip = (unsigned char *) malloc((size_t) width * components * strip_height);
+    if (strip == NULL || !WebPPictureAlloc(&picture)) {
+        snprintf(error, error_size, "Failed to allocate %dx%d picture", width, height);
+        free(strip);
+        return false;
+    }
+
+    for (int strip_begin = 0; strip_begin < height; strip_begin += strip_height) {
+        const int strip_end = strip_begin + strip_height < height ? strip_begin + strip_height : height;
+        if (!source->read(source->arg, strip, strip_begin, strip_end)) {
+            snprintf(error, error_size, "Cancelled");
+            WebPPictureFree(&picture);
+            free(strip);
+            return false;
+        }
+        for (int y = strip_begin; y < strip_end; y++) {
+            pack_argb(strip + (size_t) (y - strip_begin) * width * components, width, components,
+                      picture.argb + (size_t) y * picture.argb_stride);
+        }
+    }
+    free(strip);
+
+    FILE *file = image_target_open(target);
+    if (file == NULL) {
+        snprintf(error, error_size, "Failed to open file '%s'", image_target_name(target));
+        WebPPictureFree(&picture);
+        return false;
+    }
+    picture.writer = write_file;
+    picture.custom_ptr = file;
+    const bool encoded = WebPEncode(&config, &picture) != 0;
+    if (!encoded) {
+        snprintf(error, error_size, "WebP encoder error %d", (int) picture.error_code);
+    }
+    WebPPictureFree(&picture);
+
+    if (!encoded) {
+        fclose(file);
+        image_target_discard(target);
+        return false;
+    }
+    if (!image_target_finish(target, file)) {
+        snprintf(error, error_size, "Failed to write file '%s'", image_target_name(target));
+        return false;
+    }
+    return true;
+}